@@ -0,0 +1,403 @@
+package de.lakoja.roverremote;
+
+import android.util.Log;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Converts a recorded session (see FrameLog) into an MJPEG AVI file that common players understand.
+ *
+ * Streams: the jpeg data is copied from the segment files to the target channel by the operating
+ * system (transferTo) and the index is collected in a temporary file appended at the end; memory use
+ * does not depend on the length of the session. Header values only known at the end (frame count,
+ * frame rate, sizes) are patched in afterwards.
+ *
+ * All sizes and offsets of an AVI file are 32 bit: the export is aborted (and the target deleted) as
+ * soon as the next frame would make the file too large.
+ */
+public class AviExporter {
+    private static final String TAG = AviExporter.class.getName();
+
+    private static final int AVIF_HASINDEX = 0x10;
+    private static final int AVIIF_KEYFRAME = 0x10;
+    private static final int AVI_HEADER_LENGTH = 56;
+    private static final int STREAM_HEADER_LENGTH = 56;
+    private static final int BITMAP_INFO_LENGTH = 40;
+    private static final int INDEX_ENTRY_LENGTH = 16;
+    private static final long MAX_FILE_SIZE = 0xffffffffL;
+
+    private final File sessionDirectory;
+
+    private final ByteBuffer header = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer recordHeader = ByteBuffer.allocate(FrameLog.RECORD_HEADER_LENGTH);
+    private final ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer indexBuffer = ByteBuffer.allocate(INDEX_ENTRY_LENGTH * 512).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer jpegHeader = ByteBuffer.allocate(9);
+    private final ByteBuffer padding = ByteBuffer.allocate(1);
+
+    // Positions of the values patched at the end
+    private int riffSizePosition;
+    private int microSecondsPerFramePosition;
+    private int maxBytesPerSecondPosition;
+    private int totalFramesPosition;
+    private int suggestedBufferSizePosition;
+    private int widthPosition;
+    private int streamRatePosition;
+    private int streamLengthPosition;
+    private int streamBufferSizePosition;
+    private int streamFramePosition;
+    private int bitmapWidthPosition;
+    private int moviSizePosition;
+    private long moviStart;
+
+    private int frames = 0;
+    private int maxFrameLength = 0;
+    private int width = 0;
+    private int height = 0;
+    private long firstArrivalMillis = -1;
+    private long lastArrivalMillis = -1;
+
+    public AviExporter(File sessionDirectory) {
+        this.sessionDirectory = sessionDirectory;
+    }
+
+    /**
+     * @return the number of frames written
+     * @throws IOException also if the session is too large; no target file remains then
+     */
+    public int export(File target) throws IOException {
+        long startNanos = System.nanoTime();
+        File indexFile = new File(target.getPath() + ".idx");
+        RandomAccessFile targetFile = new RandomAccessFile(target, "rw");
+        RandomAccessFile index = null;
+        boolean exported = false;
+
+        try {
+            index = new RandomAccessFile(indexFile, "rw");
+
+            targetFile.setLength(0);
+            index.setLength(0);
+            FileChannel output = targetFile.getChannel();
+            FileChannel indexOutput = index.getChannel();
+
+            writeHeaders(output);
+
+            for (int segment = 0; ; segment++) {
+                File segmentFile = FrameLog.segmentFile(sessionDirectory, segment);
+                if (!segmentFile.exists()) {
+                    break;
+                }
+
+                FileInputStream input = new FileInputStream(segmentFile);
+                try {
+                    copySegment(input.getChannel(), output, indexOutput);
+                } finally {
+                    input.close();
+                }
+            }
+
+            flushIndex(indexOutput);
+            long moviEnd = output.position();
+
+            writeFourCc(chunkHeader, "idx1");
+            chunkHeader.putInt(unsigned32(indexOutput.size()));
+            chunkHeader.flip();
+            writeAll(output, chunkHeader);
+            transferAll(indexOutput, 0, indexOutput.size(), output);
+
+            patchHeaders(output, moviEnd);
+            output.force(false);
+            exported = true;
+        } finally {
+            if (index != null) {
+                index.close();
+            }
+            targetFile.close();
+            if (indexFile.exists() && !indexFile.delete()) {
+                Log.w(TAG, "Cannot delete " + indexFile);
+            }
+            // No half written file that players choke on
+            if (!exported && !target.delete()) {
+                Log.w(TAG, "Cannot delete " + target);
+            }
+        }
+
+        float seconds = (System.nanoTime() - startNanos) / 1000000000.0f;
+        Log.i(TAG, "Exported " + frames + " frames (" + width + "x" + height + ") of " + sessionDirectory.getName() + " to " + target
+                + " in " + Math.round(seconds * 1000) + "ms: " + Math.round(target.length() / 1048576.0f / Math.max(seconds, 0.001f)) + " MB/s");
+        return frames;
+    }
+
+    private void writeHeaders(FileChannel output) throws IOException {
+        header.clear();
+
+        writeFourCc(header, "RIFF");
+        riffSizePosition = header.position();
+        header.putInt(0);
+        writeFourCc(header, "AVI ");
+
+        writeFourCc(header, "LIST");
+        int hdrlSizePosition = header.position();
+        header.putInt(0);
+        writeFourCc(header, "hdrl");
+
+        writeFourCc(header, "avih");
+        header.putInt(AVI_HEADER_LENGTH);
+        microSecondsPerFramePosition = header.position();
+        header.putInt(0);
+        maxBytesPerSecondPosition = header.position();
+        header.putInt(0);
+        header.putInt(0); // padding granularity
+        header.putInt(AVIF_HASINDEX);
+        totalFramesPosition = header.position();
+        header.putInt(0);
+        header.putInt(0); // initial frames
+        header.putInt(1); // streams
+        suggestedBufferSizePosition = header.position();
+        header.putInt(0);
+        widthPosition = header.position();
+        header.putInt(0);
+        header.putInt(0);
+        putZeros(header, 16); // reserved
+
+        writeFourCc(header, "LIST");
+        int strlSizePosition = header.position();
+        header.putInt(0);
+        writeFourCc(header, "strl");
+
+        writeFourCc(header, "strh");
+        header.putInt(STREAM_HEADER_LENGTH);
+        writeFourCc(header, "vids");
+        writeFourCc(header, "MJPG");
+        header.putInt(0); // flags
+        header.putShort((short)0); // priority
+        header.putShort((short)0); // language
+        header.putInt(0); // initial frames
+        header.putInt(1); // scale
+        streamRatePosition = header.position();
+        header.putInt(0);
+        header.putInt(0); // start
+        streamLengthPosition = header.position();
+        header.putInt(0);
+        streamBufferSizePosition = header.position();
+        header.putInt(0);
+        header.putInt(-1); // quality
+        header.putInt(0); // sample size
+        streamFramePosition = header.position();
+        putZeros(header, 8);
+
+        writeFourCc(header, "strf");
+        header.putInt(BITMAP_INFO_LENGTH);
+        header.putInt(BITMAP_INFO_LENGTH);
+        bitmapWidthPosition = header.position();
+        header.putInt(0);
+        header.putInt(0);
+        header.putShort((short)1); // planes
+        header.putShort((short)24); // bits per pixel
+        writeFourCc(header, "MJPG");
+        header.putInt(0); // image size
+        putZeros(header, 16);
+
+        header.putInt(strlSizePosition, header.position() - strlSizePosition - 4);
+        header.putInt(hdrlSizePosition, header.position() - hdrlSizePosition - 4);
+
+        writeFourCc(header, "LIST");
+        moviSizePosition = header.position();
+        header.putInt(0);
+        moviStart = header.position();
+        writeFourCc(header, "movi");
+
+        header.flip();
+        writeAll(output, header);
+    }
+
+    private void copySegment(FileChannel input, FileChannel output, FileChannel indexOutput) throws IOException {
+        long position = FrameLog.SEGMENT_HEADER_LENGTH;
+        long size = input.size();
+
+        while (position + FrameLog.RECORD_HEADER_LENGTH <= size) {
+            recordHeader.clear();
+            readAll(input, recordHeader, position);
+            int length = recordHeader.getInt(0);
+            if (length <= 0 || position + FrameLog.RECORD_HEADER_LENGTH + length > size) {
+                break;
+            }
+
+            long arrivalMillis = recordHeader.getLong(4 + 8);
+            if (firstArrivalMillis == -1) {
+                firstArrivalMillis = arrivalMillis;
+            }
+            lastArrivalMillis = arrivalMillis;
+
+            long jpegPosition = position + FrameLog.RECORD_HEADER_LENGTH;
+            if (width == 0) {
+                readJpegSize(input, jpegPosition, length);
+            }
+
+            long chunkPosition = output.position();
+            // The index (written to the end) must fit as well
+            long projectedSize = chunkPosition + 8 + length + (length & 1) + 8 + (frames + 1L) * INDEX_ENTRY_LENGTH;
+            if (projectedSize > MAX_FILE_SIZE) {
+                throw new IOException("Session too large for an AVI file after " + frames + " frames");
+            }
+
+            writeFourCc(chunkHeader, "00dc");
+            chunkHeader.putInt(length);
+            chunkHeader.flip();
+            writeAll(output, chunkHeader);
+            transferAll(input, jpegPosition, length, output);
+            if ((length & 1) == 1) {
+                padding.clear();
+                writeAll(output, padding);
+            }
+
+            if (indexBuffer.remaining() < INDEX_ENTRY_LENGTH) {
+                flushIndex(indexOutput);
+            }
+            writeFourCc(indexBuffer, "00dc");
+            indexBuffer.putInt(AVIIF_KEYFRAME);
+            indexBuffer.putInt(unsigned32(chunkPosition - moviStart));
+            indexBuffer.putInt(length);
+
+            frames++;
+            maxFrameLength = Math.max(maxFrameLength, length);
+            position = jpegPosition + length;
+        }
+    }
+
+    /**
+     * Walks the jpeg markers up to the frame header.
+     */
+    private void readJpegSize(FileChannel input, long position, int length) throws IOException {
+        long end = position + length;
+        long markerPosition = position + 2; // start of image
+
+        while (markerPosition + jpegHeader.capacity() <= end) {
+            jpegHeader.clear();
+            readAll(input, jpegHeader, markerPosition);
+            if ((jpegHeader.get(0) & 0xff) != 0xff) {
+                break;
+            }
+
+            int marker = jpegHeader.get(1) & 0xff;
+            if (marker >= 0xc0 && marker <= 0xc3) {
+                height = jpegHeader.getShort(5) & 0xffff;
+                width = jpegHeader.getShort(7) & 0xffff;
+                return;
+            }
+
+            markerPosition += 2 + (jpegHeader.getShort(2) & 0xffff);
+        }
+
+        Log.w(TAG, "No frame size found in the first jpeg");
+    }
+
+    private void patchHeaders(FileChannel output, long moviEnd) throws IOException {
+        long microSecondsPerFrame = frames > 1 ? (lastArrivalMillis - firstArrivalMillis) * 1000 / (frames - 1) : 100000;
+        if (microSecondsPerFrame <= 0) {
+            microSecondsPerFrame = 100000;
+        }
+        int framesPerMillion = (int)Math.round(1000000.0 * 1000000.0 / microSecondsPerFrame);
+
+        patch(output, riffSizePosition, output.size() - 8);
+        patch(output, microSecondsPerFramePosition, microSecondsPerFrame);
+        patch(output, maxBytesPerSecondPosition, maxFrameLength * 1000000L / microSecondsPerFrame);
+        patch(output, totalFramesPosition, frames);
+        patch(output, suggestedBufferSizePosition, maxFrameLength + 8);
+        patch(output, widthPosition, width);
+        patch(output, widthPosition + 4, height);
+        // Rate / scale (1000000) is the frame rate
+        patch(output, streamRatePosition - 4, 1000000);
+        patch(output, streamRatePosition, framesPerMillion);
+        patch(output, streamLengthPosition, frames);
+        patch(output, streamBufferSizePosition, maxFrameLength + 8);
+        chunkHeader.clear();
+        chunkHeader.putShort((short)0).putShort((short)0).putShort((short)width).putShort((short)height);
+        chunkHeader.flip();
+        writeAll(output, chunkHeader, streamFramePosition);
+        patch(output, bitmapWidthPosition, width);
+        patch(output, bitmapWidthPosition + 4, height);
+        patch(output, bitmapWidthPosition + 16, (long)width * height * 3);
+        patch(output, moviSizePosition, moviEnd - moviStart);
+    }
+
+    private void patch(FileChannel output, long position, long value) throws IOException {
+        chunkHeader.clear();
+        chunkHeader.putInt(unsigned32(value));
+        chunkHeader.flip();
+        writeAll(output, chunkHeader, position);
+    }
+
+    private void flushIndex(FileChannel indexOutput) throws IOException {
+        indexBuffer.flip();
+        writeAll(indexOutput, indexBuffer);
+        indexBuffer.clear();
+    }
+
+    /**
+     * @return the lower 32 bits; AVI reads them unsigned
+     */
+    private static int unsigned32(long value) throws IOException {
+        if (value < 0 || value > MAX_FILE_SIZE) {
+            throw new IOException("Value does not fit into an AVI file " + value);
+        }
+        return (int)value;
+    }
+
+    private static void writeFourCc(ByteBuffer buffer, String fourCc) {
+        for (int i = 0; i < 4; i++) {
+            buffer.put((byte)fourCc.charAt(i));
+        }
+    }
+
+    private static void putZeros(ByteBuffer buffer, int count) {
+        for (int i = 0; i < count; i++) {
+            buffer.put((byte)0);
+        }
+    }
+
+    private static void readAll(FileChannel input, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = input.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Writes the (flipped) buffer completely and clears it.
+     */
+    private static void writeAll(FileChannel output, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void writeAll(FileChannel output, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += output.write(buffer, position);
+        }
+        buffer.clear();
+    }
+
+    private static void transferAll(FileChannel input, long position, long count, FileChannel output) throws IOException {
+        while (count > 0) {
+            long transferred = input.transferTo(position, count, output);
+            if (transferred <= 0) {
+                throw new IOException("Cannot copy frame data");
+            }
+            position += transferred;
+            count -= transferred;
+        }
+    }
+}
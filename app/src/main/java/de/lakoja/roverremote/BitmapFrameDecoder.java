@@ -0,0 +1,25 @@
+package de.lakoja.roverremote;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Decodes the frames of a UDP connection into bitmaps for an image listener.
+ */
+public class BitmapFrameDecoder implements UdpRoverConnection.FrameDecoder<Bitmap> {
+    private final ImageListener imageListener;
+
+    public BitmapFrameDecoder(ImageListener imageListener) {
+        this.imageListener = imageListener;
+    }
+
+    @Override
+    public Bitmap decode(byte[] jpegData) {
+        return BitmapFactory.decodeByteArray(jpegData, 0, jpegData.length);
+    }
+
+    @Override
+    public void present(Bitmap image, int timestamp, byte[] jpegData, float kbps, long deadline) {
+        imageListener.imagePresent(image, timestamp, jpegData, kbps, deadline);
+    }
+}
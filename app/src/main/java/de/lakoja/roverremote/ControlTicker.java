@@ -0,0 +1,167 @@
+package de.lakoja.roverremote;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+/**
+ * Samples the latest joystick position at a fixed rate (on one elevated priority thread) and
+ * reports it to the listener. Unchanged positions are only repeated as a keep-alive.
+ *
+ * The position is extrapolated (with its speed) from the time of the touch sample to the time of the tick.
+ */
+public class ControlTicker extends Thread {
+    private static final String TAG = ControlTicker.class.getName();
+    // The rover stops when it does not get commands for a while
+    private static final long KEEP_ALIVE_MILLIS = 400;
+    // Predict at most this far; further guesses do more harm than good
+    private static final long MAX_PREDICTION_MILLIS = 40;
+    // Smaller changes are not worth a command (the rover resolves 1/500)
+    private static final float MIN_CHANGE = 0.002f;
+
+    private final JoystickView.PositionChangeListener listener;
+    private final Direction direction = new Direction(0, 0);
+    private volatile boolean active = true;
+    private volatile long tickNanos;
+
+    private float latestForward = 0;
+    private float latestRight = 0;
+    private float latestForwardSpeed = 0;
+    private float latestRightSpeed = 0;
+    private long latestSampleMillis = 0;
+    private boolean latestHeld = false;
+    private boolean immediate = false;
+
+    private float sentForward = 0;
+    private float sentRight = 0;
+    private long lastSentMillis = 0;
+
+    // Touch to command latency; without and with prediction (touch samples only have millis).
+    // Both are measured on this ticker: the unpredicted one is not the latency of the old path (a
+    // thread per touch event, replaced by the ticker), which was never measured - there is no baseline
+    private final Histogram touchLatency = MetricsRegistry.getDefault().histogram("latency.touch.ms");
+    private final Histogram predictedTouchLatency = MetricsRegistry.getDefault().histogram("latency.touch.predicted.ms");
+
+    public ControlTicker(JoystickView.PositionChangeListener listener, int ratePerSecond) {
+        super("ControlTicker");
+        this.listener = listener;
+        setRate(ratePerSecond);
+    }
+
+    public void setRate(int ratePerSecond) {
+        if (ratePerSecond < 1 || ratePerSecond > 200) {
+            throw new IllegalArgumentException("Control rate must be 1 to 200 per second is "+ratePerSecond);
+        }
+
+        tickNanos = 1000000000L / ratePerSecond;
+    }
+
+    /**
+     * @param forwardSpeed change of forward per second (for prediction)
+     * @param rightSpeed change of right per second (for prediction)
+     * @param sampleMillis time of the touch sample (uptime millis like MotionEvent.getEventTime())
+     * @param held whether the finger is still down; only then the position is repeated as keep-alive
+     * @param urgent report at once instead of at the next tick (like for touch down and up)
+     */
+    public synchronized void update(float forward, float right, float forwardSpeed, float rightSpeed, long sampleMillis, boolean held, boolean urgent) {
+        latestForward = forward;
+        latestRight = right;
+        latestForwardSpeed = held ? forwardSpeed : 0;
+        latestRightSpeed = held ? rightSpeed : 0;
+        latestSampleMillis = sampleMillis;
+        latestHeld = held;
+
+        if (urgent) {
+            immediate = true;
+        }
+        notifyAll();
+    }
+
+    public void stopActive() {
+        active = false;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_DISPLAY);
+
+        long nextTick = System.nanoTime();
+
+        while (active) {
+            float forward;
+            float right;
+            float forwardSpeed;
+            float rightSpeed;
+            long sampleMillis;
+            boolean held;
+            boolean forced;
+
+            synchronized (this) {
+                // Sleep without ticking while nothing is to be sent
+                while (active && !immediate && !latestHeld && latestForward == sentForward && latestRight == sentRight) {
+                    try { wait(); } catch (InterruptedException exc) {}
+                    nextTick = System.nanoTime();
+                }
+
+                long waitNanos = nextTick - System.nanoTime();
+                while (active && !immediate && waitNanos > 0) {
+                    try { wait(waitNanos / 1000000, (int)(waitNanos % 1000000)); } catch (InterruptedException exc) {}
+                    waitNanos = nextTick - System.nanoTime();
+                }
+
+                forced = immediate;
+                immediate = false;
+                forward = latestForward;
+                right = latestRight;
+                forwardSpeed = latestForwardSpeed;
+                rightSpeed = latestRightSpeed;
+                sampleMillis = latestSampleMillis;
+                held = latestHeld;
+            }
+
+            nextTick += tickNanos;
+            long now = System.nanoTime();
+            if (nextTick < now) {
+                // Do not try to catch up missed ticks
+                nextTick = now + tickNanos;
+            }
+
+            long sampleAge = Math.max(0, SystemClock.uptimeMillis() - sampleMillis);
+            long predicted = 0;
+            if (held) {
+                predicted = Math.min(sampleAge, MAX_PREDICTION_MILLIS);
+                forward += forwardSpeed * predicted / 1000.0f;
+                right += rightSpeed * predicted / 1000.0f;
+
+                // Stay inside the joystick circle
+                float length = (float)Math.sqrt(forward * forward + right * right);
+                if (length > 1) {
+                    // Rounding may leave a component just above 1 (Direction rejects that)
+                    forward = Math.max(-1, Math.min(1, forward / length));
+                    right = Math.max(-1, Math.min(1, right / length));
+                }
+            }
+
+            long nowMillis = System.currentTimeMillis();
+            boolean changed = Math.abs(forward - sentForward) >= MIN_CHANGE || Math.abs(right - sentRight) >= MIN_CHANGE
+                    || (!held && (forward != sentForward || right != sentRight));
+            boolean keepAlive = held && nowMillis - lastSentMillis >= KEEP_ALIVE_MILLIS;
+
+            if (active && (forced || changed || keepAlive)) {
+                direction.set(forward, right);
+                listener.onPositionChange(direction);
+
+                sentForward = forward;
+                sentRight = right;
+                lastSentMillis = nowMillis;
+
+                if (held) {
+                    touchLatency.record(sampleAge);
+                    predictedTouchLatency.record(sampleAge - predicted);
+                }
+            }
+        }
+    }
+}
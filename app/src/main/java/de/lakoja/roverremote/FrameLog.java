@@ -0,0 +1,40 @@
+package de.lakoja.roverremote;
+
+import java.io.File;
+
+/**
+ * Layout of a recorded session (a directory):
+ *
+ * "segment-N.log": header (magic int, version short, segment number short) followed by records of
+ * jpeg length (int), image timestamp (long), arrival millis (long), kbps (float), signal level (int)
+ * and the jpeg bytes. A segment ends at the end of the file or at a record length of 0.
+ *
+ * "index.bin": header (magic int, version short, reserved short, session start millis long) followed by
+ * one entry per frame: segment (int), offset of the record (int), image timestamp (long),
+ * arrival millis relative to the session start (int).
+ *
+ * All numbers are big endian.
+ */
+public final class FrameLog {
+    public static final int SEGMENT_MAGIC = 0x52524c53; // "RRLS"
+    public static final int INDEX_MAGIC = 0x52524c49; // "RRLI"
+    public static final short VERSION = 1;
+
+    public static final int SEGMENT_HEADER_LENGTH = 4 + 2 + 2;
+    public static final int RECORD_HEADER_LENGTH = 4 + 8 + 8 + 4 + 4;
+    public static final int INDEX_HEADER_LENGTH = 4 + 2 + 2 + 8;
+    public static final int INDEX_ENTRY_LENGTH = 4 + 4 + 8 + 4;
+
+    public static final String INDEX_NAME = "index.bin";
+
+    private FrameLog() {
+    }
+
+    public static File segmentFile(File sessionDirectory, int segment) {
+        return new File(sessionDirectory, "segment-" + segment + ".log");
+    }
+
+    public static File indexFile(File sessionDirectory) {
+        return new File(sessionDirectory, INDEX_NAME);
+    }
+}
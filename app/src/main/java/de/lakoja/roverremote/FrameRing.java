@@ -0,0 +1,207 @@
+package de.lakoja.roverremote;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * The jpeg data of the last seconds of video for rewinding. All frames live in one preallocated
+ * byte arena (written round robin) with an index of offsets; memory use is fixed and nothing is
+ * allocated per frame. Frames are only decoded when looked at.
+ *
+ * Frames are addressed by a sequence number increasing with every added frame; old ones are
+ * evicted when they are too old, when the index is full or when their space is needed.
+ */
+public class FrameRing {
+    private final byte[] arena;
+    private final int maxFrames;
+    private final long windowMillis;
+
+    // Index (by sequence modulo maxFrames)
+    private final int[] offsets;
+    private final int[] lengths;
+    private final long[] timestamps;
+    private final long[] arrivals;
+
+    private long firstSequence = 0;
+    private long nextSequence = 0;
+    private int writePosition = 0;
+    private long usedBytes = 0;
+
+    private final Counter framesRejected = MetricsRegistry.getDefault().counter("ring.rejected");
+    private final Gauge framesGauge = MetricsRegistry.getDefault().gauge("ring.frames");
+    private final Gauge bytesGauge = MetricsRegistry.getDefault().gauge("ring.bytes");
+    private final Gauge secondsGauge = MetricsRegistry.getDefault().gauge("ring.seconds");
+
+    /**
+     * Reusable target for copying a frame out of the ring.
+     */
+    public static class Scratch {
+        byte[] data = new byte[0];
+        int length;
+        long timestamp;
+        long arrivalMillis;
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getArrivalMillis() {
+            return arrivalMillis;
+        }
+    }
+
+    /**
+     * @param arenaBytes memory for the jpeg data
+     * @param maxFrames size of the index
+     * @param windowMillis frames older than this (arrival time) are evicted
+     */
+    public FrameRing(int arenaBytes, int maxFrames, long windowMillis) {
+        arena = new byte[arenaBytes];
+        this.maxFrames = maxFrames;
+        this.windowMillis = windowMillis;
+
+        offsets = new int[maxFrames];
+        lengths = new int[maxFrames];
+        timestamps = new long[maxFrames];
+        arrivals = new long[maxFrames];
+    }
+
+    /**
+     * Copies the frame into the ring.
+     *
+     * @return false if the frame is larger than the whole ring
+     */
+    public synchronized boolean add(byte[] data, int offset, int length, long timestamp, long arrivalMillis) {
+        if (length > arena.length || length <= 0) {
+            framesRejected.increment();
+            return false;
+        }
+
+        while (size() > 0 && (arrivalMillis - arrivals[slot(firstSequence)] > windowMillis || size() == maxFrames)) {
+            evictOldest();
+        }
+
+        if (writePosition + length > arena.length) {
+            // The frames behind the write position up to the end are the oldest; the rest of the arena stays unused this round
+            while (size() > 0 && offsets[slot(firstSequence)] >= writePosition) {
+                evictOldest();
+            }
+            writePosition = 0;
+        }
+
+        // The oldest frames are directly behind the write position
+        while (size() > 0 && overlapsOldest(writePosition, length)) {
+            evictOldest();
+        }
+
+        int slot = slot(nextSequence);
+        System.arraycopy(data, offset, arena, writePosition, length);
+        offsets[slot] = writePosition;
+        lengths[slot] = length;
+        timestamps[slot] = timestamp;
+        arrivals[slot] = arrivalMillis;
+
+        nextSequence++;
+        writePosition += length;
+        usedBytes += length;
+
+        updateOccupancy();
+        return true;
+    }
+
+    /**
+     * @return the sequence of the oldest frame available
+     */
+    public synchronized long getFirstSequence() {
+        return firstSequence;
+    }
+
+    /**
+     * @return the sequence the next added frame will get (one after the newest)
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    public synchronized int size() {
+        return (int)(nextSequence - firstSequence);
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public int getCapacityBytes() {
+        return arena.length;
+    }
+
+    /**
+     * @return milliseconds between the arrival of the oldest and the newest frame
+     */
+    public synchronized long getSpanMillis() {
+        if (size() == 0) {
+            return 0;
+        }
+        return arrivals[slot(nextSequence - 1)] - arrivals[slot(firstSequence)];
+    }
+
+    /**
+     * Copies a frame out of the ring (so that it can be decoded without holding the ring).
+     *
+     * @return false if the frame is not (any more) in the ring
+     */
+    public synchronized boolean copyFrame(long sequence, Scratch scratch) {
+        if (sequence < firstSequence || sequence >= nextSequence) {
+            return false;
+        }
+
+        int slot = slot(sequence);
+        int length = lengths[slot];
+        if (scratch.data.length < length) {
+            scratch.data = new byte[length + length / 4];
+        }
+        System.arraycopy(arena, offsets[slot], scratch.data, 0, length);
+        scratch.length = length;
+        scratch.timestamp = timestamps[slot];
+        scratch.arrivalMillis = arrivals[slot];
+        return true;
+    }
+
+    /**
+     * @return the decoded frame or null if it is not in the ring or not decodable
+     */
+    public Bitmap decode(long sequence, Scratch scratch, BitmapFactory.Options options) {
+        if (!copyFrame(sequence, scratch)) {
+            return null;
+        }
+
+        return BitmapFactory.decodeByteArray(scratch.data, 0, scratch.length, options);
+    }
+
+    public synchronized void clear() {
+        firstSequence = nextSequence;
+        writePosition = 0;
+        usedBytes = 0;
+        updateOccupancy();
+    }
+
+    private int slot(long sequence) {
+        return (int)(sequence % maxFrames);
+    }
+
+    private boolean overlapsOldest(int start, int length) {
+        int slot = slot(firstSequence);
+        return offsets[slot] < start + length && start < offsets[slot] + lengths[slot];
+    }
+
+    private void evictOldest() {
+        usedBytes -= lengths[slot(firstSequence)];
+        firstSequence++;
+    }
+
+    private void updateOccupancy() {
+        framesGauge.set(size());
+        bytesGauge.set(usedBytes);
+        secondsGauge.set(getSpanMillis() / 1000.0);
+    }
+}
@@ -32,7 +32,6 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.util.LinkedList;
 import java.util.Queue;
-import java.util.StringTokenizer;
 
 public class ImageConnection  implements Runnable {
 
@@ -43,10 +42,12 @@ public class ImageConnection  implements Runnable {
     private class QueueEntry {
         String controlRequest;
         long requestQueueMillis;
+        long requestQueueNanos;
 
         public QueueEntry(String request) {
             controlRequest = request;
             requestQueueMillis = System.currentTimeMillis();
+            requestQueueNanos = System.nanoTime();
         }
 
         public long age() {
@@ -61,13 +62,21 @@ public class ImageConnection  implements Runnable {
     private Socket serverConnection;
     private ImageListener imageListener;
     private StatusListener statusListener;
+    private TelemetryParser telemetryParser = new TelemetryParser();
+    private RoverStatus roverStatus = new RoverStatus();
     private long lastImageTime;
     private Queue<Float> lastTransfersKbps = new LinkedList<>();
     private float lastTransferKbpsMean = 0;
     private long lastTransferOutTime = 0;
     private long lastImageRequestTime = 0;
+    private FrameDeadlines frameDeadlines = new FrameDeadlines();
+    private CommandTracker commandTracker = new CommandTracker("http.commands");
+    private final Histogram decodeLatency = MetricsRegistry.getDefault().histogram("latency.decode.ns");
+    private final Histogram commandQueueLatency = MetricsRegistry.getDefault().histogram("latency.command.queue.ns");
+    private final Histogram transferLatency = MetricsRegistry.getDefault().histogram("latency.http.transfer.ns");
 
     private Queue<ImageConnection.QueueEntry> commandQueue = new LinkedList<>();
+    private final ImageResponseParser responseParser = new ImageResponseParser();
 
     public ImageConnection(String host) {
         this.host = host;
@@ -82,6 +91,17 @@ public class ImageConnection  implements Runnable {
         this.statusListener = statusListener;
     }
 
+    public void setFrameDeadlines(FrameDeadlines frameDeadlines) {
+        this.frameDeadlines = frameDeadlines;
+    }
+
+    /**
+     * Only round trip times; commands are answered synchronously here.
+     */
+    public CommandTracker getCommandTracker() {
+        return commandTracker;
+    }
+
     public boolean isConnected() {
         return serverConnection != null && serverConnection.isConnected();
     }
@@ -146,6 +166,8 @@ public class ImageConnection  implements Runnable {
                         sentCommand = true;
 
                         long m1 = System.currentTimeMillis();
+                        long sentNanos = System.nanoTime();
+                        commandQueueLatency.record(sentNanos - command.requestQueueNanos);
                         writer.println("GET /"+command.controlRequest);
                         writer.flush();
                         long m2 = System.currentTimeMillis();
@@ -155,6 +177,7 @@ public class ImageConnection  implements Runnable {
                             result = readLine(stream);
                         }
                         long m3 = System.currentTimeMillis();
+                        commandTracker.addRoundTripSample(System.nanoTime() - sentNanos);
                         // TODO also read everything there is?
                         if (m3 - m2 > 100) {
                             Log.i(TAG, "Control " + command.controlRequest + " resulted in " + result + " took w" + (m2 - m1) + " r" + (m3 - m2));
@@ -163,21 +186,11 @@ public class ImageConnection  implements Runnable {
                         // TODO less or more explicit "status"
                         if (command.controlRequest.equals("status")) {
                             if (statusListener != null) {
-                                // TODO support more
-                                StringTokenizer tokenizer = new StringTokenizer(result, " ");
-                                if (tokenizer.countTokens() >= 2) {
-                                    tokenizer.nextToken(); // TODO check for VOLT (or STATUS)
-                                    String voltageRaw = tokenizer.nextToken();
-                                    try {
-                                        float voltage = Float.parseFloat(voltageRaw);
-                                        RoverStatus status = new RoverStatus(false, false, false, voltage);
-
-                                        statusListener.informRoverStatus(status);
-                                    } catch (NumberFormatException exc) {
-                                        Log.e(TAG, "False rover status reply; cannot parse voltage: "+voltageRaw);
-                                    }
+                                // TODO check for VOLT (or STATUS)
+                                if (telemetryParser.parseText(result, roverStatus, System.currentTimeMillis())) {
+                                    statusListener.informRoverStatus(roverStatus);
                                 } else {
-                                    Log.e(TAG, "False rover status reply; too few tokens: "+result);
+                                    Log.e(TAG, "False rover status reply: "+result);
                                 }
                             }
                         }
@@ -201,7 +214,7 @@ public class ImageConnection  implements Runnable {
 
                     // TODO remove / probably not necessary
                     int garbageDataSkipped = 0;
-                    while (!currentLine.startsWith("HTTP/1.1 ")) {
+                    while (!ImageResponseParser.isStatusLine(currentLine)) {
                         garbageDataSkipped += currentLine.length();
 
                         if (garbageDataSkipped > 100000) {
@@ -216,96 +229,46 @@ public class ImageConnection  implements Runnable {
                         Log.e(TAG, "Skipped garbage data: " + garbageDataSkipped);
                     }
 
-                    int code = 0;
-                    if (currentLine.startsWith("HTTP/1.1 ")) {
-                        String responseCode = currentLine.substring(9);
-                        String[] responseCodeParts = responseCode.split(" ");
-                        try {
-                            code = Integer.parseInt(responseCodeParts[0]);
-                        } catch (NumberFormatException exc) {
-                            // TODO report on gui? All errors?
-                            Log.e(TAG, "Illegal response code: " + responseCode);
-                            closeConnection(true);
-                            return;
-                        }
-                    } else {
-                        Log.e(TAG, "Did not get HTTP/1.1 response: " + (int) currentLine.charAt(0) + " " + (int) currentLine.charAt(1) + " " + currentLine);
-                        closeConnection(true);
-                        return;
+                    responseParser.begin();
+                    int headerResult = responseParser.parseLine(currentLine);
+                    while (headerResult == ImageResponseParser.NEED_MORE) {
+                        headerResult = responseParser.parseLine(readLine(stream));
                     }
 
-                    if (code != 200) {
-                        Log.w(TAG, "Errorneous response code: " + code);
-                        closeConnection(true);
-                        return;
-                    }
-
-                    //Log.i(TAG, "Got HTTP response");
-
-                    currentLine = readLine(stream);
-
-                    if (currentLine.equals("NOIY")) {
+                    if (headerResult == ImageResponseParser.NO_IMAGE) {
                         // No new image yet; the time guard above (lastImageRequestTime) makes sure the
                         // server is not flooded with requests
 
                         continue;
                     }
 
-                    if (!currentLine.equals("Content-Type: image/jpeg")) {
-                        Log.e(TAG, "Got wrong stream content type: " + currentLine);
-                        closeConnection(true);
-                        return;
-                    }
-
-                    currentLine = readLine(stream);
-
-                    String sizeMarker = "Content-Length: ";
-                    if (!currentLine.startsWith(sizeMarker)) {
-                        Log.e(TAG, "Got wrong stream content length: " + currentLine);
+                    if (headerResult == ImageResponseParser.ERROR) {
+                        // TODO report on gui? All errors?
+                        Log.e(TAG, responseParser.getError());
                         closeConnection(true);
                         return;
                     }
 
-                    String size = currentLine.substring(sizeMarker.length());
-                    int imageSize = 0;
-                    try {
-                        imageSize = Integer.parseInt(size);
-                    } catch (NumberFormatException exc) {
-                        // TODO report on gui?
-                        Log.e(TAG, "Illegal image size " + imageSize);
-                        closeConnection(true);
-                        return;
-                    }
+                    int imageSize = responseParser.getImageSize();
 
                     //Log.i(TAG, "Reading image with size "+imageSize);
 
-                    currentLine = readLine(stream);
-
-                    if (currentLine.length() != 0) {
-                        Log.e(TAG, "Expected empty separator line after header; but got: " + currentLine);
-                        closeConnection(true);
-                        return;
-                    }
-
                     long imageStartTime = System.currentTimeMillis();
 
                     // TODO even more active check (or handle errors differently)?
 
-                    if (imageSize <= 0) {
-                        // TODO support without image size?
-                        Log.e(TAG, "Image response has no size. Cancelling.");
-                        closeConnection(true);
-                        return;
-                    }
-
                     byte[] imageData = new byte[imageSize];
                     long m1 = System.currentTimeMillis();
+                    long transferStartNanos = System.nanoTime();
 
                     stream.readFully(imageData);
 
+                    transferLatency.recordSince(transferStartNanos);
                     long m2 = System.currentTimeMillis();
                     //logLongWait(m2-m1, "image");
 
+                    long deadline = frameDeadlines.deadlineFor(imageStartTime);
+
                     float kbps = (imageSize / 1024.0f) / ((m2 - m1) / 1000.0f);
 
                     // TODO this dequeue and enqueue with mean is rather awkward
@@ -334,7 +297,14 @@ public class ImageConnection  implements Runnable {
                     // TODO remove?
                     // writer.println("ok");
 
+                    if (!frameDeadlines.inTime(deadline, FrameDeadlines.STAGE_REASSEMBLY, m2)) {
+                        // Still keep the connection going (with the next image)
+                        continue;
+                    }
+
+                    long decodeStartNanos = System.nanoTime();
                     Bitmap bmp = BitmapFactory.decodeByteArray(imageData, 0, imageData.length);
+                    decodeLatency.recordSince(decodeStartNanos);
 
                     if (bmp == null) {
                         Log.e(TAG, "Found illegal image");
@@ -352,11 +322,11 @@ public class ImageConnection  implements Runnable {
                         // TODO this error might be ignored?
                         closeConnection(true);
                         return;
-                    } else {
+                    } else if (frameDeadlines.inTime(deadline, FrameDeadlines.STAGE_DECODE, System.currentTimeMillis())) {
                         //Log.i(TAG, "Found image "+bmp.getWidth());
 
                         if (imageListener != null) {
-                            imageListener.imagePresent(bmp, imageStartTime, imageData, lastTransferKbpsMean);
+                            imageListener.imagePresent(bmp, imageStartTime, imageData, lastTransferKbpsMean, deadline);
                         }
                     }
 
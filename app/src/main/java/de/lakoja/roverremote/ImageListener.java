@@ -3,5 +3,8 @@ package de.lakoja.roverremote;
 import android.graphics.Bitmap;
 
 public interface ImageListener {
-    void imagePresent(Bitmap bitmap, long timestampMillis, byte[] rawData, float lastKbps);
+    /**
+     * @param deadlineMillis (local) time after which the image is not worth showing any more
+     */
+    void imagePresent(Bitmap bitmap, long timestampMillis, byte[] rawData, float lastKbps, long deadlineMillis);
 }
@@ -31,10 +31,14 @@ import android.view.View;
 
 import java.text.DecimalFormat;
 
-public class JoystickView extends View implements Runnable {
+public class JoystickView extends View {
 
     private static final String TAG = JoystickView.class.getName();
     private static final int OUTSIDE_VIBRATE = 30; // TODO could depend on dp?
+    private static final int DEFAULT_CONTROL_RATE = 50;
+    // Touch filtering (for normalized -1..1 positions)
+    private static final float FILTER_MIN_CUTOFF = 1.5f;
+    private static final float FILTER_BETA = 4f;
 
     public interface PositionChangeListener {
         void onPositionChange(Direction newDirection);
@@ -46,16 +50,25 @@ public class JoystickView extends View implements Runnable {
     private Paint whiteForegroundHair;
     private PointF lastTouch = new PointF(-1, -1);
     private boolean validTouch = false;
-    private PointF centerPoint;
+    private PointF centerPoint = new PointF();
+    // Preallocated; touch handling must not produce garbage
+    private PointF thisTouch = new PointF();
+    private RectF changeRect = new RectF();
+    private RectF newRect = new RectF();
+    private Rect changeRectI = new Rect();
     private float controllerRadius = 1;
     private float outerRadius = 2;
-    private long lastReportTime = -100;
-    private Direction lastReportDirection = null;
-    private boolean monitorFingerDown = false;
     private PositionChangeListener changeListener = null;
+    private ControlTicker controlTicker = null;
+    private int controlRate = DEFAULT_CONTROL_RATE;
+    private OneEuroFilter forwardFilter = new OneEuroFilter(FILTER_MIN_CUTOFF, FILTER_BETA);
+    private OneEuroFilter rightFilter = new OneEuroFilter(FILTER_MIN_CUTOFF, FILTER_BETA);
+    private float filteredForward = 0;
+    private float filteredRight = 0;
     private MyVibrator vibrator;
     private float currentVoltage = 0;
     private DecimalFormat voltageFormatter;
+    private String voltageText = null;
     private Rect textBounds;
 
     public JoystickView(Context context, @Nullable AttributeSet attrs) {
@@ -87,14 +100,64 @@ public class JoystickView extends View implements Runnable {
 
     public void setPositionChangeListener(PositionChangeListener pl) {
         changeListener = pl;
+
+        stopControlTicker();
+        if (changeListener != null && getWindowToken() != null) {
+            startControlTicker();
+        }
+    }
+
+    /**
+     * @param ratePerSecond how often the current position is sampled and (if changed) reported
+     */
+    public void setControlRate(int ratePerSecond) {
+        controlRate = ratePerSecond;
+        if (controlTicker != null) {
+            controlTicker.setRate(ratePerSecond);
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        if (changeListener != null) {
+            startControlTicker();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        stopControlTicker();
+
+        super.onDetachedFromWindow();
+    }
+
+    private void startControlTicker() {
+        if (controlTicker == null) {
+            controlTicker = new ControlTicker(changeListener, controlRate);
+            controlTicker.start();
+        }
+    }
+
+    private void stopControlTicker() {
+        if (controlTicker != null) {
+            controlTicker.stopActive();
+            controlTicker = null;
+        }
     }
 
     public void showVolt(float voltage) {
+        if (voltage != currentVoltage) {
+            // Only format once (not on every draw)
+            voltageText = voltageFormatter.format(voltage);
+        }
         currentVoltage = voltage;
         float w = getWidth();
         float h = getHeight();
         // TODO consider real text size/position
-        invalidate(new RectF(w-w/10, h-h/10, w/10, h/10));
+        changeRect.set(w-w/10, h-h/10, w/10, h/10);
+        invalidate(changeRect);
     }
 
     @Override
@@ -103,7 +166,7 @@ public class JoystickView extends View implements Runnable {
 
         float w = getWidth();
         float h = getHeight();
-        centerPoint = new PointF(w / 2, h / 2);
+        centerPoint.set(w / 2, h / 2);
 
         controllerRadius = Math.max(Math.min(h / 6, w / 6), 100);
         outerRadius = Math.min(centerPoint.x, centerPoint.y) - 2;
@@ -114,7 +177,7 @@ public class JoystickView extends View implements Runnable {
         super.onDraw(canvas);
         
         if (lastTouch.x == -1) {
-            lastTouch = centerPoint;
+            lastTouch.set(centerPoint);
         }
 
         float width = getWidth();
@@ -145,8 +208,8 @@ public class JoystickView extends View implements Runnable {
         canvas.drawLine(lastTouch.x - controllerRadius, lastTouch.y, lastTouch.x + controllerRadius, lastTouch.y, redForeground);
         canvas.drawLine(lastTouch.x, lastTouch.y - controllerRadius, lastTouch.x, lastTouch.y + controllerRadius, redForeground);
 
-        if (currentVoltage > 0) {
-            String text = voltageFormatter.format(currentVoltage);
+        if (currentVoltage > 0 && voltageText != null) {
+            String text = voltageText;
 
             whiteForegroundText.getTextBounds(text, 0, text.length(), textBounds);
             canvas.drawText(text, width - textBounds.width() - 10, 5 + textBounds.height(), whiteForegroundText);
@@ -157,7 +220,7 @@ public class JoystickView extends View implements Runnable {
     public boolean onTouchEvent(MotionEvent event) {
         float radius = controllerRadius;
 
-        PointF thisTouch = new PointF(event.getX(), event.getY());
+        thisTouch.set(event.getX(), event.getY());
         float distance = getDistanceToLast(thisTouch);
         boolean isUp = event.getAction() == MotionEvent.ACTION_UP;
         boolean isDown = event.getAction() == MotionEvent.ACTION_DOWN;
@@ -171,17 +234,17 @@ public class JoystickView extends View implements Runnable {
                 vibrator.vibratePattern(20, 100, 20);
             }
 
-            thisTouch = calculatePointOnCircle(thisTouch, outerRadius);
+            moveOntoCircle(thisTouch, outerRadius);
         }
         
         if (validTouch || isUp) {
             if (isUp) {
-                thisTouch = centerPoint;
+                thisTouch.set(centerPoint);
             }
 
             if (isUp || distance >= 2) {
-                RectF changeRect = new RectF(lastTouch.x - radius, lastTouch.y - radius, lastTouch.x + radius, lastTouch.y + radius);
-                RectF newRect = new RectF(thisTouch.x - radius, thisTouch.y - radius, thisTouch.x + radius, thisTouch.y + radius);
+                changeRect.set(lastTouch.x - radius, lastTouch.y - radius, lastTouch.x + radius, lastTouch.y + radius);
+                newRect.set(thisTouch.x - radius, thisTouch.y - radius, thisTouch.x + radius, thisTouch.y + radius);
                 changeRect.union(newRect);
 
                 invalidate(changeRect);
@@ -197,31 +260,36 @@ public class JoystickView extends View implements Runnable {
                     // TODO snap on 0?
                 }
 
-                lastTouch = thisTouch;
-
-                if (changeListener != null) {
-                    long now = System.currentTimeMillis();
-                    if (isUp || isDown || now - lastReportTime >= 100) { // TODO maybe shorter or consider lastReportDistance?
-                        float r = (lastTouch.x - centerPoint.x) / outerRadius;
-                        float f = -1 * (lastTouch.y - centerPoint.y) / outerRadius;
-
-                        lastReportDirection = new Direction(f, r);
-                        changeListener.onPositionChange(lastReportDirection);
-                        lastReportTime = now;
+                lastTouch.set(thisTouch);
+
+                if (controlTicker != null) {
+                    // The ticker reports it; touch down and up at once
+                    if (isUp) {
+                        forwardFilter.reset();
+                        rightFilter.reset();
+
+                        controlTicker.update(0, 0, 0, 0, event.getEventTime(), false, true);
+                    } else {
+                        if (isDown) {
+                            forwardFilter.reset();
+                            rightFilter.reset();
+                        }
+
+                        // The touch screen reports faster than events are dispatched; use all (batched) samples
+                        for (int h = 0; h < event.getHistorySize(); h++) {
+                            filterSample(event.getHistoricalX(h), event.getHistoricalY(h), event.getHistoricalEventTime(h));
+                        }
+                        filterSample(lastTouch.x, lastTouch.y, event.getEventTime());
+
+                        controlTicker.update(filteredForward, filteredRight, forwardFilter.getDerivative(), rightFilter.getDerivative(),
+                                event.getEventTime(), true, isDown);
                     }
                 }
             }
         }
 
-        if (isDown) {
-            monitorFingerDown = true;
-
-            new Thread(this).start();
-        }
-
         if (isUp) {
             validTouch = false;
-            monitorFingerDown = false; // stops Thread
             // NOTE this also works for onPause (isUp is sent)
 
             super.performClick();
@@ -230,25 +298,23 @@ public class JoystickView extends View implements Runnable {
         return true;
     }
 
+    private void filterSample(float x, float y, long eventMillis) {
+        float r = (x - centerPoint.x) / outerRadius;
+        float f = -1 * (y - centerPoint.y) / outerRadius;
+
+        filteredForward = Math.max(-1, Math.min(1, forwardFilter.filter(f, eventMillis)));
+        filteredRight = Math.max(-1, Math.min(1, rightFilter.filter(r, eventMillis)));
+    }
+
     private void invalidate(RectF preciseRect) {
-        Rect changeRectI = new Rect();
         preciseRect.roundOut(changeRectI);
         invalidate(changeRectI);
     }
 
-    @Override
-    public void run() {
-        while (monitorFingerDown) {
-            long now = System.currentTimeMillis();
-            if (now - lastReportTime >= 400 && lastReportDirection != null) {
-                changeListener.onPositionChange(lastReportDirection);
-                lastReportTime = now;
-            }
-            try { Thread.sleep(50); } catch (InterruptedException exc) {}
-        }
-    }
-
-    private PointF calculatePointOnCircle(PointF thisTouch, float outerRadius) {
+    /**
+     * Moves the point (outside) onto the circle with the radius around the center.
+     */
+    private void moveOntoCircle(PointF thisTouch, float outerRadius) {
         float touchToCenterX = thisTouch.x - centerPoint.x;
         float touchToCenterY = thisTouch.y - centerPoint.y;
         float x = centerPoint.x + (touchToCenterX < 0 ? -1 : 1) * outerRadius;
@@ -260,7 +326,7 @@ public class JoystickView extends View implements Runnable {
 
         //Log.w(TAG, "Calculated "+x+","+y+" for bogus "+thisTouch.x+","+thisTouch.y+ " center "+(w/2)+","+(h/2)+" outer radius "+outerRadius);
 
-        return new PointF(centerPoint.x + (touchToCenterX < 0 ? -1 : 1) * x, centerPoint.y + (touchToCenterY < 0 ? -1 : 1) * y);
+        thisTouch.set(centerPoint.x + (touchToCenterX < 0 ? -1 : 1) * x, centerPoint.y + (touchToCenterY < 0 ? -1 : 1) * y);
         //Log.i(TAG, "Calculated point on circle "+pointOnCircle);
     }
 
@@ -0,0 +1,191 @@
+package de.lakoja.roverremote;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Keeps the last shown image across starts. Saving and restoring happen on an own I/O thread.
+ *
+ * A save writes a temporary file and renames it: an interrupted save leaves the previous image
+ * intact. Saves not yet started are replaced by newer ones.
+ */
+public class LastImageStore {
+    private static final String TAG = LastImageStore.class.getName();
+    private static final String FILE_NAME = "lastImage.jpg";
+
+    public interface RestoreListener {
+        /**
+         * Called on the main thread (also when there was nothing to restore: with null).
+         */
+        void imageRestored(Bitmap bitmap);
+    }
+
+    private final File file;
+    private final File tempFile;
+    private final HandlerThread ioThread;
+    private final Handler ioHandler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Object saveLock = new Object();
+    private byte[] pendingSave = null;
+
+    private final Runnable saver = new Runnable() {
+        @Override
+        public void run() {
+            byte[] data;
+            synchronized (saveLock) {
+                data = pendingSave;
+                pendingSave = null;
+            }
+
+            if (data != null) {
+                write(data);
+            }
+        }
+    };
+
+    public LastImageStore(File directory) {
+        file = new File(directory, FILE_NAME);
+        tempFile = new File(directory, FILE_NAME + ".tmp");
+
+        ioThread = new HandlerThread("LastImageStore");
+        ioThread.start();
+        ioHandler = new Handler(ioThread.getLooper());
+    }
+
+    /**
+     * @param jpegData is not changed afterwards (the connections hand over a new array for every frame)
+     */
+    public void save(byte[] jpegData) {
+        synchronized (saveLock) {
+            boolean scheduled = pendingSave != null;
+            pendingSave = jpegData;
+            if (scheduled) {
+                return;
+            }
+        }
+
+        ioHandler.post(saver);
+    }
+
+    /**
+     * Reads and decodes the image subsampled to about the given size.
+     */
+    public void restore(final int maxWidth, final int maxHeight, final RestoreListener listener) {
+        ioHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = read(maxWidth, maxHeight);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.imageRestored(bitmap);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Finishes the pending save and ends the I/O thread.
+     */
+    public void close() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            ioThread.quitSafely();
+        } else {
+            ioHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    ioThread.quit();
+                }
+            });
+        }
+    }
+
+    private void write(byte[] data) {
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(tempFile);
+            output.write(data);
+            // On the disk before the rename makes it the last image
+            output.getFD().sync();
+            output.close();
+            output = null;
+
+            if (!tempFile.renameTo(file)) {
+                Log.e(TAG, "Cannot rename " + tempFile + " to " + file);
+            }
+        } catch (IOException exc) {
+            Log.e(TAG, "Cannot save last image " + exc.getMessage());
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException exc) {
+                    // already failed
+                }
+            }
+        }
+    }
+
+    private Bitmap read(int maxWidth, int maxHeight) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        byte[] data = new byte[(int)file.length()];
+        FileInputStream input = null;
+        try {
+            input = new FileInputStream(file);
+            int read = 0;
+            while (read < data.length) {
+                int count = input.read(data, read, data.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+        } catch (IOException exc) {
+            Log.e(TAG, "Cannot read last image " + exc.getMessage());
+            return null;
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException exc) {
+                    // read already
+                }
+            }
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+        int sampleSize = 1;
+        if (maxWidth > 0 && maxHeight > 0) {
+            while (options.outWidth / (sampleSize * 2) >= maxWidth && options.outHeight / (sampleSize * 2) >= maxHeight) {
+                sampleSize *= 2;
+            }
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (bitmap == null) {
+            Log.e(TAG, "Found corrupt image in saved file; byte size " + data.length);
+        }
+
+        return bitmap;
+    }
+}
@@ -0,0 +1,13 @@
+package de.lakoja.roverremote;
+
+import android.util.Log;
+
+/**
+ * Routes the logging of the core classes to logcat.
+ */
+public class LogcatBackend implements RoverLog.Backend {
+    @Override
+    public void println(int level, String tag, String message) {
+        Log.println(level, tag, message);
+    }
+}
@@ -20,35 +20,36 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.CompoundButton;
 import android.widget.ImageView;
+import android.widget.SeekBar;
 import android.widget.Toast;
 import android.widget.ToggleButton;
 
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MainActivity
         extends AppCompatActivity
@@ -62,6 +63,19 @@ public class MainActivity
     private static final String TAG = MainActivity.class.getName();
     private static final String DESIRED_WIFI_NAME = "Roversnail";
     private static final int COLOR_ORANGE = 0xffff7f00;
+    // Latency traded for smooth video while not driving
+    private static final long PLAYOUT_MAX_DELAY = 250;
+    // Extended UDP protocol: acknowledged commands ("CQ"/"CA") and binary telemetry ("TM"); needs a rover firmware supporting it
+    private static final boolean EXTENDED_PROTOCOL = false;
+    private static final long TELEMETRY_PERIOD = 500;
+    private static final long METRICS_DUMP_PERIOD = 5000;
+    // 1 is the original timing; SessionPlayer.AS_FAST_AS_POSSIBLE for a decode and display benchmark
+    private static final float PLAYBACK_SPEED = 1;
+    // How far back the video can be rewound (and the memory for that)
+    private static final long REWIND_MILLIS = 10000;
+    private static final int REWIND_ARENA_BYTES = 8 * 1024 * 1024;
+    private static final int REWIND_MAX_FRAMES = 512;
+    private static final int REWIND_BAR_MAX = 1000;
 
     private ToggleButton toggleConnection;
     private ToggleButton toggleLed2;
@@ -76,12 +90,45 @@ public class MainActivity
     private boolean checkSystemLoop = true;
     private ImageConnection imageConnection;
     private byte[] lastImageData = null;
+    private LastImageStore lastImageStore;
+    private long createUptimeMillis;
+    private boolean firstFrameReported = false;
+    private final Gauge firstFrameGauge = MetricsRegistry.getDefault().gauge("startup.firstFrame.ms");
     private long lastImageMillis = 0;
     private int lastImageBackColor;
     private long lastStatusCheck = 0;
     private boolean wifiNameMatches = false;
     private MyVibrator vibrator;
     private UdpRoverConnection udpConnection;
+    private PlayoutBuffer playoutBuffer;
+    private MetricsDumper metricsDumper;
+    private SessionRecorder sessionRecorder;
+    private volatile SessionPlayer sessionPlayer;
+    // Played back frames are only shown (not kept as last image, in the rewind ring or the history)
+    private final ImageListener playbackListener = new ImageListener() {
+        @Override
+        public void imagePresent(Bitmap bitmap, long timestampMillis, byte[] rawData, float lastKbps, long deadlineMillis) {
+            showImage(bitmap, lastKbps, deadlineMillis);
+        }
+    };
+    private UdpCapture udpCapture;
+    private final Histogram uiHandoffLatency = MetricsRegistry.getDefault().histogram("latency.ui.ns");
+    private final Counter framesShown = MetricsRegistry.getDefault().counter("ui.frames.shown");
+    // Only one value: a frame posted before the previous one is shown makes that previous sample too short
+    private volatile long imageHandoffNanos;
+    private FrameDeadlines frameDeadlines = new FrameDeadlines();
+    private ResponseCurve responseCurve = new ResponseCurve();
+    private TelemetryHistory telemetryHistory = new TelemetryHistory();
+    private FrameRing frameRing = new FrameRing(REWIND_ARENA_BYTES, REWIND_MAX_FRAMES, REWIND_MILLIS);
+    private SeekBar rewindBar;
+    private HandlerThread scrubThread;
+    private Handler scrubHandler;
+    // Live frames are not shown while scrubbing
+    private volatile boolean scrubbing = false;
+    private long scrubFirstSequence;
+    private long scrubLastSequence;
+    // Only the latest position is decoded
+    private final AtomicLong scrubRequestedSequence = new AtomicLong(-1);
 
     private Handler uiUpdater;
     private Handler connectionStopper;
@@ -89,6 +136,8 @@ public class MainActivity
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        createUptimeMillis = SystemClock.uptimeMillis();
+        RoverLog.setBackend(new LogcatBackend());
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
@@ -105,12 +154,24 @@ public class MainActivity
             });
             builder.show();
         } else {
-            setupUi();
-
+            // Reading and decoding runs while the rest is set up
+            lastImageStore = new LastImageStore(getFilesDir());
             restoreLastImage();
 
+            setupUi();
+
             vibrator = new MyVibrator(this);
 
+            // Lives as long as the activity as the image connection may outlive a pause
+            playoutBuffer = new PlayoutBuffer(this, PLAYOUT_MAX_DELAY);
+            playoutBuffer.start();
+            sessionRecorder = new SessionRecorder(new File(getFilesDir(), "sessions"));
+
+            metricsDumper = new MetricsDumper(MetricsRegistry.getDefault(), MetricsDumper.LOG_SINK, METRICS_DUMP_PERIOD);
+            metricsDumper.start();
+
+            EventLog.getDefault().start(EventLog.LOG_SINK);
+
             /* TODO make this check work
             try {
                 int i = Settings.System.getInt(getApplicationContext().getContentResolver(), Settings.System.VIBRATE_ON);
@@ -130,8 +191,18 @@ public class MainActivity
                             connectionStrength.setQuality(message.arg1);
                             break;
                         case R.id.imageView:
+                            if (scrubbing) {
+                                break;
+                            }
+                            // arg2 is the time left until the frame deadline when it was sent
+                            if (!frameDeadlines.inTime(message.getWhen() + message.arg2, FrameDeadlines.STAGE_DISPLAY, SystemClock.uptimeMillis())) {
+                                break;
+                            }
                             setImageBackColor(Color.GREEN);
                             imageView.setImageBitmap((Bitmap)message.obj);
+                            firstFrameShown("live");
+                            uiHandoffLatency.recordSince(imageHandoffNanos);
+                            framesShown.increment();
                             connectionThroughput.setQuality(message.arg1 / 1000.0f);
                             break;
                         case R.id.imageBorder:
@@ -165,42 +236,230 @@ public class MainActivity
                 startActivity(new Intent(Settings.ACTION_WIFI_SETTINGS));
             }
         });
+        btnWifi.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                togglePlayback();
+                return true;
+            }
+        });
         connectionStrength = findViewById(R.id.connectionStrength);
         connectionStrength.setQuality(0);
         connectionThroughput = findViewById(R.id.connectionThroughput);
         connectionThroughput.setQuality(0);
+        connectionThroughput.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                exportLatestSession();
+                return true;
+            }
+        });
         positionControl = findViewById(R.id.joystick);
         positionControl.setPositionChangeListener(this);
         imageView = findViewById(R.id.imageView);
+        imageView.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                toggleRecording();
+                return true;
+            }
+        });
         imageBorder = findViewById(R.id.imageBorder);
+        rewindBar = findViewById(R.id.rewindBar);
+        rewindBar.setMax(REWIND_BAR_MAX);
+        rewindBar.setProgress(REWIND_BAR_MAX);
+        rewindBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+                startScrubbing();
+            }
+
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                if (fromUser && scrubbing) {
+                    scrubTo(progress);
+                }
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                // Back to live
+                scrubbing = false;
+                seekBar.setProgress(REWIND_BAR_MAX);
+            }
+        });
+
+        scrubThread = new HandlerThread("Scrubber");
+        scrubThread.start();
+        scrubHandler = new Handler(scrubThread.getLooper());
     }
 
-    private void restoreLastImage() {
-        try {
-            File lastImageFile = new File(getApplicationContext().getFilesDir(), "lastImage.jpg");
-            if (lastImageFile.exists()) {
-                FileInputStream fis = getApplicationContext().openFileInput("lastImage.jpg");
-                DataInputStream input = new DataInputStream(fis);
+    private void startScrubbing() {
+        scrubbing = true;
+        // The range is fixed while scrubbing; frames evicted meanwhile are skipped
+        scrubFirstSequence = frameRing.getFirstSequence();
+        scrubLastSequence = frameRing.getNextSequence() - 1;
+        Log.i(TAG, "Rewind over " + frameRing.size() + " frames (" + frameRing.getSpanMillis() + "ms, "
+                + frameRing.getUsedBytes() / 1024 + "/" + frameRing.getCapacityBytes() / 1024 + " KB)");
+    }
+
+    private void scrubTo(int progress) {
+        if (scrubLastSequence < scrubFirstSequence) {
+            return;
+        }
+
+        long sequence = scrubFirstSequence + Math.round((scrubLastSequence - scrubFirstSequence) * (double)progress / REWIND_BAR_MAX);
+        if (scrubRequestedSequence.getAndSet(sequence) == -1) {
+            scrubHandler.post(scrubDecoder);
+        }
+    }
+
+    private final Runnable scrubDecoder = new Runnable() {
+        private final FrameRing.Scratch scratch = new FrameRing.Scratch();
+
+        @Override
+        public void run() {
+            long sequence = scrubRequestedSequence.getAndSet(-1);
+
+            long firstAvailable = frameRing.getFirstSequence();
+            final Bitmap bitmap = frameRing.decode(Math.max(sequence, firstAvailable), scratch, null);
+            if (bitmap != null) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (scrubbing) {
+                            setImageBackColor(Color.BLUE);
+                            imageView.setImageBitmap(bitmap);
+                        }
+                    }
+                });
+            }
+        }
+    };
+
+    private void toggleRecording() {
+        if (sessionRecorder.isRecording()) {
+            sessionRecorder.stopRecording();
+            stopCapture();
+            Toast.makeText(this, "Recording stopped", Toast.LENGTH_SHORT).show();
+        } else {
+            try {
+                File session = sessionRecorder.startRecording();
+                if (udpConnection != null && udpConnection.isAlive()) {
+                    // The raw datagrams as well (for replaying)
+                    udpCapture = new UdpCapture(new File(session, UdpCapture.FILE_NAME));
+                    udpCapture.start();
+                    udpConnection.setPacketTap(udpCapture);
+                }
+                Toast.makeText(this, "Recording to " + session.getName(), Toast.LENGTH_SHORT).show();
+            } catch (IOException exc) {
+                Log.e(TAG, "Cannot start recording " + exc.getMessage());
+                Toast.makeText(this, "Cannot record", Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
+    private void stopCapture() {
+        if (udpCapture != null) {
+            if (udpConnection != null) {
+                udpConnection.setPacketTap(null);
+            }
+            udpCapture.stopActive();
+            udpCapture = null;
+        }
+    }
 
-                byte[] lastImageDataFromFile = new byte[(int) lastImageFile.length()];
-                input.readFully(lastImageDataFromFile);
+    private void exportLatestSession() {
+        final File session = SessionPlayer.findLatestSession(new File(getFilesDir(), "sessions"));
+        if (session == null) {
+            Toast.makeText(this, "No recording", Toast.LENGTH_SHORT).show();
+            return;
+        }
 
-                input.close();
+        // Reachable over USB
+        File exportDirectory = getExternalFilesDir(null);
+        final File target = new File(exportDirectory != null ? exportDirectory : getFilesDir(), "session-" + session.getName() + ".avi");
+        Toast.makeText(this, "Exporting " + session.getName(), Toast.LENGTH_SHORT).show();
 
-                Bitmap bmp = BitmapFactory.decodeByteArray(lastImageDataFromFile, 0, lastImageDataFromFile.length);
-                if (bmp != null) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String result;
+                try {
+                    int frames = new AviExporter(session).export(target);
+                    result = "Exported " + frames + " frames to " + target.getName();
+                } catch (IOException exc) {
+                    Log.e(TAG, "Cannot export " + session + " " + exc.getMessage());
+                    result = "Cannot export";
+                }
+
+                final String message = result;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(MainActivity.this, message, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "AviExporter").start();
+    }
+
+    private void togglePlayback() {
+        if (sessionPlayer != null && sessionPlayer.isAlive()) {
+            sessionPlayer.stopActive();
+            sessionPlayer = null;
+            return;
+        }
+
+        File session = SessionPlayer.findLatestSession(new File(getFilesDir(), "sessions"));
+        if (session == null) {
+            Toast.makeText(this, "No recording", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        // Not through the recorder (and not the playout buffer: the timing is the recorded one)
+        sessionPlayer = new SessionPlayer(session, playbackListener, PLAYBACK_SPEED);
+        sessionPlayer.start();
+        Toast.makeText(this, "Playing " + session.getName(), Toast.LENGTH_SHORT).show();
+    }
+
+    private void restoreLastImage() {
+        // The image view is not measured yet; it is at most as large as the screen
+        DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
+        lastImageStore.restore(displayMetrics.widthPixels, displayMetrics.heightPixels, new LastImageStore.RestoreListener() {
+            @Override
+            public void imageRestored(Bitmap bitmap) {
+                // A live image may already be there
+                if (bitmap != null && lastImageMillis == 0 && !isFinishing()) {
                     setImageBackColor(Color.RED); // TODO set different otherwise
-                    imageView.setImageBitmap(bmp);
-                } else {
-                    Log.e(TAG, "Found corrupt image in saved file; byte size " + lastImageDataFromFile.length);
+                    imageView.setImageBitmap(bitmap);
+                    firstFrameShown("restored");
                 }
             }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+        });
+    }
+
+    /**
+     * Measures the time to the first image from the start of the activity.
+     */
+    private void firstFrameShown(final String source) {
+        if (firstFrameReported) {
+            return;
         }
-        // TODO better error output?
+        firstFrameReported = true;
+
+        // Runs after the next layout and draw pass
+        imageView.post(new Runnable() {
+            @Override
+            public void run() {
+                long millis = SystemClock.uptimeMillis() - createUptimeMillis;
+                firstFrameGauge.set(millis);
+                Log.i(TAG, "First frame (" + source + ") drawn after " + millis + "ms");
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    reportFullyDrawn();
+                }
+            }
+        });
     }
 
     @Override
@@ -238,16 +497,8 @@ public class MainActivity
     }
 
     private void saveLastImage() {
-        if (lastImageData != null) {
-            try {
-                FileOutputStream fos = getApplicationContext().openFileOutput("lastImage.jpg", 0);
-                fos.write(lastImageData);
-                fos.close();
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        if (lastImageData != null && lastImageStore != null) {
+            lastImageStore.save(lastImageData);
         }
     }
 
@@ -255,6 +506,27 @@ public class MainActivity
     protected void onDestroy() {
         closeConnection();
 
+        if (playoutBuffer != null) {
+            playoutBuffer.stopActive();
+        }
+        if (metricsDumper != null) {
+            metricsDumper.stopActive();
+        }
+        if (sessionRecorder != null) {
+            sessionRecorder.stopRecording();
+        }
+        stopCapture();
+        if (lastImageStore != null) {
+            lastImageStore.close();
+        }
+        if (scrubThread != null) {
+            scrubThread.quit();
+        }
+        if (sessionPlayer != null) {
+            sessionPlayer.stopActive();
+        }
+        EventLog.getDefault().stop();
+
         super.onDestroy();
     }
 
@@ -279,8 +551,11 @@ public class MainActivity
                         Log.i(TAG, "Opening connection to "+remoteIp);
 
                         imageConnection = new ImageConnection(remoteIp);
+                        // Straight to the display: HTTP frames carry local time, not the rover timestamp
+                        // the playout buffer (and the recording) is keyed on
                         imageConnection.setImageListener(this);
                         imageConnection.setStatusListener(this);
+                        imageConnection.setFrameDeadlines(frameDeadlines);
                         imageConnection.openConnection();
 
                         imageConnection.sendControl("image_s");
@@ -374,6 +649,8 @@ public class MainActivity
     @Override
     public void informRoverStatus(final RoverStatus currentStatus) {
         if (currentStatus.getVoltage() > 0) {
+            telemetryHistory.addVoltage(System.currentTimeMillis(), currentStatus.getVoltage());
+
             Message m = uiUpdater.obtainMessage(R.id.joystick, (int)(currentStatus.getVoltage() * 1000), 0);
             m.sendToTarget();
         }
@@ -381,22 +658,24 @@ public class MainActivity
 
     @Override
     public void onPositionChange(Direction newDirection) {
+        if (playoutBuffer != null) {
+            playoutBuffer.setDrivingActive(newDirection.forward != 0 || newDirection.right != 0);
+        }
+
         try {
             // TODO only send new commands when old are acknowledged?
 
-            {//if (imageConnection != null && imageConnection.isConnected()) {
-                String command = "move ";
-                command += (500 + Math.round(bend(newDirection.forward) * 500));
-                command += " ";
-                command += (500 + Math.round(bend(newDirection.right) * 500));
+            // Called very often: must not produce garbage (on the UDP path)
+            int forwardValue = responseCurve.toCommandValue(newDirection.forward);
+            int rightValue = responseCurve.toCommandValue(newDirection.right);
 
-                if (imageConnection != null && imageConnection.isConnected()) {
-                    imageConnection.sendControl(command);
-                }
+            if (imageConnection != null && imageConnection.isConnected()) {
+                // Not garbage free: the HTTP connection queues and writes text commands
+                imageConnection.sendControl("move " + forwardValue + " " + rightValue);
+            }
 
-                if (udpConnection != null && udpConnection.isAlive()) {
-                    udpConnection.sendControl(command);
-                }
+            if (udpConnection != null && udpConnection.isAlive()) {
+                udpConnection.sendMove(forwardValue, rightValue);
             }
         } catch (Exception exc) {
             // TODO do more
@@ -404,14 +683,6 @@ public class MainActivity
         }
     }
 
-    /**
-     * Slightly curve the value: lower values raise slower; maps -1..1 to -1..1
-     * Found/tested on https://rechneronline.de/funktionsgraphen/
-     */
-    private float bend(float x) {
-        return Math.signum(x) * (float)Math.pow(Math.abs(x), 1.5f);
-    }
-
     @Override
     public void run() {
         while (checkSystemLoop) {
@@ -465,8 +736,14 @@ public class MainActivity
 
                         if (serverAddress != null) {
                             udpConnection = new UdpRoverConnection(1510, serverAddress);
-                            udpConnection.setImageListener(this);
+                            udpConnection.setFrameDecoder(new BitmapFrameDecoder(playoutBuffer));
+                            udpConnection.setFrameTap(sessionRecorder);
                             udpConnection.setStatusListener(this);
+                            udpConnection.setFrameDeadlines(frameDeadlines);
+                            udpConnection.setAcknowledgedControl(EXTENDED_PROTOCOL);
+                            if (EXTENDED_PROTOCOL) {
+                                udpConnection.subscribeTelemetry(TelemetrySubscription.TELEMETRY_STATUS | TelemetrySubscription.TELEMETRY_LINK, TELEMETRY_PERIOD);
+                            }
 
                             //Log.i(TAG, "System look check " + MainActivity.this.checkSystemLoop);
 
@@ -477,10 +754,16 @@ public class MainActivity
 
                 int rssi = info.getRssi();
                 int signalLevel = WifiManager.calculateSignalLevel(rssi, 100);
+                telemetryHistory.addSignalLevel(System.currentTimeMillis(), signalLevel);
+                sessionRecorder.setSignalLevel(signalLevel);
                 Message m = uiUpdater.obtainMessage(R.id.connectionStrength, signalLevel, 0);
                 m.sendToTarget();
             }
 
+            if (udpConnection != null && udpConnection.isAlive()) {
+                telemetryHistory.addPacketCounts(System.currentTimeMillis(), udpConnection.getReceivedPackets(), udpConnection.getExpectedPackets());
+            }
+
             if (lastImageMillis > 0) {
                 int desiredColor = lastImageBackColor;
 
@@ -497,12 +780,15 @@ public class MainActivity
 
             {//if (imageConnection != null && imageConnection.isConnected()) {
                 long now = System.currentTimeMillis();
-                if (now - lastStatusCheck > 1900) {
-                    if (imageConnection != null && imageConnection.isConnected()) {
+                boolean udpAlive = udpConnection != null && udpConnection.isAlive();
+                // Pushed telemetry makes polling unnecessary; poll only while it does not arrive
+                boolean pushed = udpAlive && udpConnection.isTelemetryFresh();
+                if (!pushed && now - lastStatusCheck > 1900) {
+                    if (!udpAlive && imageConnection != null && imageConnection.isConnected()) {
                         imageConnection.sendControl("status");
                     }
-                    if (udpConnection != null && udpConnection.isAlive()) {
-                        udpConnection.sendControl("status");
+                    if (udpAlive) {
+                        udpConnection.sendControl(EXTENDED_PROTOCOL ? "telemetry" : "status");
                     }
                     // TODO the actual result may be delayed / request discarded?
                     lastStatusCheck = now;
@@ -514,22 +800,47 @@ public class MainActivity
     }
 
     @Override
-    public void imagePresent(final Bitmap bitmap, final long timestampMillis, final byte[] rawData, final float lastKbps) {
+    public void imagePresent(final Bitmap bitmap, final long timestampMillis, final byte[] rawData, final float lastKbps, final long deadlineMillis) {
         // Is there any synchronisation for multiple of these calls?
 
         lastImageData = rawData;
         lastImageMillis = timestampMillis;
+        if (rawData != null) {
+            frameRing.add(rawData, 0, rawData.length, timestampMillis, System.currentTimeMillis());
+        }
+        telemetryHistory.addKbps(System.currentTimeMillis(), lastKbps);
 
+        SessionPlayer player = sessionPlayer;
+        if (player != null && player.isAlive()) {
+            // The playback has the display
+            return;
+        }
+
+        showImage(bitmap, lastKbps, deadlineMillis);
+    }
+
+    private void showImage(Bitmap bitmap, float lastKbps, long deadlineMillis) {
         // 1MB/s is maximum shown throughput
         // Formula found experimentally: uses a moderatly logarithmic curve mapping 0..1000 to 0..100
         //   See https://rechneronline.de/funktionsgraphen/
         float qualityValue = 49 * (float)Math.log((lastKbps + 150) / 150);
 
         // TODO two single messages?
-        Message m = uiUpdater.obtainMessage(R.id.imageView, (int)(qualityValue * 1000), 0, bitmap);
+        long timeLeft = deadlineMillis - System.currentTimeMillis();
+        if (timeLeft < 0) {
+            frameDeadlines.countAbandoned(FrameDeadlines.STAGE_DISPLAY);
+            return;
+        }
+
+        imageHandoffNanos = System.nanoTime();
+        Message m = uiUpdater.obtainMessage(R.id.imageView, (int)(qualityValue * 1000), (int)timeLeft, bitmap);
         m.sendToTarget();
     }
 
+    public TelemetryHistory getTelemetryHistory() {
+        return telemetryHistory;
+    }
+
     private void setImageBackColor(int color) {
         if (lastImageBackColor != color) {
             lastImageBackColor = color;
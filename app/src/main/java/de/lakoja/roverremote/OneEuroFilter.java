@@ -0,0 +1,68 @@
+package de.lakoja.roverremote;
+
+/**
+ * The "1 Euro filter" (Casiez et al.): a low pass filter whose cutoff frequency rises with the speed
+ * of the signal. Removes jitter when the finger rests and lag when it moves fast.
+ */
+public class OneEuroFilter {
+    private final float minCutoff;
+    private final float beta;
+    private final float derivativeCutoff;
+
+    private boolean initialized = false;
+    private float lastValue;
+    private float lastDerivative;
+    private long lastMillis;
+
+    /**
+     * @param minCutoff cutoff frequency (Hz) for a resting signal; lower removes more jitter
+     * @param beta how fast the cutoff rises with speed; higher removes more lag
+     */
+    public OneEuroFilter(float minCutoff, float beta) {
+        this.minCutoff = minCutoff;
+        this.beta = beta;
+        this.derivativeCutoff = 1;
+    }
+
+    public void reset() {
+        initialized = false;
+        lastDerivative = 0;
+    }
+
+    public float filter(float value, long timeMillis) {
+        if (!initialized) {
+            initialized = true;
+            lastValue = value;
+            lastDerivative = 0;
+            lastMillis = timeMillis;
+            return value;
+        }
+
+        float dt = (timeMillis - lastMillis) / 1000.0f;
+        if (dt <= 0) {
+            // Same time stamp (several samples in one frame); assume the usual touch rate
+            dt = 1 / 120.0f;
+        }
+        lastMillis = timeMillis;
+
+        float derivative = (value - lastValue) / dt;
+        lastDerivative += alpha(derivativeCutoff, dt) * (derivative - lastDerivative);
+
+        float cutoff = minCutoff + beta * Math.abs(lastDerivative);
+        lastValue += alpha(cutoff, dt) * (value - lastValue);
+
+        return lastValue;
+    }
+
+    /**
+     * @return the filtered speed of the signal (per second)
+     */
+    public float getDerivative() {
+        return lastDerivative;
+    }
+
+    private static float alpha(float cutoff, float dt) {
+        float tau = 1 / (2 * (float)Math.PI * cutoff);
+        return 1 / (1 + tau / dt);
+    }
+}
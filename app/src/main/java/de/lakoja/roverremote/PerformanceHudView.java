@@ -0,0 +1,212 @@
+package de.lakoja.roverremote;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.support.annotation.Nullable;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Overlay with the live link and pipeline numbers (from the metrics registry): fps, packet loss,
+ * repaired and dropped frames, decode time, command round trip and the estimated glass to glass latency.
+ *
+ * Redraws itself only a few times per second and does not allocate while drawing.
+ */
+public class PerformanceHudView extends View {
+    private static final long REFRESH_MILLIS = 500;
+    private static final int LINES = 4;
+    private static final int LINE_LENGTH = 40;
+
+    private final Counter framesShown;
+    private final Counter packetsReceived;
+    private final Counter packetsExpected;
+    private final Counter framesRepaired;
+    private final Counter framesDropped;
+    private final Histogram reassemblyLatency;
+    private final Histogram decodeLatency;
+    private final Histogram uiLatency;
+    private final Gauge commandRtt;
+    private final Gauge repairRtt;
+    private final Gauge playoutDelay;
+
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint backgroundPaint = new Paint();
+    private final char[][] lines = new char[LINES][LINE_LENGTH];
+    private final int[] lineLengths = new int[LINES];
+    private int currentLine;
+
+    private long lastUpdateMillis = 0;
+    private long lastFramesShown = 0;
+    private long lastPacketsReceived = 0;
+    private long lastPacketsExpected = 0;
+    private float fps = 0;
+    private float lossPercent = 0;
+
+    private final Runnable refresher = new Runnable() {
+        @Override
+        public void run() {
+            invalidate();
+        }
+    };
+
+    public PerformanceHudView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        framesShown = metrics.counter("ui.frames.shown");
+        packetsReceived = metrics.counter("udp.packets.received");
+        packetsExpected = metrics.counter("udp.packets.expected");
+        framesRepaired = metrics.counter("udp.frames.repaired");
+        framesDropped = metrics.counter("udp.frames.dropped");
+        reassemblyLatency = metrics.histogram("latency.reassembly.ns");
+        decodeLatency = metrics.histogram("latency.decode.ns");
+        uiLatency = metrics.histogram("latency.ui.ns");
+        commandRtt = metrics.gauge("udp.commands.rtt.ms");
+        repairRtt = metrics.gauge("repairs.rtt.ms");
+        playoutDelay = metrics.gauge("playout.delay.ms");
+
+        float textSize = 12 * getResources().getDisplayMetrics().scaledDensity;
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextSize(textSize);
+        textPaint.setTypeface(Typeface.MONOSPACE);
+        backgroundPaint.setColor(0x80000000);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        removeCallbacks(refresher);
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        long now = System.currentTimeMillis();
+        if (now - lastUpdateMillis >= REFRESH_MILLIS) {
+            update(now);
+        }
+
+        float lineHeight = textPaint.getFontSpacing();
+        float padding = lineHeight / 4;
+        float width = 0;
+        for (int i = 0; i < LINES; i++) {
+            width = Math.max(width, textPaint.measureText(lines[i], 0, lineLengths[i]));
+        }
+
+        canvas.drawRect(0, 0, width + 2 * padding, LINES * lineHeight + 2 * padding, backgroundPaint);
+        for (int i = 0; i < LINES; i++) {
+            canvas.drawText(lines[i], 0, lineLengths[i], padding, padding + (i + 1) * lineHeight - textPaint.descent(), textPaint);
+        }
+
+        // Any other invalidation must not add a refresher
+        removeCallbacks(refresher);
+        if (getVisibility() == VISIBLE) {
+            postDelayed(refresher, REFRESH_MILLIS);
+        }
+    }
+
+    private void update(long now) {
+        long shown = framesShown.get();
+        long received = packetsReceived.get();
+        long expected = packetsExpected.get();
+
+        if (lastUpdateMillis > 0) {
+            float seconds = (now - lastUpdateMillis) / 1000.0f;
+            fps = Math.max(0, shown - lastFramesShown) / seconds;
+
+            long expectedDelta = expected - lastPacketsExpected;
+            long receivedDelta = received - lastPacketsReceived;
+            // Counters are reset with every new connection
+            if (expectedDelta > 0 && receivedDelta >= 0) {
+                lossPercent = Math.max(0, 100 - 100.0f * receivedDelta / expectedDelta);
+            } else if (expectedDelta == 0) {
+                lossPercent = 0;
+            }
+        }
+
+        lastUpdateMillis = now;
+        lastFramesShown = shown;
+        lastPacketsReceived = received;
+        lastPacketsExpected = expected;
+
+        double rtt = commandRtt.get() > 0 ? commandRtt.get() : repairRtt.get();
+        // The rover clock is unknown: estimate as half a round trip plus the local pipeline
+        long glassToGlass = Math.round(rtt / 2 + playoutDelay.get()
+                + (reassemblyLatency.getValueAtPercentile(50) + decodeLatency.getValueAtPercentile(50) + uiLatency.getValueAtPercentile(50)) / 1000000.0);
+
+        startLine(0);
+        append("fps ");
+        appendDecimal(fps);
+        append("  loss ");
+        appendDecimal(lossPercent);
+        append('%');
+
+        startLine(1);
+        append("repaired ");
+        appendNumber(framesRepaired.get());
+        append("  dropped ");
+        appendNumber(framesDropped.get());
+
+        startLine(2);
+        append("decode ");
+        appendNumber(decodeLatency.getValueAtPercentile(50) / 1000000);
+        append('/');
+        appendNumber(decodeLatency.getValueAtPercentile(99) / 1000000);
+        append("ms  rtt ");
+        appendNumber(Math.round(rtt));
+        append("ms");
+
+        startLine(3);
+        append("glass to glass ~");
+        appendNumber(glassToGlass);
+        append("ms");
+    }
+
+    private void startLine(int line) {
+        currentLine = line;
+        lineLengths[line] = 0;
+    }
+
+    private void append(char c) {
+        if (lineLengths[currentLine] < LINE_LENGTH) {
+            lines[currentLine][lineLengths[currentLine]++] = c;
+        }
+    }
+
+    private void append(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            append(text.charAt(i));
+        }
+    }
+
+    private void appendNumber(long value) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+
+        while (divisor > 0) {
+            append((char)('0' + (value / divisor) % 10));
+            divisor /= 10;
+        }
+    }
+
+    /**
+     * Appends with one decimal place.
+     */
+    private void appendDecimal(float value) {
+        long tenths = Math.round(value * 10);
+        appendNumber(tenths / 10);
+        append('.');
+        append((char)('0' + Math.abs(tenths % 10)));
+    }
+}
@@ -0,0 +1,270 @@
+package de.lakoja.roverremote;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+/**
+ * Optional jitter buffer between a connection and the image display.
+ *
+ * Frames are presented at their rover timestamp plus the (minimal) transit time plus a target delay.
+ * The target delay adapts to the measured jitter (bounded by a maximum). Frames which would be
+ * presented too late are dropped. While driving the delay collapses to zero.
+ *
+ * Only for frames with rover timestamps (UDP); frames stamped with another clock would break the timing.
+ */
+public class PlayoutBuffer extends Thread implements ImageListener {
+    private static final String TAG = PlayoutBuffer.class.getName();
+    private static final int CAPACITY = 8;
+    // Target delay is this multiple of the (mean) jitter
+    private static final float JITTER_FACTOR = 3;
+    // Late frames up to this are still shown
+    private static final long LATE_TOLERANCE = 20;
+    // The minimal transit time slowly forgets old minimums (clock drift, route changes)
+    private static final float TRANSIT_DRIFT_PER_FRAME = 0.05f;
+
+    private final ImageListener target;
+    private boolean active = true;
+    private boolean enabled = true;
+    private boolean drivingActive = false;
+    private long maxDelayMillis;
+
+    private final Bitmap[] bitmaps = new Bitmap[CAPACITY];
+    private final long[] timestamps = new long[CAPACITY];
+    private final byte[][] rawData = new byte[CAPACITY][];
+    private final float[] kbps = new float[CAPACITY];
+    private final long[] playoutMillis = new long[CAPACITY];
+    private final long[] deadlines = new long[CAPACITY];
+    private int head = 0;
+    private int count = 0;
+
+    private long lastTimestamp = -1;
+    private long lastPresentedTimestamp = -1;
+    private long lastTransit = 0;
+    private float baseTransit = Float.MAX_VALUE;
+    private float jitterMillis = 0;
+    private long targetDelayMillis = 0;
+
+    private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private final Counter framesPresented = metrics.counter("playout.presented");
+    private final Counter framesDroppedLate = metrics.counter("playout.late");
+    private final Counter framesDroppedOverflow = metrics.counter("playout.overflow");
+    private final Counter framesFlushed = metrics.counter("playout.flushed");
+    private final Gauge targetDelayGauge = metrics.gauge("playout.delay.ms");
+    private final Gauge jitterGauge = metrics.gauge("playout.jitter.ms");
+    private final Gauge bufferedGauge = metrics.gauge("playout.buffered");
+
+    public PlayoutBuffer(ImageListener target, long maxDelayMillis) {
+        this.target = target;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            flush();
+        }
+    }
+
+    /**
+     * While driving any delay would hurt steering; then frames are shown immediately.
+     */
+    public synchronized void setDrivingActive(boolean drivingActive) {
+        if (drivingActive && !this.drivingActive) {
+            flush();
+        }
+        this.drivingActive = drivingActive;
+    }
+
+    public synchronized void setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public void stopActive() {
+        active = false;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void imagePresent(Bitmap bitmap, long timestampMillis, byte[] imageData, float lastKbps, long deadlineMillis) {
+        boolean presentNow = false;
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+
+            if (lastTimestamp != -1 && timestampMillis < lastTimestamp - 5000) {
+                // Server reset; all timing information is invalid
+                Log.w(TAG, "Timestamps restarted. Resetting playout timing.");
+                flush();
+                baseTransit = Float.MAX_VALUE;
+                jitterMillis = 0;
+                lastPresentedTimestamp = -1;
+                lastTimestamp = -1;
+            }
+
+            long transit = now - timestampMillis;
+            if (lastTimestamp != -1) {
+                jitterMillis += (Math.abs(transit - lastTransit) - jitterMillis) / 16;
+            }
+            lastTransit = transit;
+            lastTimestamp = timestampMillis;
+
+            if (transit < baseTransit) {
+                baseTransit = transit;
+            } else {
+                baseTransit += TRANSIT_DRIFT_PER_FRAME;
+            }
+
+            targetDelayMillis = Math.min(maxDelayMillis, Math.round(jitterMillis * JITTER_FACTOR));
+            targetDelayGauge.set(targetDelayMillis);
+            jitterGauge.set(jitterMillis);
+
+            if (timestampMillis <= lastPresentedTimestamp) {
+                framesDroppedLate.increment();
+            } else if (!enabled || drivingActive || targetDelayMillis == 0) {
+                flush();
+                presentNow = true;
+                lastPresentedTimestamp = timestampMillis;
+                framesPresented.increment();
+            } else {
+                long playout = timestampMillis + Math.round(baseTransit) + targetDelayMillis;
+
+                if (playout < now - LATE_TOLERANCE) {
+                    framesDroppedLate.increment();
+                } else {
+                    // The delay is deliberate; the frame may be shown that much later
+                    enqueue(bitmap, timestampMillis, imageData, lastKbps, playout, deadlineMillis + targetDelayMillis);
+                    notifyAll();
+                }
+            }
+        }
+
+        if (presentNow) {
+            target.imagePresent(bitmap, timestampMillis, imageData, lastKbps, deadlineMillis);
+        }
+    }
+
+    private void enqueue(Bitmap bitmap, long timestamp, byte[] imageData, float lastKbps, long playout, long deadline) {
+        if (count == CAPACITY) {
+            // Drop the oldest one
+            clearSlot(head);
+            head = (head + 1) % CAPACITY;
+            count--;
+            framesDroppedOverflow.increment();
+        }
+
+        // Keep the queue ordered by timestamp (frames may be completed out of order by repairs)
+        int insert = count;
+        while (insert > 0 && timestamps[(head + insert - 1) % CAPACITY] > timestamp) {
+            int from = (head + insert - 1) % CAPACITY;
+            int to = (head + insert) % CAPACITY;
+            bitmaps[to] = bitmaps[from];
+            timestamps[to] = timestamps[from];
+            rawData[to] = rawData[from];
+            kbps[to] = kbps[from];
+            playoutMillis[to] = playoutMillis[from];
+            deadlines[to] = deadlines[from];
+            insert--;
+        }
+
+        int slot = (head + insert) % CAPACITY;
+        bitmaps[slot] = bitmap;
+        timestamps[slot] = timestamp;
+        rawData[slot] = imageData;
+        kbps[slot] = lastKbps;
+        playoutMillis[slot] = playout;
+        deadlines[slot] = deadline;
+        count++;
+        bufferedGauge.set(count);
+    }
+
+    private void flush() {
+        while (count > 0) {
+            clearSlot(head);
+            head = (head + 1) % CAPACITY;
+            count--;
+            framesFlushed.increment();
+        }
+        bufferedGauge.set(0);
+    }
+
+    private void clearSlot(int slot) {
+        bitmaps[slot] = null;
+        rawData[slot] = null;
+    }
+
+    @Override
+    public void run() {
+        while (active) {
+            Bitmap bitmap = null;
+            long timestamp = 0;
+            byte[] imageData = null;
+            float frameKbps = 0;
+            long deadline = 0;
+
+            synchronized (this) {
+                long waitMillis = 100;
+                if (count > 0) {
+                    waitMillis = playoutMillis[head] - System.currentTimeMillis();
+
+                    if (waitMillis <= 0) {
+                        bitmap = bitmaps[head];
+                        timestamp = timestamps[head];
+                        imageData = rawData[head];
+                        frameKbps = kbps[head];
+                        deadline = deadlines[head];
+                        clearSlot(head);
+                        head = (head + 1) % CAPACITY;
+                        count--;
+                        bufferedGauge.set(count);
+
+                        if (timestamp <= lastPresentedTimestamp) {
+                            framesDroppedLate.increment();
+                            bitmap = null;
+                        } else {
+                            lastPresentedTimestamp = timestamp;
+                            framesPresented.increment();
+                        }
+                    }
+                }
+
+                if (bitmap == null && waitMillis > 0) {
+                    try { wait(waitMillis); } catch (InterruptedException exc) {}
+                }
+            }
+
+            if (bitmap != null) {
+                target.imagePresent(bitmap, timestamp, imageData, frameKbps, deadline);
+            }
+        }
+    }
+
+    public long getTargetDelayMillis() {
+        return targetDelayMillis;
+    }
+
+    public float getJitterMillis() {
+        return jitterMillis;
+    }
+
+    public int getFramesPresented() {
+        return (int)framesPresented.get();
+    }
+
+    public int getFramesDroppedLate() {
+        return (int)framesDroppedLate.get();
+    }
+
+    public int getFramesDroppedOverflow() {
+        return (int)framesDroppedOverflow.get();
+    }
+
+    public int getFramesFlushed() {
+        return (int)framesFlushed.get();
+    }
+
+    public synchronized int getBufferedFrames() {
+        return count;
+    }
+}
@@ -28,7 +28,6 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.util.LinkedList;
 import java.util.Queue;
-import java.util.StringTokenizer;
 
 public class RoverConnection implements Runnable {
 
@@ -56,6 +55,8 @@ public class RoverConnection implements Runnable {
     private Socket serverConnection;
     private boolean active = false;
     private StatusListener statusListener;
+    private TelemetryParser telemetryParser = new TelemetryParser();
+    private RoverStatus roverStatus = new RoverStatus();
     private Queue<QueueEntry> commandQueue = new LinkedList<>();
 
     public RoverConnection(String host) {
@@ -131,21 +132,11 @@ public class RoverConnection implements Runnable {
                         // TODO less or more explicit "status"
                         if (command.controlRequest.equals("status")) {
                             if (statusListener != null) {
-                                // TODO support more
-                                StringTokenizer tokenizer = new StringTokenizer(result, " ");
-                                if (tokenizer.countTokens() >= 2) {
-                                    tokenizer.nextToken(); // TODO check for VOLT (or STATUS)
-                                    String voltageRaw = tokenizer.nextToken();
-                                    try {
-                                        float voltage = Float.parseFloat(voltageRaw);
-                                        RoverStatus status = new RoverStatus(false, false, false, voltage);
-
-                                        statusListener.informRoverStatus(status);
-                                    } catch (NumberFormatException exc) {
-                                        Log.e(TAG, "False rover status reply; cannot parse voltage: "+voltageRaw);
-                                    }
+                                // TODO check for VOLT (or STATUS)
+                                if (telemetryParser.parseText(result, roverStatus, System.currentTimeMillis())) {
+                                    statusListener.informRoverStatus(roverStatus);
                                 } else {
-                                    Log.e(TAG, "False rover status reply; too few tokens: "+result);
+                                    Log.e(TAG, "False rover status reply: "+result);
                                 }
                             }
                         }
@@ -0,0 +1,228 @@
+package de.lakoja.roverremote;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays a recorded session (see FrameLog) into an image listener: at the original timing, at a
+ * multiple of it or as fast as possible. The latter is a repeatable throughput benchmark of
+ * decoding and displaying; its result is logged at the end.
+ *
+ * A reader thread reads the segments sequentially (buffered) and decodes some frames ahead.
+ */
+public class SessionPlayer extends Thread {
+    private static final String TAG = SessionPlayer.class.getName();
+    private static final int READ_AHEAD_BYTES = 256 * 1024;
+    private static final int DECODE_AHEAD = 4;
+    // The listener gets this much time for displaying
+    private static final long DISPLAY_DEADLINE_MILLIS = 1000;
+
+    public static final float AS_FAST_AS_POSSIBLE = 0;
+
+    private static class Frame {
+        final Bitmap bitmap;
+        final byte[] jpegData;
+        final long timestamp;
+        final long arrivalMillis;
+        final float kbps;
+
+        Frame(Bitmap bitmap, byte[] jpegData, long timestamp, long arrivalMillis, float kbps) {
+            this.bitmap = bitmap;
+            this.jpegData = jpegData;
+            this.timestamp = timestamp;
+            this.arrivalMillis = arrivalMillis;
+            this.kbps = kbps;
+        }
+    }
+
+    // Marks the end of the session in the queue
+    private static final Frame END = new Frame(null, null, 0, 0, 0);
+
+    private final File sessionDirectory;
+    private final ImageListener target;
+    private final float speed;
+    private final BlockingQueue<Frame> decoded = new ArrayBlockingQueue<>(DECODE_AHEAD);
+    private volatile boolean active = true;
+    private Thread reader;
+
+    private int framesPlayed = 0;
+    // Written by the reader
+    private volatile int framesUndecodable = 0;
+    private long bytesPlayed = 0;
+    private long playNanos = 0;
+
+    /**
+     * @param speed 1 for the original timing, 2 for double speed, ... or AS_FAST_AS_POSSIBLE
+     */
+    public SessionPlayer(File sessionDirectory, ImageListener target, float speed) {
+        super("SessionPlayer");
+        this.sessionDirectory = sessionDirectory;
+        this.target = target;
+        this.speed = speed;
+    }
+
+    /**
+     * @return the newest session (directory) below the given one or null
+     */
+    public static File findLatestSession(File sessionsDirectory) {
+        File[] sessions = sessionsDirectory.listFiles();
+        File latest = null;
+        if (sessions != null) {
+            for (File session : sessions) {
+                if (FrameLog.segmentFile(session, 0).exists() && (latest == null || session.getName().compareTo(latest.getName()) > 0)) {
+                    latest = session;
+                }
+            }
+        }
+        return latest;
+    }
+
+    public void stopActive() {
+        active = false;
+        interrupt();
+    }
+
+    @Override
+    public void run() {
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readSession();
+            }
+        }, "SessionReader");
+        reader.start();
+
+        long startNanos = System.nanoTime();
+        long firstArrivalMillis = -1;
+
+        try {
+            while (active) {
+                Frame frame = decoded.take();
+                if (frame == END) {
+                    break;
+                }
+
+                if (speed > 0) {
+                    if (firstArrivalMillis == -1) {
+                        firstArrivalMillis = frame.arrivalMillis;
+                        startNanos = System.nanoTime();
+                    }
+
+                    long dueNanos = startNanos + (long)((frame.arrivalMillis - firstArrivalMillis) * 1000000 / speed);
+                    long waitNanos = dueNanos - System.nanoTime();
+                    if (waitNanos > 0) {
+                        Thread.sleep(waitNanos / 1000000, (int)(waitNanos % 1000000));
+                    }
+                }
+
+                target.imagePresent(frame.bitmap, frame.timestamp, frame.jpegData, frame.kbps, System.currentTimeMillis() + DISPLAY_DEADLINE_MILLIS);
+                framesPlayed++;
+                bytesPlayed += frame.jpegData.length;
+            }
+        } catch (InterruptedException exc) {
+            // stopped
+        }
+
+        playNanos = System.nanoTime() - startNanos;
+        active = false;
+        reader.interrupt();
+
+        float seconds = playNanos / 1000000000.0f;
+        Log.i(TAG, "Played " + framesPlayed + " frames (" + framesUndecodable + " undecodable) of " + sessionDirectory.getName()
+                + " in " + Math.round(seconds * 1000) + "ms " + (speed > 0 ? "at speed " + speed : "as fast as possible")
+                + ": " + Math.round(framesPlayed / Math.max(seconds, 0.001f)) + " fps "
+                + Math.round(bytesPlayed / 1024.0f / Math.max(seconds, 0.001f)) + " KB/s");
+    }
+
+    private void readSession() {
+        try {
+            for (int segment = 0; active; segment++) {
+                File segmentFile = FrameLog.segmentFile(sessionDirectory, segment);
+                if (!segmentFile.exists()) {
+                    break;
+                }
+
+                readSegment(segmentFile);
+            }
+        } catch (IOException exc) {
+            Log.e(TAG, "Cannot read session " + exc.getMessage());
+        } catch (InterruptedException exc) {
+            // stopped
+        }
+
+        if (active) {
+            try {
+                // Must arrive even if the queue is full
+                decoded.put(END);
+                return;
+            } catch (InterruptedException exc) {
+                // stopped while waiting
+            }
+        }
+
+        // Nobody takes frames any more: release the decoded bitmaps instead of waiting
+        decoded.clear();
+        decoded.offer(END);
+    }
+
+    private void readSegment(File segmentFile) throws IOException, InterruptedException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile), READ_AHEAD_BYTES));
+
+        try {
+            if (input.readInt() != FrameLog.SEGMENT_MAGIC || input.readShort() != FrameLog.VERSION) {
+                throw new IOException("Not a frame log segment " + segmentFile);
+            }
+            input.readShort(); // segment number
+
+            while (active) {
+                int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException exc) {
+                    break;
+                }
+
+                if (length == 0) {
+                    break;
+                }
+
+                long timestamp = input.readLong();
+                long arrivalMillis = input.readLong();
+                float kbps = input.readFloat();
+                input.readInt(); // signal level
+
+                byte[] jpegData = new byte[length];
+                input.readFully(jpegData);
+
+                Bitmap bitmap = BitmapFactory.decodeByteArray(jpegData, 0, length);
+                if (bitmap == null) {
+                    framesUndecodable++;
+                    continue;
+                }
+
+                decoded.put(new Frame(bitmap, jpegData, timestamp, arrivalMillis, kbps));
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    public int getFramesPlayed() {
+        return framesPlayed;
+    }
+
+    public long getPlayNanos() {
+        return playNanos;
+    }
+}
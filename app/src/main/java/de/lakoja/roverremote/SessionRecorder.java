@@ -0,0 +1,246 @@
+package de.lakoja.roverremote;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sees the reassembled frames of a UDP connection (before they are checked for being too old or too
+ * late for display) and - while recording - appends their jpeg data to a session (see FrameLog) in
+ * memory mapped segments.
+ *
+ * Writing happens on an own thread; frames are handed over through a bounded queue and dropped
+ * (counted) when the writer does not keep up. Neither the network thread nor the caller of
+ * stopRecording() waits for the disk.
+ *
+ * All recorded timestamps are rover timestamps.
+ */
+public class SessionRecorder implements FrameTap {
+    private static final String TAG = SessionRecorder.class.getName();
+    private static final int QUEUE_CAPACITY = 32;
+    private static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    // Wakes the writer when recording stops
+    private static final Frame FINISH = new Frame(null, 0, 0, 0, 0);
+
+    private static class Frame {
+        final byte[] jpegData;
+        final long timestamp;
+        final long arrivalMillis;
+        final float kbps;
+        final int signalLevel;
+
+        Frame(byte[] jpegData, long timestamp, long arrivalMillis, float kbps, int signalLevel) {
+            this.jpegData = jpegData;
+            this.timestamp = timestamp;
+            this.arrivalMillis = arrivalMillis;
+            this.kbps = kbps;
+            this.signalLevel = signalLevel;
+        }
+    }
+
+    private final File sessionsDirectory;
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+    private volatile int signalLevel = 0;
+    private volatile Writer writer;
+
+    private final Counter framesRecorded = MetricsRegistry.getDefault().counter("recorder.frames");
+    private final Counter framesDropped = MetricsRegistry.getDefault().counter("recorder.dropped");
+    private final Counter bytesRecorded = MetricsRegistry.getDefault().counter("recorder.bytes");
+
+    /**
+     * @param sessionsDirectory every recording gets a sub directory (named by its start time) here
+     */
+    public SessionRecorder(File sessionsDirectory) {
+        this.sessionsDirectory = sessionsDirectory;
+    }
+
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @param level 0..100; recorded with every frame
+     */
+    public void setSignalLevel(int level) {
+        signalLevel = level;
+    }
+
+    public synchronized boolean isRecording() {
+        return writer != null;
+    }
+
+    /**
+     * @return the directory of the new session
+     */
+    public synchronized File startRecording() throws IOException {
+        stopRecording();
+
+        File sessionDirectory = new File(sessionsDirectory, Long.toString(System.currentTimeMillis()));
+        if (!sessionDirectory.mkdirs()) {
+            throw new IOException("Cannot create session directory " + sessionDirectory);
+        }
+
+        Writer newWriter = new Writer(sessionDirectory, segmentSize);
+        newWriter.start();
+        writer = newWriter;
+
+        Log.i(TAG, "Recording to " + sessionDirectory);
+        return sessionDirectory;
+    }
+
+    /**
+     * The frames still queued are written and the session is closed in the background.
+     */
+    public synchronized void stopRecording() {
+        Writer oldWriter = writer;
+        writer = null;
+
+        if (oldWriter != null) {
+            oldWriter.stopActive();
+        }
+    }
+
+    @Override
+    public void frame(int timestamp, byte[] jpegData, int length, float kbps) {
+        Writer currentWriter = writer;
+        if (currentWriter != null) {
+            // The data is only valid during the call (and padded)
+            Frame frame = new Frame(Arrays.copyOf(jpegData, length), timestamp, System.currentTimeMillis(), kbps, signalLevel);
+            if (!currentWriter.queue.offer(frame)) {
+                framesDropped.increment();
+            }
+        }
+    }
+
+    private class Writer extends Thread {
+        private final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final File sessionDirectory;
+        private final long segmentSize;
+        private volatile boolean active = true;
+
+        private long sessionStartMillis;
+        private DataOutputStream index;
+        private RandomAccessFile segmentFile;
+        private MappedByteBuffer segment;
+        private int segmentNumber = -1;
+
+        Writer(File sessionDirectory, long segmentSize) {
+            super("SessionRecorder");
+            this.sessionDirectory = sessionDirectory;
+            this.segmentSize = segmentSize;
+        }
+
+        void stopActive() {
+            active = false;
+            // If the queue is full the writer is busy anyway and sees the flag soon
+            queue.offer(FINISH);
+        }
+
+        @Override
+        public void run() {
+            try {
+                sessionStartMillis = System.currentTimeMillis();
+                index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FrameLog.indexFile(sessionDirectory)), 8192));
+                index.writeInt(FrameLog.INDEX_MAGIC);
+                index.writeShort(FrameLog.VERSION);
+                index.writeShort(0);
+                index.writeLong(sessionStartMillis);
+
+                while (active || !queue.isEmpty()) {
+                    Frame frame = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (frame != null && frame != FINISH) {
+                        write(frame);
+                    }
+                }
+            } catch (IOException exc) {
+                Log.e(TAG, "Cannot record session " + exc.getMessage());
+            } catch (InterruptedException exc) {
+                Log.w(TAG, "Recording interrupted");
+            } finally {
+                close();
+            }
+
+            Log.i(TAG, "Recording finished " + sessionDirectory);
+        }
+
+        private void write(Frame frame) throws IOException {
+            int recordLength = FrameLog.RECORD_HEADER_LENGTH + frame.jpegData.length;
+            if (recordLength > segmentSize - FrameLog.SEGMENT_HEADER_LENGTH) {
+                Log.w(TAG, "Frame too large for a segment " + frame.jpegData.length);
+                framesDropped.increment();
+                return;
+            }
+
+            if (segment == null || segment.remaining() < recordLength) {
+                nextSegment();
+            }
+
+            int offset = segment.position();
+            segment.putInt(frame.jpegData.length);
+            segment.putLong(frame.timestamp);
+            segment.putLong(frame.arrivalMillis);
+            segment.putFloat(frame.kbps);
+            segment.putInt(frame.signalLevel);
+            segment.put(frame.jpegData);
+
+            index.writeInt(segmentNumber);
+            index.writeInt(offset);
+            index.writeLong(frame.timestamp);
+            index.writeInt((int)(frame.arrivalMillis - sessionStartMillis));
+
+            framesRecorded.increment();
+            bytesRecorded.add(recordLength);
+        }
+
+        private void nextSegment() throws IOException {
+            closeSegment();
+
+            segmentNumber++;
+            segmentFile = new RandomAccessFile(FrameLog.segmentFile(sessionDirectory, segmentNumber), "rw");
+            segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            segment.putInt(FrameLog.SEGMENT_MAGIC);
+            segment.putShort(FrameLog.VERSION);
+            segment.putShort((short)segmentNumber);
+        }
+
+        private void closeSegment() throws IOException {
+            if (segment != null) {
+                int used = segment.position();
+                segment.force();
+                segment = null;
+                // Cut the unused (mapped) rest
+                segmentFile.setLength(used);
+                segmentFile.close();
+                segmentFile = null;
+            }
+        }
+
+        private void close() {
+            try {
+                closeSegment();
+            } catch (IOException exc) {
+                Log.e(TAG, "Cannot close segment " + exc.getMessage());
+            }
+
+            if (index != null) {
+                try {
+                    index.close();
+                } catch (IOException exc) {
+                    Log.e(TAG, "Cannot close index " + exc.getMessage());
+                }
+                index = null;
+            }
+        }
+    }
+}
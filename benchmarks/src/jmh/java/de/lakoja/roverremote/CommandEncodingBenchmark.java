@@ -0,0 +1,47 @@
+package de.lakoja.roverremote;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a text command ("CT" or with acknowledgement "CQ") up to the point of sending it (there
+ * is no socket).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandEncodingBenchmark {
+    @Param({"false", "true"})
+    public boolean acknowledgedControl;
+
+    private UdpRoverConnection connection;
+    private ControlCommand[] commands;
+    private int nextCommand = 0;
+
+    @Setup
+    public void setUp() {
+        connection = new UdpRoverConnection(1510, InetAddress.getLoopbackAddress());
+        connection.setAcknowledgedControl(acknowledgedControl);
+        commands = new ControlCommand[] {
+                new ControlCommand("status"),
+                new ControlCommand("flash 1"),
+                new ControlCommand("image_s 800"),
+                new ControlCommand("drive 1", true)
+        };
+    }
+
+    @Benchmark
+    public void sendCommandPacket() {
+        connection.sendCommandPacket(commands[nextCommand]);
+        nextCommand = (nextCommand + 1) % commands.length;
+    }
+}
@@ -0,0 +1,14 @@
+package de.lakoja.roverremote;
+
+/**
+ * Lets the event log drain as in the app (formatting included) without any output.
+ */
+class DiscardingSink implements EventLog.Sink {
+    @Override
+    public void write(long timeMillis, int level, String tag, String message) {
+    }
+
+    @Override
+    public void flush() {
+    }
+}
@@ -0,0 +1,82 @@
+package de.lakoja.roverremote;
+
+import java.util.Random;
+
+/**
+ * The image packets ("RI") of one frame plus precomputed loss patterns (seeded, so every run sees
+ * the same losses).
+ */
+class FrameScenario {
+    static final int PACKET_DATA_LENGTH = 1200;
+    static final int HEADER_LENGTH = 10;
+    private static final int PATTERNS = 64;
+
+    final int packetCount;
+    final byte[][] packets;
+    final int[] packetLengths;
+    private final boolean[][] lostPatterns = new boolean[PATTERNS][];
+    private int nextPattern = 0;
+
+    FrameScenario(int frameBytes, int lossPercent, long seed) {
+        packetCount = (frameBytes + PACKET_DATA_LENGTH - 1) / PACKET_DATA_LENGTH;
+        packets = new byte[packetCount][];
+        packetLengths = new int[packetCount];
+
+        Random random = new Random(seed);
+        for (int i = 0; i < packetCount; i++) {
+            int dataLength = Math.min(PACKET_DATA_LENGTH, frameBytes - i * PACKET_DATA_LENGTH);
+            byte[] packet = new byte[HEADER_LENGTH + dataLength];
+            packet[0] = 'R';
+            packet[1] = 'I';
+            writeShort(packet, 6, i);
+            writeShort(packet, 8, packetCount);
+            for (int j = HEADER_LENGTH; j < packet.length; j++) {
+                packet[j] = (byte)random.nextInt();
+            }
+            packets[i] = packet;
+            packetLengths[i] = packet.length;
+        }
+
+        for (int p = 0; p < PATTERNS; p++) {
+            boolean[] lost = new boolean[packetCount];
+            for (int i = 0; i < packetCount; i++) {
+                lost[i] = random.nextInt(100) < lossPercent;
+            }
+            // A frame without any packet is not seen at all
+            lost[random.nextInt(packetCount)] = false;
+            lostPatterns[p] = lost;
+        }
+    }
+
+    boolean[] nextLostPattern() {
+        boolean[] lost = lostPatterns[nextPattern];
+        nextPattern = (nextPattern + 1) % PATTERNS;
+        return lost;
+    }
+
+    /**
+     * @return a frame with the losses of the next pattern
+     */
+    UdpDataHolder receivedFrame(int timestamp) {
+        boolean[] lost = nextLostPattern();
+        UdpDataHolder holder = new UdpDataHolder(timestamp, PACKET_DATA_LENGTH);
+        for (int i = 0; i < packetCount; i++) {
+            if (!lost[i]) {
+                holder.add(i, packetCount, packets[i], HEADER_LENGTH, packetLengths[i] - HEADER_LENGTH, 0, 0);
+            }
+        }
+        return holder;
+    }
+
+    static void writeShort(byte[] data, int offset, int value) {
+        data[offset] = (byte)(value >> 8);
+        data[offset + 1] = (byte)value;
+    }
+
+    static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte)(value >> 24);
+        data[offset + 1] = (byte)(value >> 16);
+        data[offset + 2] = (byte)(value >> 8);
+        data[offset + 3] = (byte)value;
+    }
+}
@@ -0,0 +1,48 @@
+package de.lakoja.roverremote;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the header lines of an image response of the HTTP connection (the lines as read).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ImageResponseBenchmark {
+    private final ImageResponseParser parser = new ImageResponseParser();
+    private String[] imageHeader;
+    private String[] noImageHeader;
+
+    @Setup
+    public void setUp() {
+        imageHeader = new String[] {"HTTP/1.1 200 OK", "Content-Type: image/jpeg", "Content-Length: 38211", ""};
+        noImageHeader = new String[] {"HTTP/1.1 200 OK", "NOIY"};
+    }
+
+    @Benchmark
+    public int image() {
+        return parse(imageHeader) + parser.getImageSize();
+    }
+
+    @Benchmark
+    public int noImage() {
+        return parse(noImageHeader);
+    }
+
+    private int parse(String[] lines) {
+        parser.begin();
+        int result = ImageResponseParser.NEED_MORE;
+        for (int i = 0; i < lines.length && result == ImageResponseParser.NEED_MORE; i++) {
+            result = parser.parseLine(lines[i]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,46 @@
+package de.lakoja.roverremote;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding the header of an image packet (timestamp, packet number, total packets).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PacketHeaderBenchmark {
+    // Not final: the header must not be constant folded
+    private byte[] packet;
+
+    @Setup
+    public void setUp() {
+        packet = new FrameScenario(40000, 0, 42).packets[17];
+        FrameScenario.writeInt(packet, 2, 123456789);
+    }
+
+    @Benchmark
+    public int readShort() {
+        return UdpRoverConnection.readShort(packet, 6);
+    }
+
+    @Benchmark
+    public int readInt() {
+        return UdpRoverConnection.readInt(packet, 2);
+    }
+
+    /**
+     * All fields as the receive loop reads them.
+     */
+    @Benchmark
+    public int readHeader() {
+        return UdpRoverConnection.readInt(packet, 2) ^ UdpRoverConnection.readShort(packet, 6) ^ UdpRoverConnection.readShort(packet, 8);
+    }
+}
@@ -0,0 +1,91 @@
+package de.lakoja.roverremote;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One received image packet through the receive state machine of the UDP connection (without the
+ * socket and without decoding): header checks, reassembly, frame switching, rerequests and the
+ * events logged on the way. Lost packets are skipped, so rerequests are sent but never answered.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReceivePathBenchmark {
+    private static final int FRAME_INTERVAL_MILLIS = 66;
+    private static final long PACKET_INTERVAL_NANOS = 200000;
+
+    @Param({"8000", "40000", "120000"})
+    public int frameBytes;
+
+    @Param({"0", "5", "20"})
+    public int lossPercent;
+
+    @Param({"false", "true"})
+    public boolean compactRerequests;
+
+    private FrameScenario scenario;
+    private UdpRoverConnection connection;
+    private VirtualClock clock;
+    private boolean[] lost;
+    private int packetNumber;
+    private int timestamp;
+
+    @Setup
+    public void setUp() {
+        scenario = new FrameScenario(frameBytes, lossPercent, 42);
+        clock = new VirtualClock(System.currentTimeMillis());
+        connection = new UdpRoverConnection(1510, InetAddress.getLoopbackAddress());
+        connection.setTimeSource(clock);
+        connection.setCompactRerequests(compactRerequests);
+        connection.resetStatistics();
+
+        packetNumber = scenario.packetCount;
+        timestamp = 0;
+
+        EventLog.getDefault().start(new DiscardingSink());
+    }
+
+    @TearDown
+    public void tearDown() {
+        EventLog.getDefault().stop();
+    }
+
+    @Benchmark
+    public void receivePacket() {
+        while (true) {
+            if (packetNumber == scenario.packetCount) {
+                nextFrame();
+            }
+
+            int number = packetNumber++;
+            if (!lost[number]) {
+                byte[] packet = scenario.packets[number];
+                FrameScenario.writeInt(packet, 2, timestamp);
+                clock.advanceNanos(PACKET_INTERVAL_NANOS);
+                connection.replayPacket(packet, scenario.packetLengths[number]);
+                return;
+            }
+        }
+    }
+
+    private void nextFrame() {
+        lost = scenario.nextLostPattern();
+        packetNumber = 0;
+        timestamp += FRAME_INTERVAL_MILLIS;
+        if (timestamp > 1 << 30) {
+            // Taken as a server reset (once)
+            timestamp = FRAME_INTERVAL_MILLIS;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package de.lakoja.roverremote;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a rerequest for the missing packets of one frame: as "MN" (packet numbers) and as
+ * compact "MR" (ranges or bitmap).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RerequestEncodingBenchmark {
+    private static final int FRAME_PACKETS = 100;
+
+    @Param({"1", "8", "32"})
+    public int missingPackets;
+
+    private UdpRoverConnection connection;
+    private NackEncoder nackEncoder;
+    private UdpDataHolder frame;
+    private int[] missing;
+
+    @Setup
+    public void setUp() {
+        connection = new UdpRoverConnection(1510, InetAddress.getLoopbackAddress());
+        nackEncoder = new NackEncoder(500);
+
+        // Spread over the frame (the worst case for ranges)
+        FrameScenario scenario = new FrameScenario(FRAME_PACKETS * FrameScenario.PACKET_DATA_LENGTH, 0, 42);
+        frame = new UdpDataHolder(1000, FrameScenario.PACKET_DATA_LENGTH);
+        int step = FRAME_PACKETS / missingPackets;
+        for (int i = 0; i < FRAME_PACKETS; i++) {
+            if (i % step != 0 || i / step >= missingPackets) {
+                frame.add(i, FRAME_PACKETS, scenario.packets[i], FrameScenario.HEADER_LENGTH, FrameScenario.PACKET_DATA_LENGTH, 0, 0);
+            }
+        }
+        missing = frame.currentlyMissingPackets();
+
+        EventLog.getDefault().start(new DiscardingSink());
+    }
+
+    @TearDown
+    public void tearDown() {
+        EventLog.getDefault().stop();
+    }
+
+    @Benchmark
+    public void sendRerequestPacket() {
+        connection.sendRerequestPacket(frame.getTimestamp(), missing);
+    }
+
+    @Benchmark
+    public int compactRerequest() {
+        nackEncoder.begin();
+        nackEncoder.addFrame(frame);
+        return nackEncoder.getLength();
+    }
+}
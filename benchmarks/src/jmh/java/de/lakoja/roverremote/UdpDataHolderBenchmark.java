@@ -0,0 +1,65 @@
+package de.lakoja.roverremote;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reassembly of one frame: adding its packets, asking for the missing ones and for completeness.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UdpDataHolderBenchmark {
+    private static final int FRAMES = 64;
+
+    @Param({"8000", "40000", "120000"})
+    public int frameBytes;
+
+    @Param({"0", "5", "20"})
+    public int lossPercent;
+
+    private FrameScenario scenario;
+    private UdpDataHolder[] frames;
+    private int nextFrame = 0;
+
+    @Setup
+    public void setUp() {
+        scenario = new FrameScenario(frameBytes, lossPercent, 42);
+        frames = new UdpDataHolder[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i] = scenario.receivedFrame(i);
+        }
+    }
+
+    /**
+     * All packets of a frame (without the lost ones) into a new holder.
+     */
+    @Benchmark
+    public UdpDataHolder add() {
+        return scenario.receivedFrame(1);
+    }
+
+    @Benchmark
+    public int[] currentlyMissingPackets() {
+        return nextFrame().currentlyMissingPackets();
+    }
+
+    @Benchmark
+    public boolean isDataComplete() {
+        return nextFrame().isDataComplete();
+    }
+
+    private UdpDataHolder nextFrame() {
+        UdpDataHolder frame = frames[nextFrame];
+        nextFrame = (nextFrame + 1) % FRAMES;
+        return frame;
+    }
+}
@@ -0,0 +1,90 @@
+package de.lakoja.roverremote;
+
+/**
+ * Writes control packets ("CT" + ASCII command) into a reused buffer.
+ */
+public class CommandEncoder {
+    private static final String MOVE = "move ";
+
+    private final byte[] buffer;
+    private int length;
+
+    public CommandEncoder(int maximumLength) {
+        buffer = new byte[maximumLength];
+    }
+
+    public void begin(String header) {
+        length = 0;
+        appendAscii(header);
+    }
+
+    /**
+     * Encodes "move forward right" without creating strings.
+     */
+    public void appendMove(int forwardValue, int rightValue) {
+        appendAscii(MOVE);
+        appendNumber(forwardValue);
+        append(' ');
+        appendNumber(rightValue);
+    }
+
+    public void appendAscii(String text) {
+        if (length + text.length() > buffer.length) {
+            throw new IllegalArgumentException("Command too long for buffer "+text.length());
+        }
+
+        for (int i = 0; i < text.length(); i++) {
+            buffer[length++] = (byte)text.charAt(i);
+        }
+    }
+
+    public void appendNumber(int value) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+
+        if (length + digits > buffer.length) {
+            throw new IllegalArgumentException("Command too long for buffer");
+        }
+
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer[length + i] = (byte)('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    /**
+     * Appends a binary (big endian) 16 bit value.
+     */
+    public void appendShort(int value) {
+        if (length + 2 > buffer.length) {
+            throw new IllegalArgumentException("Command too long for buffer");
+        }
+
+        buffer[length++] = (byte)(value >> 8);
+        buffer[length++] = (byte)value;
+    }
+
+    public void append(char c) {
+        if (length >= buffer.length) {
+            throw new IllegalArgumentException("Command too long for buffer");
+        }
+
+        buffer[length++] = (byte)c;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
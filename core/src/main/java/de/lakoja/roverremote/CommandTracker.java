@@ -0,0 +1,223 @@
+package de.lakoja.roverremote;
+
+/**
+ * Tracks sequence numbered control commands until the rover acknowledges them.
+ *
+ * Every acknowledgement yields a round trip sample (smoothed like TCP, RFC 6298). Critical commands
+ * are retransmitted when not acknowledged within the retransmission timeout; others are counted as lost.
+ */
+public class CommandTracker {
+    public interface Retransmitter {
+        void retransmit(byte[] packet, int length);
+    }
+
+    private static final int WINDOW = 64;
+    private static final int MAX_PACKET_LENGTH = 100;
+    private static final int MAX_RETRANSMITS = 4;
+    private static final long MIN_RTO_NANOS = 40000000L;
+    private static final long MAX_RTO_NANOS = 1000000000L;
+    private static final long INITIAL_RTO_NANOS = 250000000L;
+
+    private final int[] sequences = new int[WINDOW];
+    private final boolean[] inFlight = new boolean[WINDOW];
+    private final boolean[] critical = new boolean[WINDOW];
+    private final boolean[] moves = new boolean[WINDOW];
+    private final long[] firstSentNanos = new long[WINDOW];
+    private final long[] lastSentNanos = new long[WINDOW];
+    private final int[] retransmits = new int[WINDOW];
+    private final byte[][] packets = new byte[WINDOW][MAX_PACKET_LENGTH];
+    private final int[] packetLengths = new int[WINDOW];
+
+    private int nextSequence = 0;
+
+    private long smoothedRttNanos = 0;
+    private long rttVariationNanos = 0;
+    private long rtoNanos = INITIAL_RTO_NANOS;
+    private long lastRttNanos = 0;
+
+    private final Counter sent;
+    private final Counter acknowledged;
+    private final Counter retransmitted;
+    private final Counter lost;
+    private final Counter duplicateAcknowledgements;
+    private final Gauge smoothedRttMillis;
+    private final Gauge rtoMillis;
+    private final Histogram rttHistogram;
+
+    public CommandTracker(String metricsPrefix) {
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        sent = metrics.counter(metricsPrefix + ".sent");
+        acknowledged = metrics.counter(metricsPrefix + ".acknowledged");
+        retransmitted = metrics.counter(metricsPrefix + ".retransmitted");
+        lost = metrics.counter(metricsPrefix + ".lost");
+        duplicateAcknowledgements = metrics.counter(metricsPrefix + ".duplicateAcks");
+        smoothedRttMillis = metrics.gauge(metricsPrefix + ".rtt.ms");
+        rtoMillis = metrics.gauge(metricsPrefix + ".rto.ms");
+        rttHistogram = metrics.histogram(metricsPrefix + ".rtt.ns");
+    }
+
+    /**
+     * @return the sequence number for the next command (16 bit)
+     */
+    public synchronized int nextSequence() {
+        int sequence = nextSequence;
+        nextSequence = (nextSequence + 1) & 0xffff;
+        return sequence;
+    }
+
+    /**
+     * @param packet the complete packet; it is copied for critical commands (retransmission)
+     * @param move whether this is a move; a newer move makes retransmitting older ones pointless
+     */
+    public synchronized void sent(int sequence, byte[] packet, int length, boolean isCritical, boolean move, long nowNanos) {
+        int slot = sequence % WINDOW;
+
+        if (inFlight[slot]) {
+            // Wrapped around without answer
+            lost.increment();
+        }
+
+        if (move) {
+            for (int i = 0; i < WINDOW; i++) {
+                if (inFlight[i] && moves[i]) {
+                    critical[i] = false;
+                }
+            }
+        }
+
+        sequences[slot] = sequence;
+        inFlight[slot] = true;
+        critical[slot] = isCritical && length <= MAX_PACKET_LENGTH;
+        moves[slot] = move;
+        firstSentNanos[slot] = nowNanos;
+        lastSentNanos[slot] = nowNanos;
+        retransmits[slot] = 0;
+
+        if (critical[slot]) {
+            System.arraycopy(packet, 0, packets[slot], 0, length);
+            packetLengths[slot] = length;
+        }
+
+        sent.increment();
+    }
+
+    /**
+     * @return the round trip time in nanos or -1 if this was not a (first) answer to a command in flight
+     *      or if the command was retransmitted (the answer may belong to any of the transmissions)
+     */
+    public synchronized long acknowledged(int sequence, long nowNanos) {
+        int slot = sequence % WINDOW;
+
+        if (!inFlight[slot] || sequences[slot] != sequence) {
+            duplicateAcknowledgements.increment();
+            return -1;
+        }
+
+        inFlight[slot] = false;
+        acknowledged.increment();
+
+        // Karn: no sample from retransmitted commands
+        if (retransmits[slot] > 0) {
+            return -1;
+        }
+
+        long rtt = nowNanos - firstSentNanos[slot];
+        addRoundTripSample(rtt);
+
+        return rtt;
+    }
+
+    public synchronized void addRoundTripSample(long rttNanos) {
+        lastRttNanos = rttNanos;
+        rttHistogram.record(rttNanos);
+
+        if (smoothedRttNanos == 0) {
+            smoothedRttNanos = rttNanos;
+            rttVariationNanos = rttNanos / 2;
+        } else {
+            rttVariationNanos += (Math.abs(smoothedRttNanos - rttNanos) - rttVariationNanos) / 4;
+            smoothedRttNanos += (rttNanos - smoothedRttNanos) / 8;
+        }
+
+        rtoNanos = Math.max(MIN_RTO_NANOS, Math.min(MAX_RTO_NANOS, smoothedRttNanos + 4 * rttVariationNanos));
+        smoothedRttMillis.set(smoothedRttNanos / 1000000.0);
+        rtoMillis.set(rtoNanos / 1000000.0);
+    }
+
+    /**
+     * Retransmits critical commands (with backoff) and gives up on others after the retransmission timeout.
+     */
+    public synchronized void checkTimeouts(long nowNanos, Retransmitter retransmitter) {
+        for (int slot = 0; slot < WINDOW; slot++) {
+            if (!inFlight[slot]) {
+                continue;
+            }
+
+            // Others are given up late; a late answer is still a round trip sample
+            long timeout = critical[slot] ? Math.min(MAX_RTO_NANOS, rtoNanos << retransmits[slot]) : MAX_RTO_NANOS;
+            if (nowNanos - lastSentNanos[slot] < timeout) {
+                continue;
+            }
+
+            if (critical[slot] && retransmits[slot] < MAX_RETRANSMITS) {
+                retransmits[slot]++;
+                lastSentNanos[slot] = nowNanos;
+                retransmitted.increment();
+                retransmitter.retransmit(packets[slot], packetLengths[slot]);
+            } else {
+                inFlight[slot] = false;
+                lost.increment();
+            }
+        }
+    }
+
+    public synchronized long getSmoothedRttNanos() {
+        return smoothedRttNanos;
+    }
+
+    public synchronized long getRttVariationNanos() {
+        return rttVariationNanos;
+    }
+
+    public synchronized long getLastRttNanos() {
+        return lastRttNanos;
+    }
+
+    public synchronized long getRtoNanos() {
+        return rtoNanos;
+    }
+
+    public int getSent() {
+        return (int)sent.get();
+    }
+
+    public int getAcknowledged() {
+        return (int)acknowledged.get();
+    }
+
+    public int getRetransmitted() {
+        return (int)retransmitted.get();
+    }
+
+    public int getLost() {
+        return (int)lost.get();
+    }
+
+    public int getDuplicateAcknowledgements() {
+        return (int)duplicateAcknowledgements.get();
+    }
+
+    /**
+     * @return share of (finished) commands that were never acknowledged
+     */
+    public synchronized float getLossRate() {
+        long finished = acknowledged.get() + lost.get();
+        return finished == 0 ? 0 : lost.get() / (float)finished;
+    }
+
+    public String toString() {
+        return "Commands sent/acked/retransmitted/lost " + getSent() + "/" + getAcknowledged() + "/" + getRetransmitted() + "/" + getLost()
+                + " rtt " + (getSmoothedRttNanos() / 1000000) + "ms +-" + (getRttVariationNanos() / 1000000)
+                + " rto " + (getRtoNanos() / 1000000);
+    }
+}
@@ -0,0 +1,35 @@
+package de.lakoja.roverremote;
+
+public class ControlCommand {
+    String controlRequest;
+    long requestQueueMillis;
+    long requestQueueNanos;
+    boolean critical;
+    private final TimeSource clock;
+
+    public ControlCommand(String request) {
+        this(request, false);
+    }
+
+    /**
+     * @param critical whether the command must reach the rover (retransmitted until acknowledged)
+     */
+    public ControlCommand(String request, boolean critical) {
+        this(request, critical, TimeSource.SYSTEM);
+    }
+
+    /**
+     * @param clock the one of the connection (a virtual one when replaying); stamps and ages the command
+     */
+    public ControlCommand(String request, boolean critical, TimeSource clock) {
+        controlRequest = request;
+        this.clock = clock;
+        requestQueueMillis = clock.currentTimeMillis();
+        requestQueueNanos = clock.nanoTime();
+        this.critical = critical;
+    }
+
+    public long age() {
+        return clock.currentTimeMillis() - requestQueueMillis;
+    }
+}
@@ -0,0 +1,50 @@
+package de.lakoja.roverremote;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which many threads may increment without contending: every thread adds to one of
+ * several (padded) stripes; reading sums them up.
+ */
+public class Counter {
+    private static final int STRIPES = 8;
+    // One stripe per cache line (8 longs)
+    private static final int PADDING = 8;
+
+    private final String name;
+    private final AtomicLongArray stripes = new AtomicLongArray(STRIPES * PADDING);
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        int stripe = (int)(Thread.currentThread().getId() & (STRIPES - 1));
+        stripes.addAndGet(stripe * PADDING, delta);
+    }
+
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += stripes.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Not atomic with concurrent adds (these may survive the reset).
+     */
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes.set(i * PADDING, 0);
+        }
+    }
+}
@@ -21,6 +21,13 @@ public class Direction {
     public float right = 0; // out of -1 to 1 - negative for left
 
     public Direction(float f, float r) {
+        set(f, r);
+    }
+
+    /**
+     * Instances are reused (on the control path); so listeners must not keep them.
+     */
+    public void set(float f, float r) {
         if (f < -1 || f > 1) {
             throw new IllegalArgumentException("forward may only be -1 to 1 is "+f);
         }
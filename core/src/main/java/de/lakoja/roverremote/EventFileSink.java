@@ -0,0 +1,68 @@
+package de.lakoja.roverremote;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes events as text lines ("millis level tag message") to a file; called only by the draining thread.
+ */
+public class EventFileSink implements EventLog.Sink {
+    private static final String TAG = EventFileSink.class.getName();
+    private static final char[] LEVEL_CHARS = { '?', '?', 'V', 'D', 'I', 'W', 'E', 'A' };
+
+    private Writer writer;
+
+    public EventFileSink(File file, boolean append) throws IOException {
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), "UTF-8"), 16384);
+    }
+
+    @Override
+    public void write(long timeMillis, int level, String tag, String message) {
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            writer.write(Long.toString(timeMillis));
+            writer.write(' ');
+            writer.write(level >= 0 && level < LEVEL_CHARS.length ? LEVEL_CHARS[level] : '?');
+            writer.write(' ');
+            writer.write(tag);
+            writer.write(' ');
+            writer.write(message);
+            writer.write('\n');
+        } catch (IOException exc) {
+            RoverLog.e(TAG, "Cannot write event; closing " + exc.getMessage());
+            close();
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            writer.flush();
+        } catch (IOException exc) {
+            RoverLog.e(TAG, "Cannot flush events; closing " + exc.getMessage());
+            close();
+        }
+    }
+
+    public void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException exc) {
+                // ignore
+            }
+            writer = null;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package de.lakoja.roverremote;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Structured log for the hot paths: an event is a predefined id plus up to four numbers. Logging
+ * only checks the level and writes a fixed size record into a lock-free ring; a background thread
+ * formats the records and hands them to a sink (RoverLog or a file).
+ *
+ * When the ring is full new events are dropped (and counted) rather than blocking the caller.
+ */
+public class EventLog {
+    private static final String TAG = EventLog.class.getName();
+    private static final int CAPACITY = 1024; // power of two
+    private static final int MAX_ARGS = 4;
+    private static final long DRAIN_INTERVAL_MILLIS = 50;
+    private static final EventLog DEFAULT = new EventLog();
+
+    public interface Sink {
+        void write(long timeMillis, int level, String tag, String message);
+
+        void flush();
+    }
+
+    public static final Sink LOG_SINK = new Sink() {
+        @Override
+        public void write(long timeMillis, int level, String tag, String message) {
+            RoverLog.println(level, tag, message);
+        }
+
+        @Override
+        public void flush() {
+        }
+    };
+
+    private static class EventType {
+        final String tag;
+        final String name;
+        final String[] argNames;
+
+        EventType(String tag, String name, String[] argNames) {
+            this.tag = tag;
+            this.name = name;
+            this.argNames = argNames;
+        }
+    }
+
+    private final List<EventType> eventTypes = new ArrayList<>();
+    private volatile EventType[] eventTypeArray = new EventType[0];
+    private volatile int minLevel = RoverLog.INFO;
+
+    private final long[] times = new long[CAPACITY];
+    private final int[] levels = new int[CAPACITY];
+    private final int[] events = new int[CAPACITY];
+    private final long[] args = new long[CAPACITY * MAX_ARGS];
+    // Sequence + 1 of the record in a slot once it is completely written
+    private final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final AtomicLong drainedSequence = new AtomicLong();
+    private final Counter dropped = MetricsRegistry.getDefault().counter("eventlog.dropped");
+
+    private Drainer drainer;
+
+    public static EventLog getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Registers an event type (once, like in a static initializer).
+     *
+     * @return the id to log it with
+     */
+    public synchronized int define(String tag, String name, String... argNames) {
+        if (argNames.length > MAX_ARGS) {
+            throw new IllegalArgumentException("At most " + MAX_ARGS + " arguments for " + name);
+        }
+
+        eventTypes.add(new EventType(tag, name, argNames));
+        eventTypeArray = eventTypes.toArray(new EventType[eventTypes.size()]);
+        return eventTypes.size() - 1;
+    }
+
+    /**
+     * @param minLevel like RoverLog.INFO; events below are discarded at once
+     */
+    public void setMinLevel(int minLevel) {
+        this.minLevel = minLevel;
+    }
+
+    public boolean isLoggable(int level) {
+        return level >= minLevel;
+    }
+
+    public void log(int level, int event) {
+        log(level, event, 0, 0, 0, 0);
+    }
+
+    public void log(int level, int event, long arg1) {
+        log(level, event, arg1, 0, 0, 0);
+    }
+
+    public void log(int level, int event, long arg1, long arg2) {
+        log(level, event, arg1, arg2, 0, 0);
+    }
+
+    public void log(int level, int event, long arg1, long arg2, long arg3) {
+        log(level, event, arg1, arg2, arg3, 0);
+    }
+
+    public void log(int level, int event, long arg1, long arg2, long arg3, long arg4) {
+        if (level < minLevel) {
+            return;
+        }
+
+        long sequence;
+        do {
+            sequence = nextSequence.get();
+            if (sequence - drainedSequence.get() >= CAPACITY) {
+                dropped.increment();
+                return;
+            }
+        } while (!nextSequence.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int)(sequence & (CAPACITY - 1));
+        times[slot] = System.currentTimeMillis();
+        levels[slot] = level;
+        events[slot] = event;
+        int argStart = slot * MAX_ARGS;
+        args[argStart] = arg1;
+        args[argStart + 1] = arg2;
+        args[argStart + 2] = arg3;
+        args[argStart + 3] = arg4;
+
+        published.lazySet(slot, sequence + 1);
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Starts draining the events to the sink (in a background thread).
+     */
+    public synchronized void start(Sink sink) {
+        stop();
+
+        drainer = new Drainer(sink);
+        drainer.start();
+    }
+
+    public synchronized void stop() {
+        if (drainer != null) {
+            drainer.stopActive();
+            try {
+                // Only one may drain
+                drainer.join(500);
+            } catch (InterruptedException exc) {
+                RoverLog.w(TAG, "Interrupted while stopping the event log");
+            }
+            drainer = null;
+        }
+    }
+
+    /**
+     * Formats and writes all complete records; only one thread may drain.
+     *
+     * @return the number of records written
+     */
+    int drain(Sink sink, StringBuilder builder) {
+        EventType[] types = eventTypeArray;
+        int count = 0;
+        long sequence = drainedSequence.get();
+
+        while (true) {
+            int slot = (int)(sequence & (CAPACITY - 1));
+            if (published.get(slot) != sequence + 1) {
+                break;
+            }
+
+            int event = events[slot];
+            if (event >= 0 && event < types.length) {
+                EventType type = types[event];
+
+                builder.setLength(0);
+                builder.append(type.name);
+                for (int i = 0; i < type.argNames.length; i++) {
+                    builder.append(' ').append(type.argNames[i]).append('=').append(args[slot * MAX_ARGS + i]);
+                }
+
+                sink.write(times[slot], levels[slot], type.tag, builder.toString());
+            } else {
+                RoverLog.e(TAG, "Unknown event " + event);
+            }
+
+            sequence++;
+            drainedSequence.lazySet(sequence);
+            count++;
+        }
+
+        return count;
+    }
+
+    private class Drainer extends Thread {
+        private final Sink sink;
+        private volatile boolean active = true;
+
+        Drainer(Sink sink) {
+            super("EventLog");
+            this.sink = sink;
+            setDaemon(true);
+        }
+
+        void stopActive() {
+            active = false;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            StringBuilder builder = new StringBuilder(200);
+            long lastDropped = 0;
+
+            while (active) {
+                if (drain(sink, builder) > 0) {
+                    sink.flush();
+                }
+
+                long nowDropped = dropped.get();
+                if (nowDropped != lastDropped) {
+                    RoverLog.w(TAG, "Dropped events " + (nowDropped - lastDropped));
+                    lastDropped = nowDropped;
+                }
+
+                try {
+                    Thread.sleep(DRAIN_INTERVAL_MILLIS);
+                } catch (InterruptedException exc) {
+                    // stopping
+                }
+            }
+
+            drain(sink, builder);
+            sink.flush();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package de.lakoja.roverremote;
+
+/**
+ * Every frame gets a deadline (when its first data arrived plus a maximum age); work on a frame is
+ * abandoned at the first stage that finds it expired. Counts the abandoned frames per stage.
+ */
+public class FrameDeadlines {
+    public static final int STAGE_REASSEMBLY = 0;
+    public static final int STAGE_DECODE = 1;
+    public static final int STAGE_DISPLAY = 2;
+    private static final String[] STAGE_NAMES = { "reassembly", "decode", "display" };
+
+    private static final long DEFAULT_MAX_FRAME_AGE = 400;
+
+    private volatile long maxFrameAgeMillis = DEFAULT_MAX_FRAME_AGE;
+    private final Counter[] abandoned = new Counter[STAGE_NAMES.length];
+    private final Counter[] passed = new Counter[STAGE_NAMES.length];
+
+    public FrameDeadlines() {
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            abandoned[stage] = metrics.counter("frames." + STAGE_NAMES[stage] + ".late");
+            passed[stage] = metrics.counter("frames." + STAGE_NAMES[stage] + ".inTime");
+        }
+    }
+
+    public void setMaxFrameAgeMillis(long maxFrameAgeMillis) {
+        this.maxFrameAgeMillis = maxFrameAgeMillis;
+    }
+
+    public long deadlineFor(long firstDataMillis) {
+        return firstDataMillis + maxFrameAgeMillis;
+    }
+
+    public boolean isExpired(long deadlineMillis, long nowMillis) {
+        return nowMillis > deadlineMillis;
+    }
+
+    public void countAbandoned(int stage) {
+        abandoned[stage].increment();
+    }
+
+    /**
+     * @return true if the frame is still in time for this stage; otherwise it is counted as abandoned there
+     */
+    public boolean inTime(long deadlineMillis, int stage, long nowMillis) {
+        if (nowMillis > deadlineMillis) {
+            abandoned[stage].increment();
+            return false;
+        }
+
+        passed[stage].increment();
+        return true;
+    }
+
+    public int getAbandoned(int stage) {
+        return (int)abandoned[stage].get();
+    }
+
+    public int getPassed(int stage) {
+        return (int)passed[stage].get();
+    }
+
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Frames abandoned");
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            builder.append(' ').append(STAGE_NAMES[stage]).append(' ')
+                    .append(getAbandoned(stage)).append('/').append(getAbandoned(stage) + getPassed(stage));
+        }
+        return builder.toString();
+    }
+}
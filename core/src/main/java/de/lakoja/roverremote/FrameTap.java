@@ -0,0 +1,13 @@
+package de.lakoja.roverremote;
+
+/**
+ * Sees every reassembled frame of a UDP connection before it is checked for being too old or too
+ * late (on the network thread; must not block).
+ */
+public interface FrameTap {
+    /**
+     * @param jpegData only valid during the call; may be longer than length
+     * @param length the real length of the frame data
+     */
+    void frame(int timestamp, byte[] jpegData, int length, float kbps);
+}
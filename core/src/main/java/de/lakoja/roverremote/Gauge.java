@@ -0,0 +1,25 @@
+package de.lakoja.roverremote;
+
+/**
+ * The latest value of something (like a round trip time or a queue length).
+ */
+public class Gauge {
+    private final String name;
+    private volatile double value = 0;
+
+    Gauge(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void set(double value) {
+        this.value = value;
+    }
+
+    public double get() {
+        return value;
+    }
+}
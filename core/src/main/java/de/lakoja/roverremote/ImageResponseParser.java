@@ -0,0 +1,115 @@
+package de.lakoja.roverremote;
+
+/**
+ * Parses the header of an image response of the rover's HTTP server line by line: the status line
+ * ("HTTP/1.1 200 OK"), then either "NOIY" (no new image yet) or the content type, the content length
+ * and an empty separator line. Parsing does not create objects.
+ */
+public class ImageResponseParser {
+    public static final int NEED_MORE = 0;
+    public static final int IMAGE = 1;
+    public static final int NO_IMAGE = 2;
+    public static final int ERROR = 3;
+
+    private static final String STATUS_PREFIX = "HTTP/1.1 ";
+    private static final String NO_IMAGE_YET = "NOIY";
+    private static final String CONTENT_TYPE = "Content-Type: image/jpeg";
+    private static final String CONTENT_LENGTH_PREFIX = "Content-Length: ";
+
+    private int linesParsed = 0;
+    private int imageSize = 0;
+    private String error = null;
+
+    public static boolean isStatusLine(String line) {
+        return line.startsWith(STATUS_PREFIX);
+    }
+
+    public void begin() {
+        linesParsed = 0;
+        imageSize = 0;
+        error = null;
+    }
+
+    /**
+     * @return NEED_MORE until the header is complete, then IMAGE, NO_IMAGE or ERROR (see getError())
+     */
+    public int parseLine(String line) {
+        int lineNumber = linesParsed++;
+
+        switch (lineNumber) {
+            case 0:
+                if (!isStatusLine(line)) {
+                    return fail("Did not get HTTP/1.1 response: " + line);
+                }
+
+                int codeEnd = line.indexOf(' ', STATUS_PREFIX.length());
+                int code = parseDecimal(line, STATUS_PREFIX.length(), codeEnd >= 0 ? codeEnd : line.length());
+                if (code < 0) {
+                    return fail("Illegal response code: " + line.substring(STATUS_PREFIX.length()));
+                }
+                if (code != 200) {
+                    return fail("Errorneous response code: " + code);
+                }
+                return NEED_MORE;
+            case 1:
+                if (line.equals(NO_IMAGE_YET)) {
+                    return NO_IMAGE;
+                }
+                if (!line.equals(CONTENT_TYPE)) {
+                    return fail("Got wrong stream content type: " + line);
+                }
+                return NEED_MORE;
+            case 2:
+                if (!line.startsWith(CONTENT_LENGTH_PREFIX)) {
+                    return fail("Got wrong stream content length: " + line);
+                }
+
+                imageSize = parseDecimal(line, CONTENT_LENGTH_PREFIX.length(), line.length());
+                if (imageSize <= 0) {
+                    // TODO support without image size?
+                    return fail("Image response has no size: " + line);
+                }
+                return NEED_MORE;
+            case 3:
+                if (line.length() != 0) {
+                    return fail("Expected empty separator line after header; but got: " + line);
+                }
+                return IMAGE;
+            default:
+                return fail("Header already parsed");
+        }
+    }
+
+    public int getImageSize() {
+        return imageSize;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    private int fail(String message) {
+        error = message;
+        return ERROR;
+    }
+
+    /**
+     * @return -1 if there are no digits (or too many)
+     */
+    private static int parseDecimal(String line, int start, int end) {
+        if (end <= start || end - start > 9) {
+            return -1;
+        }
+
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+}
@@ -0,0 +1,66 @@
+package de.lakoja.roverremote;
+
+import java.util.Arrays;
+
+/**
+ * Maps int keys to objects in two sorted arrays (like android.util.SparseArray, which is not
+ * available outside of Android). Meant for a handful of entries: no boxing and no garbage when
+ * the capacity suffices.
+ */
+public class IntKeyMap<E> {
+    private int[] keys;
+    private Object[] values;
+    private int size = 0;
+
+    public IntKeyMap(int initialCapacity) {
+        keys = new int[Math.max(1, initialCapacity)];
+        values = new Object[keys.length];
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(int key) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        return index >= 0 ? (E)values[index] : null;
+    }
+
+    public void put(int key, E value) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0) {
+            values[index] = value;
+            return;
+        }
+
+        index = -index - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * size);
+            values = Arrays.copyOf(values, 2 * size);
+        }
+
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        keys[index] = key;
+        values[index] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int keyAt(int index) {
+        return keys[index];
+    }
+
+    /**
+     * @param index 0..size() - 1 in ascending key order
+     */
+    @SuppressWarnings("unchecked")
+    public E valueAt(int index) {
+        return (E)values[index];
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+}
@@ -0,0 +1,50 @@
+package de.lakoja.roverremote;
+
+/**
+ * Periodically hands a snapshot of all metrics to a sink (by default the log).
+ */
+public class MetricsDumper extends Thread {
+    private static final String TAG = MetricsDumper.class.getName();
+
+    public interface Sink {
+        void dump(MetricsSnapshot snapshot);
+    }
+
+    public static final Sink LOG_SINK = new Sink() {
+        @Override
+        public void dump(MetricsSnapshot snapshot) {
+            RoverLog.i(TAG, snapshot.toString());
+        }
+    };
+
+    private final MetricsRegistry registry;
+    private final Sink sink;
+    private final long periodMillis;
+    private volatile boolean active = true;
+
+    public MetricsDumper(MetricsRegistry registry, Sink sink, long periodMillis) {
+        super("MetricsDumper");
+        this.registry = registry;
+        this.sink = sink;
+        this.periodMillis = periodMillis;
+        setDaemon(true);
+    }
+
+    public void stopActive() {
+        active = false;
+        interrupt();
+    }
+
+    @Override
+    public void run() {
+        while (active) {
+            try {
+                Thread.sleep(periodMillis);
+            } catch (InterruptedException exc) {
+                continue;
+            }
+
+            sink.dump(registry.snapshot());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package de.lakoja.roverremote;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * All counters, gauges and histograms of the app by name. Registering takes a lock (do it once,
+ * like in field initializers); updating the metrics does not.
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final List<Counter> counters = new ArrayList<>();
+    private final List<Gauge> gauges = new ArrayList<>();
+    private final List<Histogram> histograms = new ArrayList<>();
+
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the counter with that name; it is created if necessary
+     */
+    public synchronized Counter counter(String name) {
+        for (Counter counter : counters) {
+            if (counter.getName().equals(name)) {
+                return counter;
+            }
+        }
+
+        Counter counter = new Counter(name);
+        counters.add(counter);
+        return counter;
+    }
+
+    public synchronized Gauge gauge(String name) {
+        for (Gauge gauge : gauges) {
+            if (gauge.getName().equals(name)) {
+                return gauge;
+            }
+        }
+
+        Gauge gauge = new Gauge(name);
+        gauges.add(gauge);
+        return gauge;
+    }
+
+    public synchronized Histogram histogram(String name) {
+        for (Histogram histogram : histograms) {
+            if (histogram.getName().equals(name)) {
+                return histogram;
+            }
+        }
+
+        Histogram histogram = new Histogram(name);
+        histograms.add(histogram);
+        return histogram;
+    }
+
+    /**
+     * Copies all current values; ratios computed from the copy are consistent with its values.
+     */
+    public synchronized MetricsSnapshot snapshot() {
+        MetricsSnapshot snapshot = new MetricsSnapshot(System.currentTimeMillis(), counters.size(), gauges.size(), histograms.size());
+
+        for (int i = 0; i < counters.size(); i++) {
+            snapshot.setCounter(i, counters.get(i).getName(), counters.get(i).get());
+        }
+        for (int i = 0; i < gauges.size(); i++) {
+            snapshot.setGauge(i, gauges.get(i).getName(), gauges.get(i).get());
+        }
+        for (int i = 0; i < histograms.size(); i++) {
+            snapshot.setHistogram(i, histograms.get(i));
+        }
+
+        return snapshot;
+    }
+}
@@ -0,0 +1,144 @@
+package de.lakoja.roverremote;
+
+/**
+ * The values of all metrics at one time.
+ */
+public class MetricsSnapshot {
+    private final long takenMillis;
+    private final String[] counterNames;
+    private final long[] counterValues;
+    private final String[] gaugeNames;
+    private final double[] gaugeValues;
+    private final String[] histogramNames;
+    private final long[] histogramCounts;
+    private final double[] histogramMeans;
+    private final long[] histogramMedians;
+    private final long[] histogramP90s;
+    private final long[] histogramP99s;
+    private final long[] histogramP999s;
+    private final long[] histogramMaxima;
+
+    MetricsSnapshot(long takenMillis, int counterCount, int gaugeCount, int histogramCount) {
+        this.takenMillis = takenMillis;
+        counterNames = new String[counterCount];
+        counterValues = new long[counterCount];
+        gaugeNames = new String[gaugeCount];
+        gaugeValues = new double[gaugeCount];
+        histogramNames = new String[histogramCount];
+        histogramCounts = new long[histogramCount];
+        histogramMeans = new double[histogramCount];
+        histogramMedians = new long[histogramCount];
+        histogramP90s = new long[histogramCount];
+        histogramP99s = new long[histogramCount];
+        histogramP999s = new long[histogramCount];
+        histogramMaxima = new long[histogramCount];
+    }
+
+    void setCounter(int index, String name, long value) {
+        counterNames[index] = name;
+        counterValues[index] = value;
+    }
+
+    void setGauge(int index, String name, double value) {
+        gaugeNames[index] = name;
+        gaugeValues[index] = value;
+    }
+
+    void setHistogram(int index, Histogram histogram) {
+        histogramNames[index] = histogram.getName();
+        histogramCounts[index] = histogram.getCount();
+        histogramMeans[index] = histogram.getMean();
+        histogramMedians[index] = histogram.getValueAtPercentile(50);
+        histogramP90s[index] = histogram.getValueAtPercentile(90);
+        histogramP99s[index] = histogram.getValueAtPercentile(99);
+        histogramP999s[index] = histogram.getValueAtPercentile(99.9);
+        histogramMaxima[index] = histogram.getMax();
+    }
+
+    public long getTakenMillis() {
+        return takenMillis;
+    }
+
+    /**
+     * @return the value or 0 if there is no such counter
+     */
+    public long getCounter(String name) {
+        for (int i = 0; i < counterNames.length; i++) {
+            if (counterNames[i].equals(name)) {
+                return counterValues[i];
+            }
+        }
+        return 0;
+    }
+
+    public double getGauge(String name) {
+        for (int i = 0; i < gaugeNames.length; i++) {
+            if (gaugeNames[i].equals(name)) {
+                return gaugeValues[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return counter / other counter or 0 if the other is 0
+     */
+    public double getRatio(String counter, String otherCounter) {
+        long other = getCounter(otherCounter);
+        return other == 0 ? 0 : getCounter(counter) / (double)other;
+    }
+
+    /**
+     * @param percentile one of 50, 90, 99, 99.9
+     * @return the value or 0 if there is no such histogram
+     */
+    public long getPercentile(String histogram, double percentile) {
+        for (int i = 0; i < histogramNames.length; i++) {
+            if (histogramNames[i].equals(histogram)) {
+                if (percentile <= 50) {
+                    return histogramMedians[i];
+                } else if (percentile <= 90) {
+                    return histogramP90s[i];
+                } else if (percentile <= 99) {
+                    return histogramP99s[i];
+                }
+                return histogramP999s[i];
+            }
+        }
+        return 0;
+    }
+
+    public long getHistogramCount(String histogram) {
+        for (int i = 0; i < histogramNames.length; i++) {
+            if (histogramNames[i].equals(histogram)) {
+                return histogramCounts[i];
+            }
+        }
+        return 0;
+    }
+
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Metrics");
+        for (int i = 0; i < counterNames.length; i++) {
+            builder.append("\n ").append(counterNames[i]).append(' ').append(counterValues[i]);
+        }
+        for (int i = 0; i < gaugeNames.length; i++) {
+            builder.append("\n ").append(gaugeNames[i]).append(' ').append(Math.round(gaugeValues[i] * 100) / 100.0);
+        }
+        for (int i = 0; i < histogramNames.length; i++) {
+            // Nanos are shown as micros
+            long divisor = histogramNames[i].endsWith(".ns") ? 1000 : 1;
+            builder.append("\n ").append(histogramNames[i]).append(" n ").append(histogramCounts[i])
+                    .append(" mean ").append(Math.round(histogramMeans[i] / divisor))
+                    .append(" p50 ").append(histogramMedians[i] / divisor)
+                    .append(" p90 ").append(histogramP90s[i] / divisor)
+                    .append(" p99 ").append(histogramP99s[i] / divisor)
+                    .append(" p99.9 ").append(histogramP999s[i] / divisor)
+                    .append(" max ").append(histogramMaxima[i] / divisor);
+            if (divisor != 1) {
+                builder.append(" us");
+            }
+        }
+        return builder.toString();
+    }
+}
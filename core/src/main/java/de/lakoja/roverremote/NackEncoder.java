@@ -0,0 +1,206 @@
+package de.lakoja.roverremote;
+
+/**
+ * Compact rerequest ("MR") packets covering several frames in one packet.
+ *
+ * Layout: "MR" + frame count (byte) and per frame
+ * timestamp (int) + total packets (short) + encoding (byte) + missing packets.
+ * The missing packets are either a range list (range count (byte) + per range start (short) and length (short))
+ * or a bitmap with one bit per packet of the frame (set = missing); whatever is shorter.
+ *
+ * The packet is encoded into a reused buffer.
+ */
+public class NackEncoder {
+    public static final String COMPACT_REREQUEST_PACKET_HEADER = "MR";
+    public static final int ENCODING_RANGES = 0;
+    public static final int ENCODING_BITMAP = 1;
+
+    private static final int FRAME_HEADER_LENGTH = 4 + 2 + 1;
+    private static final int MAX_RANGES = 255;
+
+    public interface MissingPacketListener {
+        void packetMissing(int timestamp, int packetNumber);
+    }
+
+    private final byte[] buffer;
+    private int length;
+    private int frameCount;
+
+    public NackEncoder(int maximumLength) {
+        buffer = new byte[maximumLength];
+        begin();
+    }
+
+    public void begin() {
+        buffer[0] = (byte)COMPACT_REREQUEST_PACKET_HEADER.charAt(0);
+        buffer[1] = (byte)COMPACT_REREQUEST_PACKET_HEADER.charAt(1);
+        buffer[2] = 0;
+        length = 3;
+        frameCount = 0;
+    }
+
+    /**
+     * @return false if the frame does not fit into the packet any more (the packet is unchanged then)
+     */
+    public boolean addFrame(UdpDataHolder dataHolder) {
+        int total = dataHolder.getMaximumPacketCount();
+        if (total == 0 || frameCount >= 255) {
+            return false;
+        }
+
+        int ranges = 0;
+        boolean inRange = false;
+        for (int i = 0; i < total; i++) {
+            boolean missing = !dataHolder.isPacketReceived(i);
+            if (missing && !inRange) {
+                ranges++;
+            }
+            inRange = missing;
+        }
+
+        if (ranges == 0) {
+            return false;
+        }
+
+        int rangesLength = 1 + ranges * 4;
+        int bitmapLength = (total + 7) / 8;
+        boolean useRanges = ranges <= MAX_RANGES && rangesLength <= bitmapLength;
+        int frameLength = FRAME_HEADER_LENGTH + (useRanges ? rangesLength : bitmapLength);
+
+        if (length + frameLength > buffer.length) {
+            return false;
+        }
+
+        int pos = length;
+        writeInt(dataHolder.getTimestamp(), pos);
+        writeShort(total, pos + 4);
+        pos += 6;
+
+        if (useRanges) {
+            buffer[pos++] = ENCODING_RANGES;
+            buffer[pos++] = (byte)ranges;
+
+            int rangeStart = -1;
+            for (int i = 0; i <= total; i++) {
+                boolean missing = i < total && !dataHolder.isPacketReceived(i);
+                if (missing && rangeStart == -1) {
+                    rangeStart = i;
+                } else if (!missing && rangeStart != -1) {
+                    writeShort(rangeStart, pos);
+                    writeShort(i - rangeStart, pos + 2);
+                    pos += 4;
+                    rangeStart = -1;
+                }
+            }
+        } else {
+            buffer[pos++] = ENCODING_BITMAP;
+
+            for (int b = 0; b < bitmapLength; b++) {
+                buffer[pos + b] = 0;
+            }
+            for (int i = 0; i < total; i++) {
+                if (!dataHolder.isPacketReceived(i)) {
+                    buffer[pos + (i >> 3)] |= 1 << (i & 7);
+                }
+            }
+            pos += bitmapLength;
+        }
+
+        length = pos;
+        frameCount++;
+        buffer[2] = (byte)frameCount;
+
+        return true;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Decodes a compact rerequest packet (the rover side).
+     *
+     * @return the number of frames found or -1 for a malformed packet
+     */
+    public static int decode(byte[] data, int offset, int length, MissingPacketListener listener) {
+        int end = offset + length;
+        if (length < 3 || data[offset] != 'M' || data[offset + 1] != 'R') {
+            return -1;
+        }
+
+        int frames = data[offset + 2] & 0xff;
+        int pos = offset + 3;
+
+        for (int f = 0; f < frames; f++) {
+            if (pos + FRAME_HEADER_LENGTH > end) {
+                return -1;
+            }
+
+            int timestamp = readInt(data, pos);
+            int total = readShort(data, pos + 4);
+            int encoding = data[pos + 6];
+            pos += FRAME_HEADER_LENGTH;
+
+            if (encoding == ENCODING_RANGES) {
+                if (pos >= end) {
+                    return -1;
+                }
+                int ranges = data[pos++] & 0xff;
+                if (pos + ranges * 4 > end) {
+                    return -1;
+                }
+                for (int r = 0; r < ranges; r++) {
+                    int start = readShort(data, pos);
+                    int count = readShort(data, pos + 2);
+                    pos += 4;
+                    for (int i = start; i < start + count && i < total; i++) {
+                        listener.packetMissing(timestamp, i);
+                    }
+                }
+            } else if (encoding == ENCODING_BITMAP) {
+                int bitmapLength = (total + 7) / 8;
+                if (pos + bitmapLength > end) {
+                    return -1;
+                }
+                for (int i = 0; i < total; i++) {
+                    if ((data[pos + (i >> 3)] & (1 << (i & 7))) != 0) {
+                        listener.packetMissing(timestamp, i);
+                    }
+                }
+                pos += bitmapLength;
+            } else {
+                return -1;
+            }
+        }
+
+        return frames;
+    }
+
+    private void writeShort(int value, int offset) {
+        buffer[offset] = (byte)(value >> 8);
+        buffer[offset + 1] = (byte)value;
+    }
+
+    private void writeInt(int value, int offset) {
+        buffer[offset] = (byte)(value >> 24);
+        buffer[offset + 1] = (byte)(value >> 16);
+        buffer[offset + 2] = (byte)(value >> 8);
+        buffer[offset + 3] = (byte)value;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return (data[offset] << 8) & 0xff00 | data[offset + 1] & 0xff;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] << 24) & 0xff000000 | (data[offset + 1] << 16) & 0xff0000 | (data[offset + 2] << 8) & 0xff00 | data[offset + 3] & 0xff;
+    }
+}
@@ -0,0 +1,13 @@
+package de.lakoja.roverremote;
+
+/**
+ * Sees every datagram of a UDP connection (on the network thread; must not block).
+ */
+public interface PacketTap {
+    /**
+     * @param incoming true for received packets, false for sent ones
+     * @param nanos time of receiving or sending
+     * @param data only valid during the call
+     */
+    void packet(boolean incoming, long nanos, byte[] data, int offset, int length);
+}
@@ -0,0 +1,27 @@
+package de.lakoja.roverremote;
+
+/**
+ * Maps joystick values -1..1 to rover command values 0..1000 (500 is neutral).
+ *
+ * Slightly curves the value: lower values raise slower (|x|^1.5).
+ * Found/tested on https://rechneronline.de/funktionsgraphen/
+ * The curve is precomputed; so no Math.pow on the control path.
+ */
+public class ResponseCurve {
+    private static final int STEPS = 1000;
+    private static final float EXPONENT = 1.5f;
+
+    private final int[] table = new int[STEPS + 1];
+
+    public ResponseCurve() {
+        for (int i = 0; i <= STEPS; i++) {
+            table[i] = Math.round((float)Math.pow(i / (float)STEPS, EXPONENT) * 500);
+        }
+    }
+
+    public int toCommandValue(float x) {
+        int index = Math.round(Math.min(1, Math.abs(x)) * STEPS);
+
+        return x < 0 ? 500 - table[index] : 500 + table[index];
+    }
+}
@@ -0,0 +1,153 @@
+package de.lakoja.roverremote;
+
+/**
+ * Decides per frame whether rerequesting its missing packets is worth it or whether it is
+ * better to wait for the next frame.
+ *
+ * A repair is only requested if the missing packets are expected to arrive (one round trip
+ * plus their transfer time at the current throughput) before the next frame would be complete anyway.
+ */
+public class RetransmissionPolicy {
+    private static final float DEFAULT_RTT_MILLIS = 30;
+    private static final float DEFAULT_FRAME_INTERVAL_MILLIS = 100;
+    private static final float DEFAULT_KBPS = 300;
+    // Weight of a new sample in the moving averages
+    private static final float SMOOTHING = 0.125f;
+    // Never repair frames which lack more than this share of their packets
+    private static final float MAX_MISSING_SHARE = 0.5f;
+    // A repair must be at least this much faster than waiting for the next frame
+    private static final float REPAIR_ADVANTAGE = 0.8f;
+
+    private final int packetDataLength;
+
+    private float rttMillis = DEFAULT_RTT_MILLIS;
+    private float frameIntervalMillis = DEFAULT_FRAME_INTERVAL_MILLIS;
+    private long lastFrameStartMillis = 0;
+
+    private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private final Counter repairsRequested = metrics.counter("repairs.requested");
+    private final Counter packetsRerequested = metrics.counter("repairs.packets");
+    private final Counter framesDiscarded = metrics.counter("repairs.notWorthIt");
+    private final Counter repairsSucceeded = metrics.counter("repairs.succeeded");
+    private final Counter repairsFailed = metrics.counter("repairs.failed");
+    private final Gauge rttGauge = metrics.gauge("repairs.rtt.ms");
+    private final Gauge frameIntervalGauge = metrics.gauge("frames.interval.ms");
+
+    public RetransmissionPolicy(int packetDataLength) {
+        this.packetDataLength = packetDataLength;
+    }
+
+    public void frameStarted(long nowMillis) {
+        if (lastFrameStartMillis > 0) {
+            long interval = nowMillis - lastFrameStartMillis;
+            // Ignore pauses of the stream (like a server reset)
+            if (interval > 0 && interval < 2000) {
+                frameIntervalMillis += SMOOTHING * (interval - frameIntervalMillis);
+                frameIntervalGauge.set(frameIntervalMillis);
+            }
+        }
+
+        lastFrameStartMillis = nowMillis;
+    }
+
+    public void addRoundTripSample(long rttSampleMillis) {
+        if (rttSampleMillis >= 0 && rttSampleMillis < 2000) {
+            rttMillis += SMOOTHING * (rttSampleMillis - rttMillis);
+            rttGauge.set(rttMillis);
+        }
+    }
+
+    /**
+     * @param missingPackets number of packets that would have to be rerequested
+     * @param totalPackets number of packets of the whole frame
+     * @param kbps currently measured throughput; 0 if unknown
+     * @param newerFrameStarted whether the frame replacing this one is already arriving (see frameStarted())
+     * @return true if the missing packets should be rerequested
+     */
+    public boolean shouldRepair(int missingPackets, int totalPackets, float kbps, boolean newerFrameStarted, long nowMillis) {
+        boolean repair = decide(missingPackets, totalPackets, kbps, newerFrameStarted, nowMillis);
+
+        if (repair) {
+            repairsRequested.increment();
+            packetsRerequested.add(missingPackets);
+        } else {
+            framesDiscarded.increment();
+        }
+
+        return repair;
+    }
+
+    private boolean decide(int missingPackets, int totalPackets, float kbps, boolean newerFrameStarted, long nowMillis) {
+        if (missingPackets <= 0 || totalPackets <= 0) {
+            return false;
+        }
+
+        if (missingPackets > totalPackets * MAX_MISSING_SHARE) {
+            return false;
+        }
+
+        float bytesPerMilli = (kbps > 0 ? kbps : DEFAULT_KBPS) * 1024 / 1000.0f;
+
+        float repairMillis = rttMillis + (missingPackets * packetDataLength) / bytesPerMilli;
+
+        // The next frame (assumed to be of the same size) needs its transfer time
+        float transferMillis = (totalPackets * packetDataLength) / bytesPerMilli;
+        float nextFrameMillis;
+        if (newerFrameStarted && lastFrameStartMillis > 0) {
+            // It is already arriving since the last frame start; only the rest of it counts
+            nextFrameMillis = Math.max(0, transferMillis - (nowMillis - lastFrameStartMillis));
+        } else {
+            // It starts about one frame interval after the newest one
+            float untilNextStart = lastFrameStartMillis > 0
+                    ? Math.max(0, lastFrameStartMillis + frameIntervalMillis - nowMillis)
+                    : frameIntervalMillis;
+            nextFrameMillis = untilNextStart + transferMillis;
+        }
+
+        return repairMillis < nextFrameMillis * REPAIR_ADVANTAGE;
+    }
+
+    public void repairSucceeded() {
+        repairsSucceeded.increment();
+    }
+
+    public void repairFailed() {
+        repairsFailed.increment();
+    }
+
+    public float getRttMillis() {
+        return rttMillis;
+    }
+
+    public float getFrameIntervalMillis() {
+        return frameIntervalMillis;
+    }
+
+    public int getRepairsRequested() {
+        return (int)repairsRequested.get();
+    }
+
+    public int getPacketsRerequested() {
+        return (int)packetsRerequested.get();
+    }
+
+    public int getFramesDiscarded() {
+        return (int)framesDiscarded.get();
+    }
+
+    public int getRepairsSucceeded() {
+        return (int)repairsSucceeded.get();
+    }
+
+    public int getRepairsFailed() {
+        return (int)repairsFailed.get();
+    }
+
+    public void resetStatistics() {
+        repairsRequested.reset();
+        packetsRerequested.reset();
+        framesDiscarded.reset();
+        repairsSucceeded.reset();
+        repairsFailed.reset();
+    }
+}
@@ -0,0 +1,54 @@
+package de.lakoja.roverremote;
+
+/**
+ * Logging of the core classes without depending on Android. The levels have the values of
+ * android.util.Log; the app routes everything to logcat, on a plain JVM it goes to System.err.
+ */
+public class RoverLog {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int ASSERT = 7;
+
+    public interface Backend {
+        void println(int level, String tag, String message);
+    }
+
+    public static final Backend STDERR_BACKEND = new Backend() {
+        private final char[] levelChars = "??VDIWEA".toCharArray();
+
+        @Override
+        public void println(int level, String tag, String message) {
+            char levelChar = level >= 0 && level < levelChars.length ? levelChars[level] : '?';
+            System.err.println(levelChar + "/" + tag + ": " + message);
+        }
+    };
+
+    private static volatile Backend backend = STDERR_BACKEND;
+
+    public static void setBackend(Backend newBackend) {
+        backend = newBackend;
+    }
+
+    public static void println(int level, String tag, String message) {
+        backend.println(level, tag, message);
+    }
+
+    public static void d(String tag, String message) {
+        backend.println(DEBUG, tag, message);
+    }
+
+    public static void i(String tag, String message) {
+        backend.println(INFO, tag, message);
+    }
+
+    public static void w(String tag, String message) {
+        backend.println(WARN, tag, message);
+    }
+
+    public static void e(String tag, String message) {
+        backend.println(ERROR, tag, message);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2018 Lakoja on github.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.lakoja.roverremote;
+
+/**
+ * The latest known rover state. Connections reuse one instance per connection (updated in place when telemetry arrives);
+ * so listeners must copy what they want to keep.
+ */
+public class RoverStatus {
+    private boolean led1On = false;
+    private boolean led2On = false;
+    private boolean irLedOn = false;
+    private float voltage = 4.3f;
+
+    // Only filled by binary telemetry
+    private int version = 0;
+    private int sequence = 0;
+    private long roverMillis = 0;
+    private int framesSent = 0;
+    private int packetsSent = 0;
+    private int packetsResent = 0;
+    private int roverRssi = 0;
+    private long receivedMillis = 0;
+
+    public RoverStatus() {
+    }
+
+    public RoverStatus(boolean led1On, boolean led2On, boolean irLedOn, float voltage) {
+        this.led1On = led1On;
+        this.led2On = led2On;
+        this.irLedOn = irLedOn;
+        this.voltage = voltage;
+    }
+
+    void setLeds(boolean led1On, boolean led2On, boolean irLedOn) {
+        this.led1On = led1On;
+        this.led2On = led2On;
+        this.irLedOn = irLedOn;
+    }
+
+    void setVoltage(float voltage) {
+        this.voltage = voltage;
+    }
+
+    void setTelemetry(int version, int sequence, long roverMillis, int framesSent, int packetsSent, int packetsResent, int roverRssi) {
+        this.version = version;
+        this.sequence = sequence;
+        this.roverMillis = roverMillis;
+        this.framesSent = framesSent;
+        this.packetsSent = packetsSent;
+        this.packetsResent = packetsResent;
+        this.roverRssi = roverRssi;
+    }
+
+    void setReceivedMillis(long receivedMillis) {
+        this.receivedMillis = receivedMillis;
+    }
+
+    public boolean isLed1On() {
+        return led1On;
+    }
+
+    public boolean isLed2On() {
+        return led2On;
+    }
+
+    public boolean isIrLedOn() {
+        return irLedOn;
+    }
+
+    public float getVoltage() {
+        return voltage;
+    }
+
+    /**
+     * @return version of the binary telemetry; 0 if only the text status was received
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public long getRoverMillis() {
+        return roverMillis;
+    }
+
+    public int getFramesSent() {
+        return framesSent;
+    }
+
+    public int getPacketsSent() {
+        return packetsSent;
+    }
+
+    public int getPacketsResent() {
+        return packetsResent;
+    }
+
+    /**
+     * @return the signal strength (dBm) the rover sees; 0 if unknown
+     */
+    public int getRoverRssi() {
+        return roverRssi;
+    }
+
+    public long getReceivedMillis() {
+        return receivedMillis;
+    }
+}
@@ -2,5 +2,8 @@ package de.lakoja.roverremote;
 
 public interface StatusListener {
     void informConnectionStatus(int returnCode, String requested, String message);
+    /**
+     * @param currentStatus is reused by the connection; copy what should be kept
+     */
     void informRoverStatus(RoverStatus currentStatus);
 }
@@ -0,0 +1,70 @@
+package de.lakoja.roverremote;
+
+/**
+ * The recent history of the values otherwise only shown instantaneously: voltage, signal level,
+ * throughput and packet loss. Kept at 1s (10 minutes), 10s (2 hours) and 1min (24 hours) resolution.
+ */
+public class TelemetryHistory {
+    private static final long[] BUCKET_MILLIS = { 1000, 10000, 60000 };
+    private static final int[] CAPACITIES = { 600, 720, 1440 };
+
+    private final TimeSeries voltage = new TimeSeries("voltage", BUCKET_MILLIS, CAPACITIES);
+    private final TimeSeries signalLevel = new TimeSeries("signal", BUCKET_MILLIS, CAPACITIES);
+    private final TimeSeries kbps = new TimeSeries("kbps", BUCKET_MILLIS, CAPACITIES);
+    private final TimeSeries packetLoss = new TimeSeries("loss", BUCKET_MILLIS, CAPACITIES);
+
+    private long lastReceivedPackets = 0;
+    private long lastExpectedPackets = 0;
+
+    public void addVoltage(long timeMillis, float volt) {
+        voltage.add(timeMillis, volt);
+    }
+
+    /**
+     * @param level 0..100 (see WifiManager.calculateSignalLevel())
+     */
+    public void addSignalLevel(long timeMillis, int level) {
+        signalLevel.add(timeMillis, level);
+    }
+
+    public void addKbps(long timeMillis, float value) {
+        kbps.add(timeMillis, value);
+    }
+
+    /**
+     * Adds the loss (0..1) since the last call from the running packet counters.
+     */
+    public synchronized void addPacketCounts(long timeMillis, long receivedPackets, long expectedPackets) {
+        if (receivedPackets < lastReceivedPackets || expectedPackets < lastExpectedPackets) {
+            // Counters restarted (new connection)
+            lastReceivedPackets = 0;
+            lastExpectedPackets = 0;
+        }
+
+        long received = receivedPackets - lastReceivedPackets;
+        long expected = expectedPackets - lastExpectedPackets;
+        lastReceivedPackets = receivedPackets;
+        lastExpectedPackets = expectedPackets;
+
+        if (expected > 0) {
+            // Repaired packets may be counted more than once
+            packetLoss.add(timeMillis, Math.max(0, 1 - received / (float)expected));
+        }
+    }
+
+    public TimeSeries getVoltage() {
+        return voltage;
+    }
+
+    public TimeSeries getSignalLevel() {
+        return signalLevel;
+    }
+
+    public TimeSeries getKbps() {
+        return kbps;
+    }
+
+    public TimeSeries getPacketLoss() {
+        return packetLoss;
+    }
+}
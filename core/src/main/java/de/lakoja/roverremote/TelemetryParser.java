@@ -0,0 +1,161 @@
+package de.lakoja.roverremote;
+
+/**
+ * Parses rover status replies into a (reused) RoverStatus; without creating objects.
+ *
+ * Binary telemetry frame (big endian), version 1:
+ * "TM" + version (byte) + led flags (byte; bit 0 led1, bit 1 led2, bit 2 ir led) + voltage in millivolts (short)
+ * + rover millis (int) + sequence (short) + frames sent (int) + packets sent (int) + packets resent (short)
+ * + rover rssi in dBm (signed byte).
+ * Later versions may only append fields.
+ *
+ * The old text reply is "VOLT 4.12".
+ */
+public class TelemetryParser {
+    public static final String TELEMETRY_PACKET_HEADER = "TM";
+    public static final int VERSION = 1;
+    public static final int V1_LENGTH = 23;
+
+    // Layout of version 1 (offsets from the start of the frame); also for the simulator writing it
+    public static final int VERSION_OFFSET = 2;
+    public static final int FLAGS_OFFSET = 3;
+    public static final int VOLTAGE_OFFSET = 4;
+    public static final int MILLIS_OFFSET = 6;
+    public static final int SEQUENCE_OFFSET = 10;
+    public static final int FRAMES_SENT_OFFSET = 12;
+    public static final int PACKETS_SENT_OFFSET = 16;
+    public static final int PACKETS_RESENT_OFFSET = 20;
+    public static final int RSSI_OFFSET = 22;
+
+    public static final int LED1_FLAG = 1;
+    public static final int LED2_FLAG = 2;
+    public static final int IR_LED_FLAG = 4;
+
+    /**
+     * @return false for a malformed or unknown frame (status is unchanged then)
+     */
+    public boolean parseBinary(byte[] data, int offset, int length, RoverStatus status, long nowMillis) {
+        if (length < V1_LENGTH || data[offset] != 'T' || data[offset + 1] != 'M') {
+            return false;
+        }
+
+        int version = data[offset + VERSION_OFFSET] & 0xff;
+        if (version < 1) {
+            return false;
+        }
+
+        int flags = data[offset + FLAGS_OFFSET] & 0xff;
+        status.setLeds((flags & LED1_FLAG) != 0, (flags & LED2_FLAG) != 0, (flags & IR_LED_FLAG) != 0);
+        status.setVoltage(readShort(data, offset + VOLTAGE_OFFSET) / 1000.0f);
+        status.setTelemetry(
+                version,
+                readShort(data, offset + SEQUENCE_OFFSET),
+                readInt(data, offset + MILLIS_OFFSET) & 0xffffffffL,
+                readInt(data, offset + FRAMES_SENT_OFFSET),
+                readInt(data, offset + PACKETS_SENT_OFFSET),
+                readShort(data, offset + PACKETS_RESENT_OFFSET),
+                data[offset + RSSI_OFFSET]);
+        status.setReceivedMillis(nowMillis);
+
+        return true;
+    }
+
+    /**
+     * Parses "WORD 4.12" (the word is not checked).
+     *
+     * @return false for a malformed reply (status is unchanged then)
+     */
+    public boolean parseText(byte[] data, int offset, int length, RoverStatus status, long nowMillis) {
+        int end = offset + length;
+        int pos = offset;
+        while (pos < end && data[pos] != ' ') {
+            pos++;
+        }
+        while (pos < end && data[pos] == ' ') {
+            pos++;
+        }
+
+        if (pos == end) {
+            return false;
+        }
+
+        int numberEnd = pos;
+        while (numberEnd < end && data[numberEnd] != ' ' && data[numberEnd] != '\r' && data[numberEnd] != '\n') {
+            numberEnd++;
+        }
+
+        float voltage = parseDecimal(data, pos, numberEnd);
+        if (Float.isNaN(voltage)) {
+            return false;
+        }
+
+        status.setVoltage(voltage);
+        status.setReceivedMillis(nowMillis);
+
+        return true;
+    }
+
+    public boolean parseText(String reply, RoverStatus status, long nowMillis) {
+        byte[] data = new byte[reply.length()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)reply.charAt(i);
+        }
+
+        return parseText(data, 0, data.length, status, nowMillis);
+    }
+
+    /**
+     * @return NaN if this is not a plain decimal number
+     */
+    private static float parseDecimal(byte[] data, int start, int end) {
+        boolean negative = false;
+        int pos = start;
+        if (pos < end && data[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+
+        long digits = 0;
+        int fractionDigits = 0;
+        boolean inFraction = false;
+        boolean anyDigit = false;
+
+        for (; pos < end; pos++) {
+            byte c = data[pos];
+            if (c == '.' && !inFraction) {
+                inFraction = true;
+            } else if (c >= '0' && c <= '9') {
+                if (digits >= 100000000L) {
+                    // More precision than a float has anyway
+                    return Float.NaN;
+                }
+                digits = digits * 10 + (c - '0');
+                if (inFraction) {
+                    fractionDigits++;
+                }
+                anyDigit = true;
+            } else {
+                return Float.NaN;
+            }
+        }
+
+        if (!anyDigit) {
+            return Float.NaN;
+        }
+
+        float value = digits;
+        for (int i = 0; i < fractionDigits; i++) {
+            value /= 10;
+        }
+
+        return negative ? -value : value;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return (data[offset] << 8) & 0xff00 | data[offset + 1] & 0xff;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] << 24) & 0xff000000 | (data[offset + 1] << 16) & 0xff0000 | (data[offset + 2] << 8) & 0xff00 | data[offset + 3] & 0xff;
+    }
+}
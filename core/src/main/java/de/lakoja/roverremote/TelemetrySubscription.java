@@ -0,0 +1,129 @@
+package de.lakoja.roverremote;
+
+/**
+ * Push telemetry instead of polling "status": the client sends "subscribe mask period lease"
+ * (both in millis); the rover then pushes telemetry frames ("TM") every period until the lease runs out.
+ * The client renews the subscription well before that and detects missed frames by their sequence numbers.
+ */
+public class TelemetrySubscription {
+    public static final int TELEMETRY_STATUS = 1; // voltage and leds
+    public static final int TELEMETRY_LINK = 2; // rover side statistics
+
+    private static final long DEFAULT_LEASE_MILLIS = 10000;
+    // Without a push for this many periods the subscription is considered lost (and renewed)
+    private static final int STALL_PERIODS = 3;
+
+    private final int mask;
+    private final long periodMillis;
+    private final long leaseMillis;
+
+    private long lastRenewMillis = 0;
+    private long lastReceivedMillis = 0;
+    private int lastSequence = -1;
+
+    private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private final Counter renewals = metrics.counter("telemetry.renewals");
+    private final Counter received = metrics.counter("telemetry.received");
+    private final Counter missed = metrics.counter("telemetry.missed");
+    private final Counter duplicates = metrics.counter("telemetry.duplicates");
+    private final Counter stalls = metrics.counter("telemetry.stalls");
+
+    public TelemetrySubscription(int mask, long periodMillis) {
+        this(mask, periodMillis, DEFAULT_LEASE_MILLIS);
+    }
+
+    public TelemetrySubscription(int mask, long periodMillis, long leaseMillis) {
+        if (periodMillis <= 0 || leaseMillis < 2 * periodMillis) {
+            throw new IllegalArgumentException("Lease must span at least two periods " + periodMillis + " vs " + leaseMillis);
+        }
+
+        this.mask = mask;
+        this.periodMillis = periodMillis;
+        this.leaseMillis = leaseMillis;
+    }
+
+    public String subscribeCommand() {
+        return "subscribe " + mask + " " + periodMillis + " " + leaseMillis;
+    }
+
+    public synchronized boolean needsRenewal(long nowMillis) {
+        if (lastRenewMillis == 0 || nowMillis - lastRenewMillis > leaseMillis / 2) {
+            return true;
+        }
+
+        // Pushes stopped (subscription or pushes lost); but do not flood the rover with renewals
+        return isStalled(nowMillis) && nowMillis - lastRenewMillis > STALL_PERIODS * periodMillis;
+    }
+
+    public synchronized void renewed(long nowMillis) {
+        if (lastRenewMillis > 0 && isStalled(nowMillis)) {
+            stalls.increment();
+        }
+
+        lastRenewMillis = nowMillis;
+        renewals.increment();
+    }
+
+    public synchronized void telemetryReceived(int sequence, long nowMillis) {
+        if (lastSequence != -1) {
+            int delta = (sequence - lastSequence) & 0xffff;
+
+            if (delta == 0) {
+                duplicates.increment();
+                return;
+            } else if (delta < 0x8000) {
+                missed.add(delta - 1);
+            } else {
+                // Older than the last one (reordered); was counted as missed before
+                missed.add(-1);
+                received.increment();
+                return;
+            }
+        }
+
+        lastSequence = sequence;
+        lastReceivedMillis = nowMillis;
+        received.increment();
+    }
+
+    /**
+     * @return true if pushes arrive as expected
+     */
+    public synchronized boolean isFresh(long nowMillis) {
+        return lastReceivedMillis > 0 && !isStalled(nowMillis);
+    }
+
+    private boolean isStalled(long nowMillis) {
+        long since = lastReceivedMillis > 0 ? lastReceivedMillis : lastRenewMillis;
+        return nowMillis - since > STALL_PERIODS * periodMillis;
+    }
+
+    public long getPeriodMillis() {
+        return periodMillis;
+    }
+
+    public int getReceived() {
+        return (int)received.get();
+    }
+
+    public int getMissed() {
+        return (int)missed.get();
+    }
+
+    public int getDuplicates() {
+        return (int)duplicates.get();
+    }
+
+    public int getRenewals() {
+        return (int)renewals.get();
+    }
+
+    public int getStalls() {
+        return (int)stalls.get();
+    }
+
+    public String toString() {
+        return "Telemetry pushes received/missed/duplicate " + getReceived() + "/" + getMissed() + "/" + getDuplicates()
+                + " renewals " + getRenewals() + " stalls " + getStalls();
+    }
+}
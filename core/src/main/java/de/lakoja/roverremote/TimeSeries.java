@@ -0,0 +1,182 @@
+package de.lakoja.roverremote;
+
+/**
+ * A bounded series of float samples kept at several resolutions (like 1s, 10s, 1min buckets).
+ *
+ * Every resolution is a ring of buckets with min, max and average; old buckets are overwritten.
+ * Adding and querying do not allocate (no boxing); samples may come from any thread.
+ */
+public class TimeSeries {
+    /**
+     * Query result; reused by the caller. Holds at most its capacity of buckets (oldest first).
+     */
+    public static class Window {
+        public final long[] startMillis;
+        public final float[] min;
+        public final float[] max;
+        public final float[] avg;
+        public int size;
+        public long bucketMillis;
+
+        public Window(int capacity) {
+            startMillis = new long[capacity];
+            min = new float[capacity];
+            max = new float[capacity];
+            avg = new float[capacity];
+        }
+
+        public int capacity() {
+            return startMillis.length;
+        }
+    }
+
+    private static class Resolution {
+        final long bucketMillis;
+        final long[] startMillis;
+        final float[] min;
+        final float[] max;
+        final double[] sum;
+        final int[] count;
+        int newest = -1;
+        int size = 0;
+
+        Resolution(long bucketMillis, int capacity) {
+            this.bucketMillis = bucketMillis;
+            startMillis = new long[capacity];
+            min = new float[capacity];
+            max = new float[capacity];
+            sum = new double[capacity];
+            count = new int[capacity];
+        }
+
+        void add(long timeMillis, float value) {
+            long start = timeMillis - timeMillis % bucketMillis;
+
+            if (size == 0 || start > startMillis[newest]) {
+                newest = (newest + 1) % startMillis.length;
+                if (size < startMillis.length) {
+                    size++;
+                }
+
+                startMillis[newest] = start;
+                min[newest] = value;
+                max[newest] = value;
+                sum[newest] = value;
+                count[newest] = 1;
+            } else {
+                // Also a (slightly) late sample is counted into the newest bucket
+                if (value < min[newest]) {
+                    min[newest] = value;
+                }
+                if (value > max[newest]) {
+                    max[newest] = value;
+                }
+                sum[newest] += value;
+                count[newest]++;
+            }
+        }
+
+        long oldestStartMillis() {
+            return startMillis[(newest - size + 1 + startMillis.length) % startMillis.length];
+        }
+    }
+
+    private final String name;
+    private final Resolution[] resolutions;
+    private float lastValue = Float.NaN;
+    private long lastMillis = 0;
+
+    /**
+     * @param bucketMillis the bucket lengths of the resolutions; finest first
+     * @param capacities number of buckets kept per resolution
+     */
+    public TimeSeries(String name, long[] bucketMillis, int[] capacities) {
+        if (bucketMillis.length == 0 || bucketMillis.length != capacities.length) {
+            throw new IllegalArgumentException("Need one capacity per resolution");
+        }
+
+        this.name = name;
+        resolutions = new Resolution[bucketMillis.length];
+        for (int i = 0; i < bucketMillis.length; i++) {
+            if (i > 0 && bucketMillis[i] <= bucketMillis[i - 1]) {
+                throw new IllegalArgumentException("Resolutions must get coarser " + bucketMillis[i]);
+            }
+            resolutions[i] = new Resolution(bucketMillis[i], capacities[i]);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized void add(long timeMillis, float value) {
+        if (Float.isNaN(value)) {
+            return;
+        }
+
+        for (Resolution resolution : resolutions) {
+            resolution.add(timeMillis, value);
+        }
+
+        lastValue = value;
+        lastMillis = timeMillis;
+    }
+
+    public synchronized float getLastValue() {
+        return lastValue;
+    }
+
+    public synchronized long getLastMillis() {
+        return lastMillis;
+    }
+
+    /**
+     * Fills the window with the buckets from (including) to (excluding). Uses the finest resolution
+     * which still reaches back far enough and whose buckets fit into the window.
+     *
+     * @return the number of buckets
+     */
+    public synchronized int query(long fromMillis, long toMillis, Window window) {
+        Resolution chosen = null;
+        for (Resolution resolution : resolutions) {
+            chosen = resolution;
+
+            boolean fits = (toMillis - fromMillis) / resolution.bucketMillis <= window.capacity();
+            // A ring not yet full has everything there is
+            boolean reaches = resolution.size < resolution.startMillis.length || resolution.oldestStartMillis() <= fromMillis;
+            if (fits && reaches) {
+                break;
+            }
+        }
+
+        window.size = 0;
+        window.bucketMillis = chosen.bucketMillis;
+
+        int capacity = chosen.startMillis.length;
+        for (int i = 0; i < chosen.size; i++) {
+            int slot = (chosen.newest - chosen.size + 1 + i + capacity) % capacity;
+            long start = chosen.startMillis[slot];
+
+            if (start + chosen.bucketMillis <= fromMillis || start >= toMillis) {
+                continue;
+            }
+
+            if (window.size == window.capacity()) {
+                // Too many; keep the newest ones
+                System.arraycopy(window.startMillis, 1, window.startMillis, 0, window.size - 1);
+                System.arraycopy(window.min, 1, window.min, 0, window.size - 1);
+                System.arraycopy(window.max, 1, window.max, 0, window.size - 1);
+                System.arraycopy(window.avg, 1, window.avg, 0, window.size - 1);
+                window.size--;
+            }
+
+            window.startMillis[window.size] = start;
+            window.min[window.size] = chosen.min[slot];
+            window.max[window.size] = chosen.max[slot];
+            window.avg[window.size] = (float)(chosen.sum[slot] / chosen.count[slot]);
+            window.size++;
+        }
+
+        return window.size;
+    }
+}
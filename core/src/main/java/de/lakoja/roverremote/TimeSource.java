@@ -0,0 +1,23 @@
+package de.lakoja.roverremote;
+
+/**
+ * Where the receive state machine takes its time from: the system clock or - for replaying a
+ * capture - a virtual one.
+ */
+public interface TimeSource {
+    TimeSource SYSTEM = new TimeSource() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    long currentTimeMillis();
+
+    long nanoTime();
+}
@@ -0,0 +1,125 @@
+package de.lakoja.roverremote;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes every datagram of a UDP connection (both directions, raw) with its nano time to a file;
+ * UdpReplay feeds such a capture back into the receive state machine.
+ *
+ * File: header (magic int, version short, reserved short, wall clock millis at nanos 0 long) followed
+ * by records of direction (byte, 1 is incoming), nanos since the start (long), length (short) and the
+ * datagram bytes. All numbers are big endian.
+ *
+ * Like the session recorder the network thread only copies the packet into a bounded queue; a writer
+ * thread does the disk work and packets are dropped (counted) if it does not keep up.
+ */
+public class UdpCapture extends Thread implements PacketTap {
+    private static final String TAG = UdpCapture.class.getName();
+    public static final int MAGIC = 0x52525543; // "RRUC"
+    public static final short VERSION = 1;
+    public static final String FILE_NAME = "udp.cap";
+    private static final int QUEUE_CAPACITY = 512;
+
+    private static class Record {
+        final boolean incoming;
+        final long nanos;
+        final byte[] data;
+
+        Record(boolean incoming, long nanos, byte[] data) {
+            this.incoming = incoming;
+            this.nanos = nanos;
+            this.data = data;
+        }
+    }
+
+    private final File file;
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final long startMillis;
+    private final long startNanos;
+    private volatile boolean active = true;
+
+    private final Counter packetsCaptured = MetricsRegistry.getDefault().counter("capture.packets");
+    private final Counter packetsDropped = MetricsRegistry.getDefault().counter("capture.dropped");
+
+    public UdpCapture(File file) {
+        super("UdpCapture");
+        this.file = file;
+        startMillis = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+    }
+
+    public void stopActive() {
+        active = false;
+    }
+
+    @Override
+    public void packet(boolean incoming, long nanos, byte[] data, int offset, int length) {
+        if (!active) {
+            return;
+        }
+
+        byte[] copy = new byte[length];
+        System.arraycopy(data, offset, copy, 0, length);
+        if (!queue.offer(new Record(incoming, nanos - startNanos, copy))) {
+            packetsDropped.increment();
+        }
+    }
+
+    @Override
+    public void run() {
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+            output.writeInt(MAGIC);
+            output.writeShort(VERSION);
+            output.writeShort(0);
+            output.writeLong(startMillis);
+
+            while (active || !queue.isEmpty()) {
+                Record record = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (record != null) {
+                    output.writeByte(record.incoming ? 1 : 0);
+                    output.writeLong(record.nanos);
+                    output.writeShort(record.data.length);
+                    output.write(record.data);
+                    packetsCaptured.increment();
+                }
+            }
+        } catch (IOException exc) {
+            RoverLog.e(TAG, "Cannot capture " + exc.getMessage());
+        } catch (InterruptedException exc) {
+            RoverLog.w(TAG, "Capture interrupted");
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException exc) {
+                    RoverLog.e(TAG, "Cannot close capture " + exc.getMessage());
+                }
+            }
+        }
+
+        RoverLog.i(TAG, "Capture finished " + file + " with " + packetsCaptured.get() + " packets");
+    }
+
+    /**
+     * Reads the header of a capture.
+     *
+     * @return the wall clock millis at nanos 0
+     */
+    static long readHeader(DataInputStream input) throws IOException {
+        if (input.readInt() != MAGIC || input.readShort() != VERSION) {
+            throw new IOException("Not a UDP capture");
+        }
+        input.readShort();
+        return input.readLong();
+    }
+}
@@ -0,0 +1,233 @@
+package de.lakoja.roverremote;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+
+public class UdpDataHolder {
+    private static final String TAG = UdpDataHolder.class.getName();
+
+    private int timestamp;
+    private int normalPacketLength;
+    private HashSet<Integer> receivedNumbers = new HashSet<>(30);
+    private int maximumPacketCount = 0;
+    private byte[] allTheData;
+    // The last packet is usually shorter
+    private int lastPacketLength = 0;
+    private boolean repairUnderway = false;
+    private long repairRequestMillis = 0;
+    private boolean repairAnswered = false;
+    // Karn: answers to a repeated rerequest do not tell which request they belong to
+    private boolean repairRepeated = false;
+    private final BitSet rerequestedNumbers = new BitSet();
+    private boolean finished = false;
+    private long firstDataMillis = 0;
+    private long firstDataNanos = 0;
+
+    public UdpDataHolder(int timestamp, int normalPacketLength) {
+        this.timestamp = timestamp;
+        this.normalPacketLength = normalPacketLength;
+    }
+
+    public void add(int packetNumber, int totalPackets, byte[] data, int offset, int length) {
+        add(packetNumber, totalPackets, data, offset, length, System.currentTimeMillis(), System.nanoTime());
+    }
+
+    /**
+     * @param nowMillis arrival time of the packet (may come from a virtual clock)
+     * @param nowNanos the same as nano time
+     */
+    public void add(int packetNumber, int totalPackets, byte[] data, int offset, int length, long nowMillis, long nowNanos) {
+        if (packetNumber < 0) {
+            throw new IllegalArgumentException("Packet number must be zero or positive");
+        }
+        if (totalPackets <= 0) {
+            throw new IllegalArgumentException("Total number of packets must be positive");
+        }
+        if (data.length == 0 || length <= 0) {
+            throw new IllegalArgumentException("Data length cannot be zero");
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must be zero or positive");
+        }
+        if (offset + length > data.length) {
+            throw new ArrayIndexOutOfBoundsException("Cannot address sections with offet+length outside of data length");
+        }
+
+        if (maximumPacketCount == 0) {
+            maximumPacketCount = totalPackets;
+        } else if (maximumPacketCount != totalPackets) {
+            throw new IllegalArgumentException("New maximum packet count differs from existing "+totalPackets+" vs "+maximumPacketCount);
+        }
+
+        if (allTheData == null) {
+            allTheData = new byte[totalPackets * normalPacketLength];
+        }
+
+        if (firstDataMillis == 0) {
+            firstDataMillis = nowMillis;
+            firstDataNanos = nowNanos;
+        }
+
+        receivedNumbers.add(packetNumber);
+
+        int dataStart = packetNumber * normalPacketLength;
+        System.arraycopy(data, offset, allTheData, dataStart, length);
+
+        if (packetNumber == totalPackets - 1) {
+            lastPacketLength = length;
+        }
+    }
+
+    public int[] currentlyMissingPackets() {
+        if (maximumPacketCount == 0) {
+            return new int[0];
+        }
+
+        if (receivedNumbers.size() == maximumPacketCount) {
+            return new int[0];
+        }
+
+        //RoverLog.w(TAG, "Some missing; first number "+(receivedNumbers.size() > 0 ? receivedNumbers.iterator().next() : "none"));
+
+        ArrayList<Integer> missing = new ArrayList<>(maximumPacketCount);
+        for (int i=0; i<maximumPacketCount; i++) {
+            if (!receivedNumbers.contains(i)) {
+                missing.add(i);
+            }
+        }
+
+        int[] missingInts = new int[missing.size()];
+        for (int i=0; i<missing.size(); i++) {
+            missingInts[i] = missing.get(i);
+        }
+
+        return missingInts;
+    }
+
+    public boolean isPacketReceived(int packetNumber) {
+        return receivedNumbers.contains(packetNumber);
+    }
+
+    public int getMissingPacketCount() {
+        return maximumPacketCount - receivedNumbers.size();
+    }
+
+    public boolean isRepairUnderway() {
+        return repairUnderway;
+    }
+
+    public void setRepairUnderway(boolean repairUnderway) {
+        this.repairUnderway = repairUnderway;
+    }
+
+    /**
+     * Marks that the currently missing packets were actually rerequested (at the given time); also
+     * for repeating the rerequest.
+     */
+    public void setRepairRequested(long nowMillis) {
+        if (repairRequestMillis > 0) {
+            repairRepeated = true;
+        }
+
+        repairUnderway = true;
+        repairRequestMillis = nowMillis;
+
+        for (int i = 0; i < maximumPacketCount; i++) {
+            if (!receivedNumbers.contains(i)) {
+                rerequestedNumbers.set(i);
+            }
+        }
+    }
+
+    /**
+     * Call before adding the packet.
+     *
+     * @return the round trip time of the rerequest if the packet is the first answer to it; -1 otherwise
+     *      (also for packets that were not rerequested - like late originals - and for repeated rerequests)
+     */
+    public long repairAnswered(int packetNumber, long nowMillis) {
+        if (repairRequestMillis == 0 || repairAnswered || !rerequestedNumbers.get(packetNumber) || receivedNumbers.contains(packetNumber)) {
+            return -1;
+        }
+
+        repairAnswered = true;
+        if (repairRepeated) {
+            return -1;
+        }
+
+        return nowMillis - repairRequestMillis;
+    }
+
+    public boolean isRepairRequested() {
+        return repairRequestMillis > 0;
+    }
+
+    public long getRepairRequestMillis() {
+        return repairRequestMillis;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public void setFinished() {
+        finished = true;
+    }
+
+    public boolean isDataComplete() {
+        return maximumPacketCount > 0 && receivedNumbers.size() == maximumPacketCount;
+    }
+
+    public long getFirstDataMillis() {
+        return firstDataMillis;
+    }
+
+    /**
+     * @return nanos (System.nanoTime() if not given) when the first packet was added
+     */
+    public long getFirstDataNanos() {
+        return firstDataNanos;
+    }
+
+    public int getReceiveMillis() {
+        return getReceiveMillis(System.currentTimeMillis());
+    }
+
+    public int getReceiveMillis(long nowMillis) {
+        if (firstDataMillis == 0) {
+            return 0;
+        }
+
+        return (int)(nowMillis - firstDataMillis);
+    }
+
+    /**
+     * @return the data padded to the normal length of all packets (see getDataLength())
+     */
+    public byte[] getData() {
+        return allTheData;
+    }
+
+    /**
+     * @return the real length of the data if the last packet was received; the padded length otherwise
+     */
+    public int getDataLength() {
+        if (allTheData == null) {
+            return 0;
+        }
+        if (lastPacketLength == 0) {
+            return allTheData.length;
+        }
+
+        return (maximumPacketCount - 1) * normalPacketLength + lastPacketLength;
+    }
+
+    public int getMaximumPacketCount() {
+        return maximumPacketCount;
+    }
+
+    public int getTimestamp() {
+        return timestamp;
+    }
+}
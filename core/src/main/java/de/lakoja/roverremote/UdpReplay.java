@@ -0,0 +1,142 @@
+package de.lakoja.roverremote;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * Drives the receive state machine of a UDP connection with a capture (see UdpCapture) instead of
+ * a socket. Time comes from a virtual clock set to the captured arrival times, so a replay makes the
+ * same decisions (rerequests, deadlines, retransmissions) every time - regardless of how fast it runs.
+ *
+ * Useful as a regression check (compare what the connection sends with what was captured) and as a
+ * benchmark of the packet path (the wall time is reported).
+ */
+public class UdpReplay {
+    private static final String TAG = UdpReplay.class.getName();
+    private static final String[] RECOVERY_COUNTERS = {
+            "udp.packets.received", "udp.packets.expected",
+            "udp.frames.complete", "udp.frames.repaired", "udp.frames.dropped",
+            "repairs.requested", "repairs.packets", "repairs.notWorthIt", "repairs.succeeded", "repairs.failed" };
+
+    private final File captureFile;
+
+    private int packetsReplayed = 0;
+    private int packetsCapturedOutgoing = 0;
+    private int packetsSent = 0;
+    private long bytesReplayed = 0;
+    private long virtualNanos = 0;
+    private long wallNanos = 0;
+
+    public UdpReplay(File captureFile) {
+        this.captureFile = captureFile;
+    }
+
+    /**
+     * Replays a capture (see UdpCapture; the app writes one with every recording) and prints how the
+     * frames were recovered. Usage: UdpReplay capture-file [compact]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2 || args.length == 2 && !args[1].equals("compact")) {
+            System.err.println("Usage: UdpReplay <capture file> [compact]");
+            System.exit(1);
+            return;
+        }
+
+        // Never started: no socket is opened
+        UdpRoverConnection connection = new UdpRoverConnection(0, InetAddress.getLoopbackAddress());
+        connection.setCompactRerequests(args.length == 2);
+
+        UdpReplay replay = new UdpReplay(new File(args[0]));
+        replay.replay(connection);
+
+        MetricsSnapshot metrics = MetricsRegistry.getDefault().snapshot();
+        for (String counter : RECOVERY_COUNTERS) {
+            System.out.println(counter + " " + metrics.getCounter(counter));
+        }
+        System.out.println("packets.sent " + replay.getPacketsSent() + " (captured " + replay.getPacketsCapturedOutgoing() + ")");
+        System.out.println("wall.ms " + Math.round(replay.getWallNanos() / 1000000.0));
+    }
+
+    /**
+     * @param connection configured like the captured one (listeners, protocol settings) but not started
+     */
+    public void replay(UdpRoverConnection connection) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(captureFile), 64 * 1024));
+
+        try {
+            VirtualClock clock = new VirtualClock(UdpCapture.readHeader(input));
+            connection.setTimeSource(clock);
+            connection.resetStatistics();
+            connection.setPacketTap(new PacketTap() {
+                @Override
+                public void packet(boolean incoming, long nanos, byte[] data, int offset, int length) {
+                    if (!incoming) {
+                        packetsSent++;
+                    }
+                }
+            });
+
+            byte[] data = new byte[65536];
+            long startNanos = System.nanoTime();
+
+            while (true) {
+                boolean incoming;
+                try {
+                    incoming = input.readByte() == 1;
+                } catch (EOFException exc) {
+                    break;
+                }
+
+                long nanos = input.readLong();
+                int length = input.readUnsignedShort();
+                input.readFully(data, 0, length);
+
+                clock.setNanos(nanos);
+                connection.checkTimers();
+
+                if (incoming) {
+                    connection.replayPacket(data, length);
+                    packetsReplayed++;
+                    bytesReplayed += length;
+                } else {
+                    packetsCapturedOutgoing++;
+                }
+                virtualNanos = nanos;
+            }
+
+            wallNanos = System.nanoTime() - startNanos;
+        } finally {
+            connection.setPacketTap(null);
+            input.close();
+        }
+
+        RoverLog.i(TAG, "Replayed " + packetsReplayed + " packets (" + Math.round(bytesReplayed / 1024.0f) + " KB) of "
+                + Math.round(virtualNanos / 1000000.0) + "ms in " + Math.round(wallNanos / 1000000.0) + "ms; sent "
+                + packetsSent + " packets (captured " + packetsCapturedOutgoing + ")");
+        RoverLog.i(TAG, MetricsRegistry.getDefault().snapshot().toString());
+    }
+
+    public int getPacketsReplayed() {
+        return packetsReplayed;
+    }
+
+    /**
+     * @return the number of packets the connection sent during the replay
+     */
+    public int getPacketsSent() {
+        return packetsSent;
+    }
+
+    public int getPacketsCapturedOutgoing() {
+        return packetsCapturedOutgoing;
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+}
@@ -0,0 +1,951 @@
+package de.lakoja.roverremote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.LinkedList;
+import java.util.Queue;
+
+public class UdpRoverConnection extends Thread {
+    /**
+     * Turns complete frames into something to show (like an Android bitmap).
+     */
+    public interface FrameDecoder<T> {
+        /**
+         * @return null if the data is no legal image
+         */
+        T decode(byte[] jpegData);
+
+        void present(T image, int timestamp, byte[] jpegData, float kbps, long deadline);
+    }
+
+    private static final String TAG = UdpRoverConnection.class.getName();
+    private static final String IMAGE_PACKET_HEADER = "RI";
+    private static final String REREQUEST_PACKET_HEADER = "MN";
+    private static final String CONTROL_PACKET_HEADER = "CT";
+    // Sequence numbered commands and their acknowledgements (header + sequence (short) + text)
+    private static final String SEQUENCED_CONTROL_PACKET_HEADER = "CQ";
+    private static final String CONTROL_ACK_PACKET_HEADER = "CA";
+    private static final long TIMEOUT_CHECK_NANOS = 5000000L;
+    private static final String STOP_CONFIRMATION = "OKC 0.00,0.00";
+    private static final int IMAGE_PACKET_DATA_LENGTH = 1200;
+    // packet header + packet number (for image) + of total packets (for image) + timestamp
+    private static final int IMAGE_HEADER_LENGTH = 2 + 2 + 2 + 4;
+    private static final int MIN_IMAGE_PACKET_LEN = IMAGE_HEADER_LENGTH + 1;
+    private static final int MAX_IMAGE_PACKET_LEN = IMAGE_HEADER_LENGTH + IMAGE_PACKET_DATA_LENGTH;
+
+    private static final long ENTRY_TOO_OLD = 300;
+    private static final long ENTRY_STATUS_TOO_OLD = 800;
+    private static final long ENTRY_IMAGE_STATUS_TOO_OLD = 1800;
+
+    // Events of the receive loop; logged without building strings there
+    private static final EventLog EVENTS = EventLog.getDefault();
+    private static final int EVENT_FRAME_COMPLETE = EVENTS.define(TAG, "frame.complete", "timestamp", "kbps", "size", "millis");
+    private static final int EVENT_FRAME_REPAIRED = EVENTS.define(TAG, "frame.repaired", "timestamp", "kbps");
+    private static final int EVENT_FRAME_TOO_OLD = EVENTS.define(TAG, "frame.tooOld", "timestamp", "lastShown");
+    private static final int EVENT_FRAME_TOO_LATE = EVENTS.define(TAG, "frame.tooLate", "timestamp", "stage");
+    private static final int EVENT_FRAME_NO_KBPS = EVENTS.define(TAG, "frame.noKbps", "size", "millis");
+    private static final int EVENT_FRAME_NOT_REPAIRED = EVENTS.define(TAG, "frame.notRepaired", "timestamp", "missing", "total", "rtt");
+    private static final int EVENT_LAST_FRAME_MISSING = EVENTS.define(TAG, "frame.lastMissing", "lastTimestamp", "timestamp");
+    private static final int EVENT_PACKET_BOGUS = EVENTS.define(TAG, "packet.bogus", "header", "length", "timestamp", "number");
+    private static final int EVENT_PACKET_OLD = EVENTS.define(TAG, "packet.old", "timestamp", "highest");
+    private static final int EVENT_PACKET_UNASSIGNED = EVENTS.define(TAG, "packet.unassigned", "timestamp", "number");
+    private static final int EVENT_SERVER_RESET = EVENTS.define(TAG, "server.reset", "timestamp", "highest");
+    private static final int EVENT_REREQUEST = EVENTS.define(TAG, "rerequest", "timestamp", "first", "count");
+    private static final int EVENT_REREQUEST_UNENCODABLE = EVENTS.define(TAG, "rerequest.unencodable", "timestamp");
+    private static final int EVENT_TELEMETRY_FALSE = EVENTS.define(TAG, "telemetry.false", "length", "version");
+    private static final int EVENT_STOP_CONFIRMED = EVENTS.define(TAG, "stop.confirmed");
+
+    private int port;
+    private InetAddress returnServerAddress;
+    private boolean active = true;
+    private FrameDecoder<?> frameDecoder;
+    private StatusListener statusListener;
+    private TelemetryParser telemetryParser = new TelemetryParser();
+    private RoverStatus roverStatus = new RoverStatus();
+    private IntKeyMap<UdpDataHolder> multipleImageData = new IntKeyMap<>(11);
+    private long lastPacketReceiveMillis = 0;
+    private long lastReportedTimestamp = 0;
+    private Queue<Float> lastTransfersKbps = new LinkedList<>();
+    private float lastTransferKbpsMean = 0;
+    private Queue<ControlCommand> commandQueue = new LinkedList<>();
+    private long stopSentMillis = 0;
+    private ControlCommand lastStopCommand = null;
+    // Only the latest move matters; kept in one slot so that moving does not produce garbage
+    private final Object moveLock = new Object();
+    private boolean movePending = false;
+    private int pendingMoveForward;
+    private int pendingMoveRight;
+    private long pendingMoveMillis;
+    private long pendingMoveNanos;
+    private CommandEncoder commandEncoder = new CommandEncoder(500);
+    private boolean acknowledgedControl = false;
+    private CommandTracker commandTracker = new CommandTracker("udp.commands");
+    private long lastTimeoutCheckNanos = 0;
+    private volatile TelemetrySubscription telemetrySubscription = null;
+    private final CommandTracker.Retransmitter retransmitter = new CommandTracker.Retransmitter() {
+        @Override
+        public void retransmit(byte[] packet, int length) {
+            try {
+                sendPacket(packet, length);
+            } catch (IOException exc) {
+                RoverLog.e(TAG, "Problem during sending (retransmit) " + exc.getMessage());
+            }
+        }
+    };
+
+    private DatagramSocket udpSocket = null;
+    private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private final Counter receivedPackets = metrics.counter("udp.packets.received");
+    // Including rerequested ones
+    private final Counter expectedPackets = metrics.counter("udp.packets.expected");
+    private final Counter completeImages = metrics.counter("udp.frames.complete");
+    private final Counter repairedImages = metrics.counter("udp.frames.repaired");
+    private final Counter droppedImages = metrics.counter("udp.frames.dropped");
+    private final Counter illegalImages = metrics.counter("udp.frames.illegal");
+    private final Gauge kbpsGauge = metrics.gauge("udp.kbps");
+    private final Histogram reassemblyLatency = metrics.histogram("latency.reassembly.ns");
+    private final Histogram decodeLatency = metrics.histogram("latency.decode.ns");
+    private final Histogram commandQueueLatency = metrics.histogram("latency.command.queue.ns");
+    private boolean compactRerequests = false;
+    private NackEncoder nackEncoder = new NackEncoder(500);
+    private FrameDeadlines frameDeadlines = new FrameDeadlines();
+    private RetransmissionPolicy retransmissionPolicy = new RetransmissionPolicy(IMAGE_PACKET_DATA_LENGTH);
+    
+    private DatagramPacket packet = null;
+    private DatagramPacket returnPacket = null;
+    // State of the receive state machine
+    private int lastPacketNumber = -1;
+    private int highestLastTimestamp = -1;
+    private TimeSource clock = TimeSource.SYSTEM;
+    private volatile PacketTap packetTap = null;
+    private volatile FrameTap frameTap = null;
+    
+    public UdpRoverConnection(int port, InetAddress returnServerAddress) {
+        this.port = port;
+        this.returnServerAddress = returnServerAddress;
+
+        packet = new DatagramPacket(new byte[1500], 1500);
+        returnPacket = new DatagramPacket(new byte[500], 500, returnServerAddress, port);
+    }
+
+    /**
+     * @param frameDecoder null to only reassemble (for replays and benchmarks without a display)
+     */
+    public void setFrameDecoder(FrameDecoder<?> frameDecoder) {
+        this.frameDecoder = frameDecoder;
+    }
+
+    public void setStatusListener(StatusListener statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    public void setFrameDeadlines(FrameDeadlines frameDeadlines) {
+        this.frameDeadlines = frameDeadlines;
+    }
+
+    /**
+     * @param clock used by the receive state machine and the timers (a virtual one for replaying)
+     */
+    public void setTimeSource(TimeSource clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @param packetTap sees every received and sent datagram (like UdpCapture) or null
+     */
+    public void setPacketTap(PacketTap packetTap) {
+        this.packetTap = packetTap;
+    }
+
+    /**
+     * @param frameTap sees every reassembled frame (like SessionRecorder); also those too old or too late for display; or null
+     */
+    public void setFrameTap(FrameTap frameTap) {
+        this.frameTap = frameTap;
+    }
+
+    /**
+     * Use compact "MR" rerequests (ranges or bitmap; several frames per packet) instead of "MN".
+     * The rover must support them.
+     */
+    public void setCompactRerequests(boolean compactRerequests) {
+        this.compactRerequests = compactRerequests;
+    }
+
+    /**
+     * Send commands with sequence numbers ("CQ") which the rover acknowledges ("CA"); critical ones are
+     * retransmitted and every command gives a round trip time. The rover must support this.
+     */
+    public void setAcknowledgedControl(boolean acknowledgedControl) {
+        this.acknowledgedControl = acknowledgedControl;
+    }
+
+    public CommandTracker getCommandTracker() {
+        return commandTracker;
+    }
+
+    /**
+     * Let the rover push telemetry ("TM") every period instead of answering polls; the subscription is
+     * renewed as long as this connection runs. The rover must support this.
+     *
+     * @param mask which telemetry to push (TelemetrySubscription.TELEMETRY_*)
+     */
+    public void subscribeTelemetry(int mask, long periodMillis) {
+        telemetrySubscription = new TelemetrySubscription(mask, periodMillis);
+    }
+
+    /**
+     * @return true if subscribed telemetry arrives as expected (no polling necessary)
+     */
+    public boolean isTelemetryFresh() {
+        TelemetrySubscription subscription = telemetrySubscription;
+        return subscription != null && subscription.isFresh(clock.currentTimeMillis());
+    }
+
+    public long getReceivedPackets() {
+        return receivedPackets.get();
+    }
+
+    /**
+     * @return the number of packets that should have been received (including rerequested ones)
+     */
+    public long getExpectedPackets() {
+        return expectedPackets.get();
+    }
+
+    public TelemetrySubscription getTelemetrySubscription() {
+        return telemetrySubscription;
+    }
+
+    public void stopActive() {
+        active = false;
+    }
+    public void sendControl(String controlRequest) {
+        // TODO send confirmation to caller?
+        commandQueue.add(new ControlCommand(controlRequest, false, clock));
+    }
+
+    /**
+     * @param critical retransmit until acknowledged (only with acknowledged control)
+     */
+    public void sendControl(String controlRequest, boolean critical) {
+        commandQueue.add(new ControlCommand(controlRequest, critical, clock));
+    }
+
+    /**
+     * Sends "move forward right"; replaces a move not yet sent.
+     *
+     * @param forwardValue 0..1000 (500 is stop)
+     * @param rightValue 0..1000 (500 is straight)
+     */
+    public void sendMove(int forwardValue, int rightValue) {
+        synchronized (moveLock) {
+            movePending = true;
+            pendingMoveForward = forwardValue;
+            pendingMoveRight = rightValue;
+            pendingMoveMillis = clock.currentTimeMillis();
+            pendingMoveNanos = clock.nanoTime();
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        try {
+            udpSocket = new DatagramSocket(port);
+            udpSocket.setReceiveBufferSize(30000);
+            udpSocket.setSoTimeout(15);
+        } catch (SocketException exc) {
+            RoverLog.e(TAG, "Cannot create UDP socket " + exc.getMessage());
+            return;
+        }
+        
+        resetStatistics();
+        
+        super.start();
+    }
+
+    void resetStatistics() {
+        receivedPackets.reset();
+        expectedPackets.reset();
+        completeImages.reset();
+        repairedImages.reset();
+        droppedImages.reset();
+        illegalImages.reset();
+        retransmissionPolicy.resetStatistics();
+    }
+
+    @Override
+    public void run() {
+        RoverLog.i(TAG, "Opened UDP receiver with "+returnServerAddress);
+
+        while (active) {
+            checkTimers();
+
+            ControlCommand command = null;
+            boolean sendMove = false;
+            int moveForward = 0;
+            int moveRight = 0;
+            if (stopSentMillis > 0 && clock.currentTimeMillis() - stopSentMillis > 250) {
+                command = lastStopCommand;
+                if (command == null) {
+                    // Was a stop move
+                    sendMove = true;
+                    moveForward = 500;
+                    moveRight = 500;
+                }
+                stopSentMillis = 0;
+                lastStopCommand = null;
+            } else if (sendPendingMove()) {
+                try { Thread.sleep(1); } catch (InterruptedException exc) { }
+
+                continue;
+            } else if (!commandQueue.isEmpty()) {
+                ControlCommand queuedCommand = commandQueue.remove();
+                if (entryAlive(queuedCommand)) {
+                    command = queuedCommand;
+                    commandQueueLatency.record(clock.nanoTime() - command.requestQueueNanos);
+                }
+            }
+
+            if (sendMove) {
+                sendMovePacket(moveForward, moveRight);
+
+                try { Thread.sleep(1); } catch (InterruptedException exc) { }
+
+                continue;
+            }
+
+            if (command != null) {
+                sendCommandPacket(command);
+
+                try { Thread.sleep(1); } catch (InterruptedException exc) { }
+
+                continue;
+            }
+
+            boolean received = false;
+            try {
+                received  = receivePacket();
+            } catch (IOException exc) {
+                RoverLog.e(TAG, "Cannot receive UDP packet " + exc.getMessage());
+                break;
+            }
+
+            if (!received) {
+                continue;
+            }
+
+            if (packet.getLength() < 2) {
+                RoverLog.e(TAG, "Packet really too short " + packet.getLength());
+                break;
+            }
+
+            if (packet.getLength() > 10000) {
+                RoverLog.e(TAG, "Infernal packet length received " + packet.getLength());
+                break;
+            }
+
+            handlePacket(packet.getData(), packet.getLength());
+
+            Thread.yield();
+        }
+
+        RoverLog.w(TAG, "Udp receiver exited");
+        udpSocket.close();
+        udpSocket = null;
+    }
+
+    /**
+     * Sends the latest move handed over by sendMove() unless it is too old (without a socket the
+     * packet only reaches the packet tap).
+     *
+     * @return true if a move was sent
+     */
+    boolean sendPendingMove() {
+        int moveForward;
+        int moveRight;
+        synchronized (moveLock) {
+            if (!movePending) {
+                return false;
+            }
+            movePending = false;
+
+            // Transmit every stop regardless of age
+            if (!isStopMove(pendingMoveForward, pendingMoveRight) && clock.currentTimeMillis() - pendingMoveMillis >= ENTRY_TOO_OLD) {
+                return false;
+            }
+
+            moveForward = pendingMoveForward;
+            moveRight = pendingMoveRight;
+            commandQueueLatency.record(clock.nanoTime() - pendingMoveNanos);
+        }
+
+        sendMovePacket(moveForward, moveRight);
+        return true;
+    }
+
+    /**
+     * Command retransmissions and the telemetry subscription renewal.
+     */
+    void checkTimers() {
+        if (acknowledgedControl) {
+            long nowNanos = clock.nanoTime();
+            if (nowNanos - lastTimeoutCheckNanos > TIMEOUT_CHECK_NANOS) {
+                commandTracker.checkTimeouts(nowNanos, retransmitter);
+                lastTimeoutCheckNanos = nowNanos;
+            }
+        }
+
+        TelemetrySubscription subscription = telemetrySubscription;
+        if (subscription != null) {
+            long nowMillis = clock.currentTimeMillis();
+            if (subscription.needsRenewal(nowMillis)) {
+                sendCommandPacket(new ControlCommand(subscription.subscribeCommand(), true, clock));
+                subscription.renewed(nowMillis);
+            }
+        }
+    }
+
+    /**
+     * Feeds a captured datagram into the receive state machine (without a socket; this connection
+     * must not be started). Sent packets only reach the packet tap.
+     */
+    void replayPacket(byte[] data, int length) {
+        lastPacketReceiveMillis = clock.currentTimeMillis();
+        receivedPackets.increment();
+
+        handlePacket(data, length);
+    }
+
+    /**
+     * The receive state machine for one datagram (from the socket or a replayed capture).
+     */
+    void handlePacket(byte[] data, int length) {
+        if (startsWith(data, 0, length, CONTROL_ACK_PACKET_HEADER) && length >= 4) {
+            long rttNanos = commandTracker.acknowledged(readShort(data, 2), clock.nanoTime());
+            if (rttNanos >= 0) {
+                retransmissionPolicy.addRoundTripSample(rttNanos / 1000000);
+            }
+
+            handleControlPacket(data, 4, length - 4);
+
+            return;
+        }
+
+        if (startsWith(data, 0, length, TelemetryParser.TELEMETRY_PACKET_HEADER)) {
+            if (telemetryParser.parseBinary(data, 0, length, roverStatus, lastPacketReceiveMillis)) {
+                if (telemetrySubscription != null) {
+                    telemetrySubscription.telemetryReceived(roverStatus.getSequence(), lastPacketReceiveMillis);
+                }
+                if (statusListener != null) {
+                    statusListener.informRoverStatus(roverStatus);
+                }
+            } else {
+                EVENTS.log(RoverLog.ERROR, EVENT_TELEMETRY_FALSE, length, length > 2 ? data[2] : -1);
+            }
+
+            return;
+        }
+
+        if (startsWith(data, 0, length, CONTROL_PACKET_HEADER)) {
+            handleControlPacket(data, 2, length - 2);
+
+            return;
+        }
+
+        if (length < MIN_IMAGE_PACKET_LEN || length > MAX_IMAGE_PACKET_LEN || !startsWith(data, 0, length, IMAGE_PACKET_HEADER)) {
+            EVENTS.log(RoverLog.ERROR, EVENT_PACKET_BOGUS, readShort(data, 0), length, -1, -1);
+            return;
+        }
+
+        int timestamp = readInt(data, 2);
+
+        if (timestamp < 0) {
+            EVENTS.log(RoverLog.ERROR, EVENT_PACKET_BOGUS, readShort(data, 0), length, timestamp, -1);
+            return;
+        }
+
+        int packetNumber = readShort(data, 6);
+
+        if (packetNumber < 0) {
+            EVENTS.log(RoverLog.ERROR, EVENT_PACKET_BOGUS, readShort(data, 0), length, timestamp, packetNumber);
+            return;
+        }
+
+        int packetsForThisImage = readShort(data, 8);
+
+        if (packetsForThisImage < 1) {
+            EVENTS.log(RoverLog.ERROR, EVENT_PACKET_BOGUS, readShort(data, 0), length, timestamp, packetNumber);
+            return;
+        }
+
+        /*
+        if (receivedPackets.get() % 100 == 0) {
+            RoverLog.i(TAG, "Got 100th packet "+timestamp+" "+packetNumber+"/"+packetsForThisImage+ " of "+expectedPackets.get());
+        }*/
+
+        if (highestLastTimestamp != -1 && timestamp < highestLastTimestamp - 5000) {
+            // Consider this a server reset
+            EVENTS.log(RoverLog.WARN, EVENT_SERVER_RESET, timestamp, highestLastTimestamp);
+            highestLastTimestamp = -1;
+            lastReportedTimestamp = 0;
+        }
+
+        UdpDataHolder thisImageDataHolder = multipleImageData.get(timestamp);
+        boolean isRepairData = false;
+
+        if (thisImageDataHolder == null) {
+            if (timestamp < highestLastTimestamp) {
+                // TODO consider server reset (starts from low image timestamps
+                EVENTS.log(RoverLog.WARN, EVENT_PACKET_OLD, timestamp, highestLastTimestamp);
+            } else {
+                thisImageDataHolder = new UdpDataHolder(timestamp, IMAGE_PACKET_DATA_LENGTH);
+                multipleImageData.put(timestamp, thisImageDataHolder);
+            }
+        } else {
+            if (timestamp < highestLastTimestamp) {
+                isRepairData = true;
+            }
+        }
+
+        if (timestamp > highestLastTimestamp) {
+            // A new image starts
+
+            expectedPackets.add(packetsForThisImage);
+            retransmissionPolicy.frameStarted(lastPacketReceiveMillis);
+
+            if (highestLastTimestamp != -1) {
+                // TODO check if there are whole images missing?
+
+                // TODO check if that image is initialized at all?
+                UdpDataHolder lastImageDataHolder = multipleImageData.get(highestLastTimestamp);
+
+                for (int i = 0; i < multipleImageData.size(); i++) {
+                    UdpDataHolder droppedHolder = multipleImageData.valueAt(i);
+                    // The last image is decided on below
+                    boolean kept = droppedHolder == thisImageDataHolder || droppedHolder == lastImageDataHolder;
+                    if (!kept && !droppedHolder.isFinished()) {
+                        droppedImages.increment();
+                        if (droppedHolder.isRepairRequested()) {
+                            retransmissionPolicy.repairFailed();
+                        }
+                    }
+                }
+
+                multipleImageData.clear();
+                multipleImageData.put(timestamp, thisImageDataHolder);
+
+                if (lastImageDataHolder != null) {
+                    int[] lastPacketsMissing = lastImageDataHolder.currentlyMissingPackets();
+
+                    if (lastPacketsMissing.length > 0 && !lastImageDataHolder.isRepairUnderway()) {
+                        // The frame replacing it has just started (frameStarted() above)
+                        repairIfWorthIt(lastImageDataHolder, lastPacketsMissing, true);
+                    }
+
+                    // Only keep current and last image and that only if necessary; after the repair
+                    // decision: otherwise the answers to a rerequest sent just now find no holder
+                    if (lastImageDataHolder.isRepairUnderway()) {
+                        multipleImageData.put(highestLastTimestamp, lastImageDataHolder);
+                    }
+                } else {
+                    EVENTS.log(RoverLog.WARN, EVENT_LAST_FRAME_MISSING, highestLastTimestamp, timestamp);
+                }
+            }
+
+            highestLastTimestamp = timestamp;
+        }
+
+        if (thisImageDataHolder != null) {
+            if (thisImageDataHolder.isRepairRequested()) {
+                long repairRtt = thisImageDataHolder.repairAnswered(packetNumber, lastPacketReceiveMillis);
+                if (repairRtt >= 0) {
+                    retransmissionPolicy.addRoundTripSample(repairRtt);
+                }
+            }
+
+            thisImageDataHolder.add(packetNumber, packetsForThisImage, data, IMAGE_HEADER_LENGTH, length - IMAGE_HEADER_LENGTH,
+                    lastPacketReceiveMillis, clock.nanoTime());
+
+            if (thisImageDataHolder.isDataComplete()) {
+                if (!thisImageDataHolder.isFinished()) {
+                    // Duplicate (repair) packets must not produce the image once more
+                    thisImageDataHolder.setFinished();
+                    handleFinishedImage(thisImageDataHolder);
+                }
+            } else {
+                if (packetNumber > lastPacketNumber + 1) {
+                    //RoverLog.w(TAG, "Missing "+(lastPacketNumber + 1));
+                    // TODO do something here? something is done when timestamp changes. Maybe wait for a gap (no receving any more packets)?
+                }
+                // else packetNumber < lastPacketNumber is possible for a new image
+
+                if (packetNumber == packetsForThisImage - 1 && !thisImageDataHolder.isRepairUnderway()) {
+                    handleImageNearlyFinished(thisImageDataHolder);
+                }
+            }
+
+            // TODO is this always correct/needed/correctly named? Is wrong above when finding out about repaired images
+            if (!isRepairData) {
+                lastPacketNumber = packetNumber;
+            }
+        } else {
+            EVENTS.log(RoverLog.WARN, EVENT_PACKET_UNASSIGNED, timestamp, packetNumber);
+        }
+    }
+
+    private boolean receivePacket() throws IOException {
+        try {
+            udpSocket.receive(packet);
+        } catch (SocketTimeoutException exc) {
+            /* Do nothing special yet (only consider last packet for now)
+            if (lastPacketNumber != -1 && highestLastTimestamp != -1) {
+                UdpDataHolder lastImageDataHolder = multipleImageData.get(highestLastTimestamp);
+
+                if (null != lastImageDataHolder) {
+                    if (!lastImageDataHolder.isDataComplete() && !lastImageDataHolder.isRepairUnderway()) {
+
+                    }
+                }
+            }*/
+
+            return false;
+        }
+
+        lastPacketReceiveMillis = clock.currentTimeMillis();
+        receivedPackets.increment();
+
+        PacketTap tap = packetTap;
+        if (tap != null) {
+            tap.packet(true, clock.nanoTime(), packet.getData(), 0, packet.getLength());
+        }
+
+        return true;
+    }
+
+    /**
+     * Looks at the text reply without creating a string (replies arrive for every command).
+     */
+    private void handleControlPacket(byte[] data, int offset, int length) {
+        // TODO should probably be "STATUS"
+        if (startsWith(data, offset, length, "VOLT ")) {
+            if (statusListener != null) {
+                if (telemetryParser.parseText(data, offset, length, roverStatus, lastPacketReceiveMillis)) {
+                    statusListener.informRoverStatus(roverStatus);
+                } else {
+                    RoverLog.e(TAG, "False rover status reply: "+new String(data, offset, length));
+                }
+            }
+        } else if (length == STOP_CONFIRMATION.length() && startsWith(data, offset, length, STOP_CONFIRMATION)) {
+            stopSentMillis = 0;
+            lastStopCommand = null;
+
+            EVENTS.log(RoverLog.WARN, EVENT_STOP_CONFIRMED);
+        } else {
+            //RoverLog.e(TAG, "Got control response "+payload);
+        }
+    }
+    private void handleImageNearlyFinished(UdpDataHolder dataHolder) {
+        // do something if "last" packet received but some are missing
+        // TODO also consider last packet missing (check after some time when packet received - see above SocketTimeoutException)
+
+        int[] packetsMissing = dataHolder.currentlyMissingPackets();
+
+        if (packetsMissing.length > 0) {
+            repairIfWorthIt(dataHolder, packetsMissing, dataHolder.getTimestamp() < highestLastTimestamp);
+        }
+    }
+
+    private void repairIfWorthIt(UdpDataHolder dataHolder, int[] packetsMissing, boolean newerFrameStarted) {
+        // Is also set when discarding: the image is not considered again
+        dataHolder.setRepairUnderway(true);
+
+        long now = clock.currentTimeMillis();
+        if (frameDeadlines.isExpired(frameDeadlines.deadlineFor(dataHolder.getFirstDataMillis()), now)) {
+            // Even a repaired image could not be shown any more
+            frameDeadlines.countAbandoned(FrameDeadlines.STAGE_REASSEMBLY);
+            dataHolder.setFinished();
+            return;
+        }
+
+        if (retransmissionPolicy.shouldRepair(packetsMissing.length, dataHolder.getMaximumPacketCount(), lastTransferKbpsMean, newerFrameStarted, now)) {
+            dataHolder.setRepairRequested(now);
+            if (compactRerequests) {
+                sendCompactRerequestPacket(dataHolder, now);
+            } else {
+                sendRerequestPacket(dataHolder.getTimestamp(), packetsMissing);
+            }
+        } else {
+            EVENTS.log(RoverLog.WARN, EVENT_FRAME_NOT_REPAIRED, dataHolder.getTimestamp(), packetsMissing.length, dataHolder.getMaximumPacketCount(),
+                    Math.round(retransmissionPolicy.getRttMillis()));
+        }
+    }
+
+    private void handleFinishedImage(UdpDataHolder dataHolder) {
+        // From the first packet; repaired frames make the tail
+        reassemblyLatency.record(clock.nanoTime() - dataHolder.getFirstDataNanos());
+
+        int timestamp = dataHolder.getTimestamp();
+        int imageSize = dataHolder.getDataLength();
+        int receiveMillis = dataHolder.getReceiveMillis(clock.currentTimeMillis());
+
+        if (imageSize > 0 && receiveMillis > 0) {
+            float kbps = (imageSize / 1024.0f) / (receiveMillis / 1000.0f);
+
+            // TODO this dequeue and enqueue with mean is rather awkward
+            if (lastTransfersKbps.size() == 0) {
+                lastTransferKbpsMean = kbps;
+            } else if (lastTransfersKbps.size() > 2) {
+                // dequeue oldest one
+                float oldestKbps = lastTransfersKbps.remove();
+                lastTransferKbpsMean = ((lastTransferKbpsMean * (lastTransfersKbps.size() + 1)) - oldestKbps) / lastTransfersKbps.size();
+            }
+
+            lastTransferKbpsMean = (lastTransferKbpsMean * lastTransfersKbps.size() + kbps) / (lastTransfersKbps.size() + 1);
+            lastTransfersKbps.add(kbps);
+        } else {
+            EVENTS.log(RoverLog.WARN, EVENT_FRAME_NO_KBPS, imageSize, receiveMillis);
+        }
+
+        if (dataHolder.isRepairUnderway()) {
+            repairedImages.increment();
+            if (dataHolder.isRepairRequested()) {
+                retransmissionPolicy.repairSucceeded();
+            }
+            EVENTS.log(RoverLog.INFO, EVENT_FRAME_REPAIRED, timestamp, Math.round(lastTransferKbpsMean));
+        } else {
+            completeImages.increment();
+            EVENTS.log(RoverLog.INFO, EVENT_FRAME_COMPLETE, timestamp, Math.round(lastTransferKbpsMean), imageSize, receiveMillis);
+        }
+        kbpsGauge.set(lastTransferKbpsMean);
+
+        FrameTap tap = frameTap;
+        if (tap != null) {
+            tap.frame(timestamp, dataHolder.getData(), imageSize, lastTransferKbpsMean);
+        }
+
+        long deadline = frameDeadlines.deadlineFor(dataHolder.getFirstDataMillis());
+
+        if (timestamp < lastReportedTimestamp) {
+            EVENTS.log(RoverLog.WARN, EVENT_FRAME_TOO_OLD, timestamp, lastReportedTimestamp);
+        } else if (!frameDeadlines.inTime(deadline, FrameDeadlines.STAGE_REASSEMBLY, clock.currentTimeMillis())) {
+            EVENTS.log(RoverLog.WARN, EVENT_FRAME_TOO_LATE, timestamp, FrameDeadlines.STAGE_REASSEMBLY);
+        } else if (frameDecoder == null) {
+            lastReportedTimestamp = timestamp;
+        } else {
+            decodeAndPresent(frameDecoder, dataHolder.getData(), timestamp, deadline);
+        }
+    }
+
+    private <T> void decodeAndPresent(FrameDecoder<T> decoder, byte[] imageData, int timestamp, long deadline) {
+        // Real time: decoding is real work even when replaying
+        long decodeStartNanos = System.nanoTime();
+        T image = decoder.decode(imageData);
+        decodeLatency.recordSince(decodeStartNanos);
+
+        if (image == null) {
+            // TODO must be shown more prominently
+            illegalImages.increment();
+            RoverLog.e(TAG, "Found illegal image");
+
+            if (imageData.length >= 5) {
+                RoverLog.e(TAG, "first 5 bytes " + asHex(imageData, 0, 5));
+                RoverLog.e(TAG, "last 5 bytes " + asHex(imageData, imageData.length - 5, 5));
+            }
+        } else if (!frameDeadlines.inTime(deadline, FrameDeadlines.STAGE_DECODE, clock.currentTimeMillis())) {
+            EVENTS.log(RoverLog.WARN, EVENT_FRAME_TOO_LATE, timestamp, FrameDeadlines.STAGE_DECODE);
+        } else {
+            decoder.present(image, timestamp, imageData, lastTransferKbpsMean, deadline);
+            lastReportedTimestamp = timestamp;
+        }
+    }
+
+    private void sendMovePacket(int forwardValue, int rightValue) {
+        int sequence = beginCommand();
+        commandEncoder.appendMove(forwardValue, rightValue);
+        try {
+            sendPacket(commandEncoder.getBuffer(), commandEncoder.getLength());
+
+            boolean stop = isStopMove(forwardValue, rightValue);
+            if (acknowledgedControl) {
+                commandTracker.sent(sequence, commandEncoder.getBuffer(), commandEncoder.getLength(), stop, true, clock.nanoTime());
+            } else if (stop && stopSentMillis == 0) {
+                stopSentMillis = clock.currentTimeMillis();
+                lastStopCommand = null;
+            }
+        } catch (IOException exc) {
+            RoverLog.e(TAG, "Problem during sending (move) " + exc.getMessage());
+        }
+    }
+
+    void sendCommandPacket(ControlCommand command) {
+        int sequence = beginCommand();
+        commandEncoder.appendAscii(command.controlRequest);
+        try {
+            sendPacket(commandEncoder.getBuffer(), commandEncoder.getLength());
+
+            boolean critical = command.critical || isStopCommand(command);
+            if (acknowledgedControl) {
+                commandTracker.sent(sequence, commandEncoder.getBuffer(), commandEncoder.getLength(), critical, false, clock.nanoTime());
+            } else if (isStopCommand(command) && stopSentMillis == 0) {
+                stopSentMillis = clock.currentTimeMillis();
+                lastStopCommand = command;
+            }
+        } catch (IOException exc) {
+            RoverLog.e(TAG, "Problem during sending (control) " + exc.getMessage());
+        }
+    }
+
+    /**
+     * Starts the command packet in the encoder.
+     *
+     * @return the sequence number or -1 if commands are not acknowledged
+     */
+    private int beginCommand() {
+        if (acknowledgedControl) {
+            int sequence = commandTracker.nextSequence();
+            commandEncoder.begin(SEQUENCED_CONTROL_PACKET_HEADER);
+            commandEncoder.appendShort(sequence);
+            return sequence;
+        }
+
+        commandEncoder.begin(CONTROL_PACKET_HEADER);
+        return -1;
+    }
+
+    // TODO could take data holder as argument??
+    void sendRerequestPacket(int highestLastTimestamp, int[] lastPacketsMissing) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(40);
+        DataOutputStream dos = new DataOutputStream(bos);
+        try {
+            dos.writeBytes(REREQUEST_PACKET_HEADER);
+            dos.writeInt(highestLastTimestamp);
+            for (int num : lastPacketsMissing) {
+                dos.writeShort(num);
+            }
+
+            sendPacket(bos.toByteArray(), bos.size());
+
+            expectedPackets.add(lastPacketsMissing.length);
+
+            EVENTS.log(RoverLog.INFO, EVENT_REREQUEST, highestLastTimestamp, lastPacketsMissing[0], lastPacketsMissing.length);
+        } catch (IOException exc) {
+            RoverLog.e(TAG, "Problem during sending (rerequest) " + exc.getMessage());
+        }
+    }
+
+    private void sendCompactRerequestPacket(UdpDataHolder dataHolder, long nowMillis) {
+        nackEncoder.begin();
+        if (!nackEncoder.addFrame(dataHolder)) {
+            // Too many scattered packets for one compact packet: the plain rerequest can list them all
+            EVENTS.log(RoverLog.WARN, EVENT_REREQUEST_UNENCODABLE, dataHolder.getTimestamp());
+            sendRerequestPacket(dataHolder.getTimestamp(), dataHolder.currentlyMissingPackets());
+            return;
+        }
+        int rerequested = dataHolder.getMissingPacketCount();
+
+        // Repeat still unanswered rerequests of other frames; the rerequest or its answer may have been lost (loss comes in bursts)
+        long repeatMillis = 2 * Math.round(retransmissionPolicy.getRttMillis());
+        for (int i = 0; i < multipleImageData.size(); i++) {
+            UdpDataHolder otherHolder = multipleImageData.valueAt(i);
+            if (otherHolder != dataHolder && otherHolder.isRepairRequested() && !otherHolder.isFinished()
+                    && nowMillis - otherHolder.getRepairRequestMillis() > repeatMillis) {
+                if (nackEncoder.addFrame(otherHolder)) {
+                    // Otherwise it is repeated with every following rerequest; also marks the repeat (Karn)
+                    otherHolder.setRepairRequested(nowMillis);
+                    rerequested += otherHolder.getMissingPacketCount();
+                }
+            }
+        }
+
+        try {
+            sendPacket(nackEncoder.getBuffer(), nackEncoder.getLength());
+
+            expectedPackets.add(rerequested);
+        } catch (IOException exc) {
+            RoverLog.e(TAG, "Problem during sending (compact rerequest) " + exc.getMessage());
+        }
+    }
+
+    private void sendPacket(byte[] data, int length) throws IOException {
+        PacketTap tap = packetTap;
+        if (tap != null) {
+            tap.packet(false, clock.nanoTime(), data, 0, length);
+        }
+
+        // Not when replaying
+        if (udpSocket != null) {
+            returnPacket.setData(data, 0, length);
+            udpSocket.send(returnPacket);
+        }
+    }
+
+    private boolean startsWith(byte[] data, int offset, int length, String prefix) {
+        if (length < prefix.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (data[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads an unsigned big endian short (like all numbers of the protocol); also for the simulator.
+     */
+    public static int readShort(byte[] data, int offset) {
+        return (data[offset] << 8) & 0xff00 | data[offset + 1] & 0xff;
+    }
+
+    public static int readInt(byte[] data, int offset) {
+        return (data[offset] << 24) & 0xff000000 | (data[offset + 1] << 16) & 0xff0000 | (data[offset + 2] << 8) & 0xff00 | data[offset + 3] & 0xff;
+    }
+
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+    private String asHex(byte[] buf, int offset, int length)
+    {
+        char[] chars = new char[2 * length];
+        for (int i = 0; i < length; ++i)
+        {
+            chars[2 * i] = HEX_CHARS[(buf[offset + i] & 0xF0) >>> 4];
+            chars[2 * i + 1] = HEX_CHARS[buf[offset + i] & 0x0F];
+        }
+
+        return new String(chars);
+    }
+
+    // TODO do not work so explicit
+    private boolean entryAlive(ControlCommand entry) {
+        if (entry.controlRequest.endsWith(" 0")) {
+            // Transmit every stop regardless of age
+            return true;
+        } else if ((entry.controlRequest.startsWith("status") || entry.controlRequest.startsWith("telemetry")) && entry.age() < ENTRY_STATUS_TOO_OLD) {
+            return true;
+        } else if (entry.controlRequest.startsWith("image_s") && entry.age() < ENTRY_IMAGE_STATUS_TOO_OLD) {
+            return true;
+        } else if (entry.age() < ENTRY_TOO_OLD) {
+            return true;
+        }
+
+        return false;
+    }
+
+    private boolean isStopMove(int forwardValue, int rightValue) {
+        return forwardValue == 500 && rightValue == 500;
+    }
+
+    private boolean isStopCommand(ControlCommand entry)
+    {
+        return entry.controlRequest.endsWith(" 0");
+    }
+}
@@ -0,0 +1,36 @@
+package de.lakoja.roverremote;
+
+/**
+ * A clock that only moves when told to (the replay sets it to the captured arrival times).
+ */
+public class VirtualClock implements TimeSource {
+    private final long startMillis;
+    private volatile long nanos = 0;
+
+    /**
+     * @param startMillis wall clock time at nano time 0
+     */
+    public VirtualClock(long startMillis) {
+        this.startMillis = startMillis;
+    }
+
+    public void setNanos(long nanos) {
+        if (nanos > this.nanos) {
+            this.nanos = nanos;
+        }
+    }
+
+    public void advanceNanos(long deltaNanos) {
+        setNanos(nanos + deltaNanos);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return startMillis + nanos / 1000000;
+    }
+
+    @Override
+    public long nanoTime() {
+        return nanos;
+    }
+}
@@ -0,0 +1,179 @@
+package de.lakoja.roverremote;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CommandTrackerTest {
+    private static final long MS = 1000000L;
+
+    private final byte[] packet = "CQ..move 500 500".getBytes();
+    private final List<Integer> retransmittedLengths = new ArrayList<>();
+    private final CommandTracker.Retransmitter retransmitter = new CommandTracker.Retransmitter() {
+        @Override
+        public void retransmit(byte[] packet, int length) {
+            retransmittedLengths.add(length);
+        }
+    };
+
+    @Test
+    public void acknowledgementIsRoundTripSample() {
+        CommandTracker tracker = new CommandTracker("test.tracker.sample");
+        tracker.sent(tracker.nextSequence(), packet, packet.length, false, false, 1000 * MS);
+
+        assertEquals(100 * MS, tracker.acknowledged(0, 1100 * MS));
+        assertEquals(100 * MS, tracker.getSmoothedRttNanos());
+        assertEquals(50 * MS, tracker.getRttVariationNanos());
+        // RFC 6298: srtt + 4 * rttvar
+        assertEquals(300 * MS, tracker.getRtoNanos());
+        assertEquals(1, tracker.getAcknowledged());
+    }
+
+    @Test
+    public void steadyRoundTripsNarrowTimeout() {
+        CommandTracker tracker = new CommandTracker("test.tracker.steady");
+        tracker.addRoundTripSample(100 * MS);
+        tracker.addRoundTripSample(100 * MS);
+
+        assertEquals(100 * MS, tracker.getSmoothedRttNanos());
+        assertEquals(37500000L, tracker.getRttVariationNanos());
+        assertEquals(250 * MS, tracker.getRtoNanos());
+    }
+
+    @Test
+    public void timeoutIsBounded() {
+        CommandTracker fast = new CommandTracker("test.tracker.fast");
+        fast.addRoundTripSample(MS);
+        assertEquals(40 * MS, fast.getRtoNanos());
+
+        CommandTracker slow = new CommandTracker("test.tracker.slow");
+        slow.addRoundTripSample(2000 * MS);
+        assertEquals(1000 * MS, slow.getRtoNanos());
+    }
+
+    @Test
+    public void duplicateAcknowledgementIsNoSample() {
+        CommandTracker tracker = new CommandTracker("test.tracker.duplicate");
+        tracker.sent(tracker.nextSequence(), packet, packet.length, false, false, 0);
+
+        tracker.acknowledged(0, 50 * MS);
+        assertEquals(-1, tracker.acknowledged(0, 60 * MS));
+        assertEquals(1, tracker.getDuplicateAcknowledgements());
+    }
+
+    @Test
+    public void criticalCommandIsRetransmittedWithBackoff() {
+        CommandTracker tracker = new CommandTracker("test.tracker.backoff");
+        tracker.sent(tracker.nextSequence(), packet, packet.length, true, false, 0);
+
+        // Initial timeout 250ms
+        tracker.checkTimeouts(249 * MS, retransmitter);
+        assertEquals(0, retransmittedLengths.size());
+        tracker.checkTimeouts(250 * MS, retransmitter);
+        assertEquals(1, retransmittedLengths.size());
+        assertEquals(packet.length, (int)retransmittedLengths.get(0));
+
+        // Doubled
+        tracker.checkTimeouts(250 * MS + 499 * MS, retransmitter);
+        assertEquals(1, retransmittedLengths.size());
+        tracker.checkTimeouts(250 * MS + 500 * MS, retransmitter);
+        assertEquals(2, retransmittedLengths.size());
+        assertEquals(2, tracker.getRetransmitted());
+    }
+
+    @Test
+    public void retransmittedCommandGivesNoSample() {
+        CommandTracker tracker = new CommandTracker("test.tracker.karn");
+        tracker.sent(tracker.nextSequence(), packet, packet.length, true, false, 0);
+        tracker.checkTimeouts(300 * MS, retransmitter);
+
+        // Karn: the answer may belong to either transmission
+        assertEquals(-1, tracker.acknowledged(0, 320 * MS));
+        assertEquals(1, tracker.getAcknowledged());
+        assertEquals(0, tracker.getSmoothedRttNanos());
+    }
+
+    @Test
+    public void criticalCommandIsGivenUpAfterRetransmits() {
+        CommandTracker tracker = new CommandTracker("test.tracker.giveUp");
+        tracker.sent(tracker.nextSequence(), packet, packet.length, true, false, 0);
+
+        for (long now = 0; now <= 10000 * MS; now += 10 * MS) {
+            tracker.checkTimeouts(now, retransmitter);
+        }
+
+        assertEquals(4, retransmittedLengths.size());
+        assertEquals(1, tracker.getLost());
+    }
+
+    @Test
+    public void otherCommandIsOnlyCountedLost() {
+        CommandTracker tracker = new CommandTracker("test.tracker.lost");
+        tracker.sent(tracker.nextSequence(), packet, packet.length, false, false, 0);
+
+        tracker.checkTimeouts(999 * MS, retransmitter);
+        assertEquals(0, tracker.getLost());
+        tracker.checkTimeouts(1000 * MS, retransmitter);
+
+        assertEquals(0, retransmittedLengths.size());
+        assertEquals(1, tracker.getLost());
+        assertEquals(1.0f, tracker.getLossRate(), 0);
+    }
+
+    @Test
+    public void newerMoveSupersedesOlderMove() {
+        CommandTracker tracker = new CommandTracker("test.tracker.moves");
+        tracker.sent(tracker.nextSequence(), packet, packet.length, true, true, 0);
+        tracker.sent(tracker.nextSequence(), packet, packet.length, true, true, 10 * MS);
+
+        tracker.checkTimeouts(300 * MS, retransmitter);
+
+        assertEquals(1, retransmittedLengths.size());
+    }
+
+    @Test
+    public void sequenceWrapsAt16Bits() {
+        CommandTracker tracker = new CommandTracker("test.tracker.wrap");
+        for (int i = 0; i < 0xffff; i++) {
+            tracker.nextSequence();
+        }
+
+        assertEquals(0xffff, tracker.nextSequence());
+        assertEquals(0, tracker.nextSequence());
+    }
+
+    @Test
+    public void windowWrapWithoutAnswerCountsLost() {
+        CommandTracker tracker = new CommandTracker("test.tracker.window");
+        for (int i = 0; i < 64; i++) {
+            tracker.sent(tracker.nextSequence(), packet, packet.length, false, false, 0);
+        }
+        assertEquals(0, tracker.getLost());
+
+        // Same slot as sequence 0
+        tracker.sent(tracker.nextSequence(), packet, packet.length, false, false, 0);
+        assertEquals(1, tracker.getLost());
+
+        // The old sequence is not in flight any more; the new one is
+        assertEquals(-1, tracker.acknowledged(0, 10 * MS));
+        assertEquals(10 * MS, tracker.acknowledged(64, 10 * MS));
+    }
+
+    @Test
+    public void acknowledgementAcrossSequenceWrap() {
+        CommandTracker tracker = new CommandTracker("test.tracker.acrossWrap");
+        for (int i = 0; i < 0xffff; i++) {
+            tracker.nextSequence();
+        }
+
+        tracker.sent(tracker.nextSequence(), packet, packet.length, false, false, 0);
+        tracker.sent(tracker.nextSequence(), packet, packet.length, false, false, 0);
+
+        assertEquals(5 * MS, tracker.acknowledged(0xffff, 5 * MS));
+        assertEquals(6 * MS, tracker.acknowledged(0, 6 * MS));
+        assertEquals(0, tracker.getDuplicateAcknowledgements());
+    }
+}
@@ -0,0 +1,107 @@
+package de.lakoja.roverremote;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The joystick values to move command path (Direction, ResponseCurve, CommandEncoder and the UDP
+ * connection handing the move packet to the CommandTracker) runs at the touch rate and must not
+ * produce garbage.
+ */
+public class ControlPathAllocationTest {
+    private static final int MOVES = 5000;
+    // The least of some rounds: the JIT compiling in between may show up once
+    private static final int ROUNDS = 5;
+
+    private final Direction direction = new Direction(0, 0);
+    private final ResponseCurve responseCurve = new ResponseCurve();
+    private final CommandEncoder encoder = new CommandEncoder(500);
+    private int checksum = 0;
+
+    @Test
+    public void encodesMove() {
+        direction.set(1, -0.5f);
+        encodeMove();
+
+        assertEquals("CTmove 1000 323", new String(encoder.getBuffer(), 0, encoder.getLength()));
+    }
+
+    @Test
+    public void movesAllocateNothing() {
+        long allocated = leastAllocated(new Runnable() {
+            @Override
+            public void run() {
+                encodeMoves();
+            }
+        });
+
+        assertEquals("Bytes allocated for " + MOVES + " moves", 0, allocated);
+        assertTrue(checksum != 0);
+    }
+
+    @Test
+    public void connectionMovesAllocateNothing() throws Exception {
+        // Not started: no socket, the packets end with the command tracker
+        final UdpRoverConnection connection = new UdpRoverConnection(0, InetAddress.getLoopbackAddress());
+        final VirtualClock clock = new VirtualClock(0);
+        connection.setTimeSource(clock);
+        connection.setAcknowledgedControl(true);
+
+        long allocated = leastAllocated(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < MOVES; i++) {
+                    clock.advanceNanos(1000000);
+                    // Now and then a stop (critical: copied for retransmission)
+                    int forward = i % 10 == 0 ? 500 : i % 1001;
+                    connection.sendMove(forward, 500);
+                    if (connection.sendPendingMove()) {
+                        checksum++;
+                    }
+                }
+            }
+        });
+
+        assertEquals("Bytes allocated for " + MOVES + " moves through the connection", 0, allocated);
+        assertTrue(checksum >= MOVES);
+    }
+
+    private static long leastAllocated(Runnable work) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        assertTrue("Allocation counting not supported", threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        // Class loading and the first call of the counter itself allocate
+        work.run();
+        threads.getThreadAllocatedBytes(threadId);
+
+        long least = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            work.run();
+            least = Math.min(least, threads.getThreadAllocatedBytes(threadId) - before);
+        }
+
+        return least;
+    }
+
+    private void encodeMoves() {
+        for (int i = 0; i < MOVES; i++) {
+            // Sweeps the whole range like a finger would
+            direction.set((i % 201 - 100) / 100.0f, (i % 67 - 33) / 33.0f);
+            encodeMove();
+        }
+    }
+
+    private void encodeMove() {
+        encoder.begin("CT");
+        encoder.appendMove(responseCurve.toCommandValue(direction.forward), responseCurve.toCommandValue(direction.right));
+        checksum += encoder.getLength();
+    }
+}
@@ -0,0 +1,84 @@
+package de.lakoja.roverremote;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+    private final Histogram histogram = new Histogram("test");
+
+    @Test
+    public void smallValuesHaveOwnBuckets() {
+        for (int value = 0; value < 32; value++) {
+            assertEquals(value, Histogram.bucketOf(value));
+            assertEquals(value, Histogram.highestValueOf(value));
+        }
+    }
+
+    @Test
+    public void bucketsAdjoin() {
+        for (int bucket = 0; bucket < 900; bucket++) {
+            long highest = Histogram.highestValueOf(bucket);
+            assertEquals("Highest of " + bucket, bucket, Histogram.bucketOf(highest));
+            assertEquals("Above highest of " + bucket, bucket + 1, Histogram.bucketOf(highest + 1));
+        }
+    }
+
+    @Test
+    public void bucketIsAtMostOneSixteenthWide() {
+        Random random = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(62));
+            long highest = Histogram.highestValueOf(Histogram.bucketOf(value));
+            assertTrue(value + " in bucket up to " + highest, highest >= value && highest - value <= value / 16);
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        assertEquals(1000, histogram.getMax());
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertInRange(500, histogram.getValueAtPercentile(50));
+        assertInRange(900, histogram.getValueAtPercentile(90));
+        assertInRange(990, histogram.getValueAtPercentile(99));
+        // Never above the maximum
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void emptyAndReset() {
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getMean(), 0);
+
+        histogram.record(123456);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void negativeValuesCountAsZero() {
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+
+    /**
+     * The percentile is the highest value of its bucket: at most 1/16 above.
+     */
+    private static void assertInRange(long expected, long actual) {
+        assertTrue(expected + " vs " + actual, actual >= expected && actual <= expected + expected / 16);
+    }
+}
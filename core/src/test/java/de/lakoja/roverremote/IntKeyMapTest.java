@@ -0,0 +1,63 @@
+package de.lakoja.roverremote;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class IntKeyMapTest {
+    @Test
+    public void keepsKeysSorted() {
+        IntKeyMap<String> map = new IntKeyMap<>(4);
+        map.put(30, "c");
+        map.put(10, "a");
+        map.put(20, "b");
+
+        assertEquals(3, map.size());
+        assertEquals(10, map.keyAt(0));
+        assertEquals(20, map.keyAt(1));
+        assertEquals(30, map.keyAt(2));
+        assertEquals("a", map.valueAt(0));
+        assertEquals("c", map.valueAt(2));
+    }
+
+    @Test
+    public void putReplacesValue() {
+        IntKeyMap<String> map = new IntKeyMap<>(4);
+        map.put(5, "a");
+        map.put(5, "b");
+
+        assertEquals(1, map.size());
+        assertEquals("b", map.get(5));
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() {
+        IntKeyMap<Integer> map = new IntKeyMap<>(0);
+        for (int i = 100; i > 0; i--) {
+            map.put(i * 3, i);
+        }
+
+        assertEquals(100, map.size());
+        for (int i = 1; i <= 100; i++) {
+            assertEquals(Integer.valueOf(i), map.get(i * 3));
+            assertEquals(i * 3, map.keyAt(i - 1));
+        }
+        assertNull(map.get(4));
+    }
+
+    @Test
+    public void clearEmpties() {
+        IntKeyMap<String> map = new IntKeyMap<>(2);
+        map.put(1, "a");
+        map.put(-1, "b");
+        map.clear();
+
+        assertEquals(0, map.size());
+        assertNull(map.get(1));
+        assertNull(map.get(-1));
+
+        map.put(2, "c");
+        assertEquals(2, map.keyAt(0));
+    }
+}
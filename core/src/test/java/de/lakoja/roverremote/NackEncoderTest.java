@@ -0,0 +1,163 @@
+package de.lakoja.roverremote;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NackEncoderTest {
+    private static final int PACKET_LENGTH = 1200;
+    // "MR" + frame count
+    private static final int PACKET_HEADER_LENGTH = 3;
+    // timestamp + total + encoding
+    private static final int FRAME_HEADER_LENGTH = 7;
+
+    private final byte[] packetData = new byte[PACKET_LENGTH];
+
+    @Test
+    public void fewRangesAreEncodedAsRanges() {
+        UdpDataHolder holder = frame(1000, 400, 10, 11, 12, 30);
+
+        NackEncoder encoder = new NackEncoder(1400);
+        assertTrue(encoder.addFrame(holder));
+
+        assertEquals(NackEncoder.ENCODING_RANGES, encoder.getBuffer()[PACKET_HEADER_LENGTH + FRAME_HEADER_LENGTH - 1]);
+        // Range count + two ranges (start and length)
+        assertEquals(PACKET_HEADER_LENGTH + FRAME_HEADER_LENGTH + 1 + 2 * 4, encoder.getLength());
+        assertEquals(Arrays.asList("1000:10", "1000:11", "1000:12", "1000:30"), decode(encoder));
+    }
+
+    @Test
+    public void scatteredPacketsAreEncodedAsBitmap() {
+        UdpDataHolder holder = frame(2000, 40, 1, 3, 5, 7, 9, 39);
+
+        NackEncoder encoder = new NackEncoder(1400);
+        assertTrue(encoder.addFrame(holder));
+
+        assertEquals(NackEncoder.ENCODING_BITMAP, encoder.getBuffer()[PACKET_HEADER_LENGTH + FRAME_HEADER_LENGTH - 1]);
+        assertEquals(PACKET_HEADER_LENGTH + FRAME_HEADER_LENGTH + 5, encoder.getLength());
+        assertEquals(Arrays.asList("2000:1", "2000:3", "2000:5", "2000:7", "2000:9", "2000:39"), decode(encoder));
+    }
+
+    @Test
+    public void severalFramesInOnePacket() {
+        NackEncoder encoder = new NackEncoder(1400);
+        assertTrue(encoder.addFrame(frame(100, 10, 0)));
+        assertTrue(encoder.addFrame(frame(200, 20, 0, 2, 4, 6, 8, 10, 12)));
+        assertTrue(encoder.addFrame(frame(300, 5, 4)));
+
+        assertEquals(3, encoder.getFrameCount());
+        assertEquals(Arrays.asList("100:0", "200:0", "200:2", "200:4", "200:6", "200:8", "200:10", "200:12", "300:4"),
+                decode(encoder));
+    }
+
+    @Test
+    public void roundTripGivesTheMissingPackets() {
+        for (int seed = 1; seed <= 50; seed++) {
+            Random random = new Random(seed);
+            int total = 1 + random.nextInt(200);
+            UdpDataHolder holder = new UdpDataHolder(seed, PACKET_LENGTH);
+            List<String> expected = new ArrayList<>();
+            boolean anyReceived = false;
+            for (int i = 0; i < total; i++) {
+                if (random.nextInt(4) == 0) {
+                    expected.add(seed + ":" + i);
+                } else {
+                    holder.add(i, total, packetData, 0, PACKET_LENGTH);
+                    anyReceived = true;
+                }
+            }
+            if (!anyReceived || expected.isEmpty()) {
+                continue;
+            }
+
+            NackEncoder encoder = new NackEncoder(1400);
+            assertTrue(encoder.addFrame(holder));
+            assertEquals("Seed " + seed, expected, decode(encoder));
+        }
+    }
+
+    @Test
+    public void frameNotFittingLeavesPacketUnchanged() {
+        // 200 packets need a bitmap of 25 bytes
+        UdpDataHolder holder = frame(500, 200, 1, 3, 5, 7, 9, 11, 13, 15, 17, 19);
+        NackEncoder encoder = new NackEncoder(PACKET_HEADER_LENGTH + 2 * (FRAME_HEADER_LENGTH + 25));
+
+        assertTrue(encoder.addFrame(holder));
+        assertTrue(encoder.addFrame(holder));
+        int length = encoder.getLength();
+        assertFalse(encoder.addFrame(holder));
+
+        assertEquals(length, encoder.getLength());
+        assertEquals(2, encoder.getFrameCount());
+        assertEquals(2, NackEncoder.decode(encoder.getBuffer(), 0, encoder.getLength(), new NackEncoder.MissingPacketListener() {
+            @Override
+            public void packetMissing(int timestamp, int packetNumber) {
+            }
+        }));
+    }
+
+    @Test
+    public void completeFrameIsNotAdded() {
+        NackEncoder encoder = new NackEncoder(1400);
+        UdpDataHolder holder = frame(700, 3);
+
+        assertFalse(encoder.addFrame(holder));
+        assertEquals(0, encoder.getFrameCount());
+    }
+
+    @Test
+    public void beginStartsAnEmptyPacket() {
+        NackEncoder encoder = new NackEncoder(1400);
+        assertTrue(encoder.addFrame(frame(800, 10, 5)));
+
+        encoder.begin();
+
+        assertEquals(PACKET_HEADER_LENGTH, encoder.getLength());
+        assertEquals(0, NackEncoder.decode(encoder.getBuffer(), 0, encoder.getLength(), null));
+    }
+
+    @Test
+    public void truncatedPacketIsMalformed() {
+        NackEncoder encoder = new NackEncoder(1400);
+        assertTrue(encoder.addFrame(frame(900, 400, 10, 11, 30)));
+
+        for (int length = 0; length < encoder.getLength(); length++) {
+            assertEquals("Length " + length, -1, NackEncoder.decode(encoder.getBuffer(), 0, length, new NackEncoder.MissingPacketListener() {
+                @Override
+                public void packetMissing(int timestamp, int packetNumber) {
+                }
+            }));
+        }
+    }
+
+    /**
+     * Frame with all packets received but the given (ascending) ones.
+     */
+    private UdpDataHolder frame(int timestamp, int total, int... missing) {
+        UdpDataHolder holder = new UdpDataHolder(timestamp, PACKET_LENGTH);
+        for (int i = 0; i < total; i++) {
+            if (Arrays.binarySearch(missing, i) < 0) {
+                holder.add(i, total, packetData, 0, PACKET_LENGTH);
+            }
+        }
+        return holder;
+    }
+
+    private static List<String> decode(NackEncoder encoder) {
+        final List<String> missing = new ArrayList<>();
+        NackEncoder.decode(encoder.getBuffer(), 0, encoder.getLength(), new NackEncoder.MissingPacketListener() {
+            @Override
+            public void packetMissing(int timestamp, int packetNumber) {
+                missing.add(timestamp + ":" + packetNumber);
+            }
+        });
+        return missing;
+    }
+}
@@ -0,0 +1,80 @@
+package de.lakoja.roverremote;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * With the defaults (300 KB/s, 30ms round trip, 100ms frame interval) a frame of 20 packets takes about 78ms.
+ */
+public class RetransmissionPolicyTest {
+    private final RetransmissionPolicy policy = new RetransmissionPolicy(1200);
+
+    @Test
+    public void repairsFewMissingPackets() {
+        assertTrue(policy.shouldRepair(1, 20, 0, false, 1000));
+    }
+
+    @Test
+    public void neverRepairsMoreThanHalf() {
+        assertTrue(policy.shouldRepair(10, 20, 1000, false, 1000));
+        assertFalse(policy.shouldRepair(11, 20, 1000, false, 1000));
+        assertFalse(policy.shouldRepair(0, 20, 0, false, 1000));
+    }
+
+    @Test
+    public void slowRoundTripMakesRepairPointless() {
+        for (int i = 0; i < 100; i++) {
+            policy.addRoundTripSample(500);
+        }
+
+        assertEquals(500, policy.getRttMillis(), 1);
+        assertFalse(policy.shouldRepair(1, 20, 0, false, 1000));
+    }
+
+    @Test
+    public void implausibleRoundTripsAreIgnored() {
+        policy.addRoundTripSample(5000);
+        policy.addRoundTripSample(-1);
+
+        assertEquals(30, policy.getRttMillis(), 0);
+    }
+
+    @Test
+    public void newerFrameAlreadyArrivingLeavesLessTime() {
+        policy.frameStarted(1000);
+
+        assertTrue(policy.shouldRepair(1, 20, 0, true, 1000));
+        // Most of the next frame is there already
+        assertFalse(policy.shouldRepair(1, 20, 0, true, 1060));
+        // The next frame has not started: it is about 40ms plus its transfer away
+        assertTrue(policy.shouldRepair(1, 20, 0, false, 1060));
+    }
+
+    @Test
+    public void frameIntervalIsSmoothed() {
+        policy.frameStarted(1000);
+        policy.frameStarted(1050);
+        assertEquals(93.75, policy.getFrameIntervalMillis(), 0.001);
+
+        // A pause of the stream
+        policy.frameStarted(9000);
+        assertEquals(93.75, policy.getFrameIntervalMillis(), 0.001);
+    }
+
+    @Test
+    public void decisionsAreCounted() {
+        int requested = policy.getRepairsRequested();
+        int packets = policy.getPacketsRerequested();
+        int discarded = policy.getFramesDiscarded();
+
+        policy.shouldRepair(2, 20, 0, false, 1000);
+        policy.shouldRepair(15, 20, 0, false, 1000);
+
+        assertEquals(requested + 1, policy.getRepairsRequested());
+        assertEquals(packets + 2, policy.getPacketsRerequested());
+        assertEquals(discarded + 1, policy.getFramesDiscarded());
+    }
+}
@@ -0,0 +1,135 @@
+package de.lakoja.roverremote;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TelemetryParserTest {
+    private final TelemetryParser parser = new TelemetryParser();
+    private final RoverStatus status = new RoverStatus();
+
+    @Test
+    public void parsesBinaryFrame() {
+        byte[] frame = frame(TelemetryParser.V1_LENGTH);
+
+        assertTrue(parser.parseBinary(frame, 0, frame.length, status, 777));
+
+        assertTrue(status.isLed1On());
+        assertFalse(status.isLed2On());
+        assertTrue(status.isIrLedOn());
+        assertEquals(4.123f, status.getVoltage(), 0.0001f);
+        assertEquals(1, status.getVersion());
+        assertEquals(65000, status.getSequence());
+        assertEquals(0xfffffff0L, status.getRoverMillis());
+        assertEquals(1234567, status.getFramesSent());
+        assertEquals(7654321, status.getPacketsSent());
+        assertEquals(321, status.getPacketsResent());
+        assertEquals(-61, status.getRoverRssi());
+        assertEquals(777, status.getReceivedMillis());
+    }
+
+    @Test
+    public void parsesAtOffset() {
+        byte[] frame = frame(TelemetryParser.V1_LENGTH);
+        byte[] data = new byte[frame.length + 5];
+        System.arraycopy(frame, 0, data, 5, frame.length);
+
+        assertTrue(parser.parseBinary(data, 5, frame.length, status, 0));
+        assertEquals(1234567, status.getFramesSent());
+    }
+
+    @Test
+    public void laterVersionMayAppendFields() {
+        byte[] frame = frame(TelemetryParser.V1_LENGTH + 6);
+        frame[TelemetryParser.VERSION_OFFSET] = 2;
+
+        assertTrue(parser.parseBinary(frame, 0, frame.length, status, 0));
+        assertEquals(2, status.getVersion());
+        assertEquals(321, status.getPacketsResent());
+    }
+
+    @Test
+    public void rejectsMalformedFrames() {
+        byte[] frame = frame(TelemetryParser.V1_LENGTH);
+        assertFalse(parser.parseBinary(frame, 0, frame.length - 1, status, 0));
+
+        byte[] wrongHeader = frame.clone();
+        wrongHeader[1] = 'X';
+        assertFalse(parser.parseBinary(wrongHeader, 0, wrongHeader.length, status, 0));
+
+        byte[] noVersion = frame.clone();
+        noVersion[TelemetryParser.VERSION_OFFSET] = 0;
+        assertFalse(parser.parseBinary(noVersion, 0, noVersion.length, status, 0));
+
+        // Unchanged
+        assertEquals(0, status.getVersion());
+        assertEquals(0, status.getReceivedMillis());
+    }
+
+    @Test
+    public void parsesTextReply() {
+        assertTrue(parser.parseText("VOLT 4.12", status, 55));
+        assertEquals(4.12f, status.getVoltage(), 0.0001f);
+        assertEquals(55, status.getReceivedMillis());
+
+        assertTrue(parser.parseText("VOLT  3.9\r\n", status, 0));
+        assertEquals(3.9f, status.getVoltage(), 0.0001f);
+
+        assertTrue(parser.parseText("VOLT 4", status, 0));
+        assertEquals(4f, status.getVoltage(), 0);
+    }
+
+    @Test
+    public void parsesTextInPacket() {
+        byte[] packet = "CTVOLT 3.75".getBytes();
+
+        assertTrue(parser.parseText(packet, 2, packet.length - 2, status, 0));
+        assertEquals(3.75f, status.getVoltage(), 0.0001f);
+    }
+
+    @Test
+    public void rejectsMalformedText() {
+        float voltage = status.getVoltage();
+
+        assertFalse(parser.parseText("VOLT", status, 0));
+        assertFalse(parser.parseText("VOLT ", status, 0));
+        assertFalse(parser.parseText("VOLT abc", status, 0));
+        assertFalse(parser.parseText("VOLT 4.1.2", status, 0));
+        assertFalse(parser.parseText("VOLT 12345678901", status, 0));
+
+        assertEquals(voltage, status.getVoltage(), 0);
+    }
+
+    private static byte[] frame(int length) {
+        byte[] frame = new byte[length];
+        Arrays.fill(frame, (byte)0x55);
+        frame[0] = 'T';
+        frame[1] = 'M';
+        frame[TelemetryParser.VERSION_OFFSET] = TelemetryParser.VERSION;
+        frame[TelemetryParser.FLAGS_OFFSET] = TelemetryParser.LED1_FLAG | TelemetryParser.IR_LED_FLAG;
+        writeShort(frame, TelemetryParser.VOLTAGE_OFFSET, 4123);
+        writeInt(frame, TelemetryParser.MILLIS_OFFSET, 0xfffffff0);
+        writeShort(frame, TelemetryParser.SEQUENCE_OFFSET, 65000);
+        writeInt(frame, TelemetryParser.FRAMES_SENT_OFFSET, 1234567);
+        writeInt(frame, TelemetryParser.PACKETS_SENT_OFFSET, 7654321);
+        writeShort(frame, TelemetryParser.PACKETS_RESENT_OFFSET, 321);
+        frame[TelemetryParser.RSSI_OFFSET] = -61;
+        return frame;
+    }
+
+    private static void writeShort(byte[] data, int offset, int value) {
+        data[offset] = (byte)(value >> 8);
+        data[offset + 1] = (byte)value;
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte)(value >> 24);
+        data[offset + 1] = (byte)(value >> 16);
+        data[offset + 2] = (byte)(value >> 8);
+        data[offset + 3] = (byte)value;
+    }
+}
@@ -0,0 +1,126 @@
+package de.lakoja.roverremote;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UdpDataHolderTest {
+    private static final int PACKET_LENGTH = 1200;
+
+    private final byte[] packetData = new byte[PACKET_LENGTH];
+
+    @Test
+    public void missingPacketsUntilComplete() {
+        UdpDataHolder holder = new UdpDataHolder(100, PACKET_LENGTH);
+        holder.add(0, 4, packetData, 0, PACKET_LENGTH, 1000, 0);
+        holder.add(3, 4, packetData, 0, 300, 1010, 0);
+
+        assertFalse(holder.isDataComplete());
+        assertArrayEquals(new int[] { 1, 2 }, holder.currentlyMissingPackets());
+        assertEquals(2, holder.getMissingPacketCount());
+
+        holder.add(2, 4, packetData, 0, PACKET_LENGTH, 1020, 0);
+        holder.add(1, 4, packetData, 0, PACKET_LENGTH, 1030, 0);
+
+        assertTrue(holder.isDataComplete());
+        assertArrayEquals(new int[0], holder.currentlyMissingPackets());
+        assertEquals(1000, holder.getFirstDataMillis());
+        assertEquals(40, holder.getReceiveMillis(1040));
+    }
+
+    @Test
+    public void dataIsPlacedByPacketNumber() {
+        UdpDataHolder holder = new UdpDataHolder(100, 4);
+        holder.add(1, 2, new byte[] { 9, 5, 6, 7, 8 }, 1, 4);
+        holder.add(0, 2, new byte[] { 1, 2, 3, 4 }, 0, 4);
+
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }, holder.getData());
+    }
+
+    @Test
+    public void realLengthWithShortLastPacket() {
+        UdpDataHolder holder = new UdpDataHolder(100, PACKET_LENGTH);
+        holder.add(0, 3, packetData, 0, PACKET_LENGTH);
+        assertEquals(3 * PACKET_LENGTH, holder.getDataLength());
+
+        holder.add(2, 3, packetData, 0, 17);
+        assertEquals(2 * PACKET_LENGTH + 17, holder.getDataLength());
+        assertEquals(3 * PACKET_LENGTH, holder.getData().length);
+    }
+
+    @Test
+    public void noDataLengthWithoutPackets() {
+        assertEquals(0, new UdpDataHolder(100, PACKET_LENGTH).getDataLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void differingTotalIsRejected() {
+        UdpDataHolder holder = new UdpDataHolder(100, PACKET_LENGTH);
+        holder.add(0, 4, packetData, 0, PACKET_LENGTH);
+        holder.add(1, 5, packetData, 0, PACKET_LENGTH);
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void sectionOutsideOfDataIsRejected() {
+        new UdpDataHolder(100, PACKET_LENGTH).add(0, 4, packetData, 10, PACKET_LENGTH);
+    }
+
+    @Test
+    public void firstAnswerToRerequestIsRoundTrip() {
+        UdpDataHolder holder = holderMissing(1, 2);
+        holder.setRepairRequested(1000);
+
+        assertTrue(holder.isRepairRequested());
+        assertEquals(25, holder.repairAnswered(2, 1025));
+        holder.add(2, 4, packetData, 0, PACKET_LENGTH);
+        assertEquals(-1, holder.repairAnswered(1, 1030));
+    }
+
+    @Test
+    public void packetsNotRerequestedAreNoAnswer() {
+        UdpDataHolder holder = holderMissing(1);
+        holder.setRepairRequested(1000);
+
+        // Received before, so not rerequested
+        assertEquals(-1, holder.repairAnswered(0, 1010));
+        assertEquals(30, holder.repairAnswered(1, 1030));
+    }
+
+    @Test
+    public void noRoundTripWithoutRerequest() {
+        UdpDataHolder holder = holderMissing(1);
+
+        assertFalse(holder.isRepairRequested());
+        assertEquals(-1, holder.repairAnswered(1, 1010));
+    }
+
+    @Test
+    public void repeatedRerequestGivesNoRoundTrip() {
+        UdpDataHolder holder = holderMissing(1);
+        holder.setRepairRequested(1000);
+        holder.setRepairRequested(1060);
+
+        assertEquals(1060, holder.getRepairRequestMillis());
+        assertEquals(-1, holder.repairAnswered(1, 1070));
+    }
+
+    /**
+     * A frame of 4 packets lacking the given ones.
+     */
+    private UdpDataHolder holderMissing(int... missing) {
+        UdpDataHolder holder = new UdpDataHolder(100, PACKET_LENGTH);
+        for (int i = 0; i < 4; i++) {
+            boolean isMissing = false;
+            for (int m : missing) {
+                isMissing |= m == i;
+            }
+            if (!isMissing) {
+                holder.add(i, 4, packetData, 0, PACKET_LENGTH);
+            }
+        }
+        return holder;
+    }
+}
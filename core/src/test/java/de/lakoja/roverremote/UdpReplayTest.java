@@ -0,0 +1,134 @@
+package de.lakoja.roverremote;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Replays a synthetic capture of six frames with two losses: one is repaired, the answer to the
+ * rerequest of the other never arrives.
+ */
+public class UdpReplayTest {
+    private static final int PACKETS_PER_FRAME = 20;
+    private static final int FRAMES = 6;
+    private static final long PACKET_INTERVAL_NANOS = 4000000;
+    private static final long FRAME_INTERVAL_NANOS = 100000000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DataOutputStream output;
+
+    @Test
+    public void repairsWhatCanBeRepaired() throws IOException {
+        File capture = writeCapture();
+
+        UdpReplay replay = new UdpReplay(capture);
+        replay.replay(new UdpRoverConnection(0, InetAddress.getLoopbackAddress()));
+
+        MetricsSnapshot metrics = MetricsRegistry.getDefault().snapshot();
+        assertEquals(FRAMES * PACKETS_PER_FRAME - 1, replay.getPacketsReplayed());
+        assertEquals(4, metrics.getCounter("udp.frames.complete"));
+        assertEquals(1, metrics.getCounter("udp.frames.repaired"));
+        assertEquals(1, metrics.getCounter("udp.frames.dropped"));
+        assertEquals(2, metrics.getCounter("repairs.requested"));
+        assertEquals(1, metrics.getCounter("repairs.succeeded"));
+        assertEquals(1, metrics.getCounter("repairs.failed"));
+        assertEquals(2, replay.getPacketsSent());
+        assertEquals(1, replay.getPacketsCapturedOutgoing());
+    }
+
+    @Test
+    public void replaysAlike() throws IOException {
+        File capture = writeCapture();
+
+        UdpReplay first = new UdpReplay(capture);
+        first.replay(new UdpRoverConnection(0, InetAddress.getLoopbackAddress()));
+        long firstRepaired = MetricsRegistry.getDefault().snapshot().getCounter("udp.frames.repaired");
+
+        UdpReplay second = new UdpReplay(capture);
+        second.replay(new UdpRoverConnection(0, InetAddress.getLoopbackAddress()));
+
+        assertEquals(first.getPacketsSent(), second.getPacketsSent());
+        assertEquals(firstRepaired, MetricsRegistry.getDefault().snapshot().getCounter("udp.frames.repaired"));
+    }
+
+    /**
+     * Frame 1 lacks packet 7 (its rerequest is answered 10ms later), frame 3 its last packet (not answered).
+     */
+    private File writeCapture() throws IOException {
+        File file = folder.newFile(UdpCapture.FILE_NAME);
+        output = new DataOutputStream(new FileOutputStream(file));
+        try {
+            output.writeInt(UdpCapture.MAGIC);
+            output.writeShort(UdpCapture.VERSION);
+            output.writeShort(0);
+            output.writeLong(1500000000000L);
+
+            for (int frame = 0; frame < FRAMES; frame++) {
+                long frameNanos = frame * FRAME_INTERVAL_NANOS;
+                for (int packet = 0; packet < PACKETS_PER_FRAME; packet++) {
+                    boolean lost = frame == 1 && packet == 7 || frame == 3 && packet == PACKETS_PER_FRAME - 1;
+                    if (!lost) {
+                        writeImagePacket(frameNanos + packet * PACKET_INTERVAL_NANOS, frame, packet);
+                    }
+                }
+
+                if (frame == 1) {
+                    long lastPacketNanos = frameNanos + (PACKETS_PER_FRAME - 1) * PACKET_INTERVAL_NANOS;
+                    // What the connection sent (not replayed) and the answer
+                    writeRecord(false, lastPacketNanos, new byte[] { 'M', 'N' }, 2);
+                    writeImagePacket(lastPacketNanos + 10000000, frame, 7);
+                }
+            }
+        } finally {
+            output.close();
+        }
+
+        return file;
+    }
+
+    private void writeImagePacket(long nanos, int frame, int packetNumber) throws IOException {
+        int timestamp = 10000 + frame * 100;
+        // The last packet is shorter
+        int dataLength = packetNumber == PACKETS_PER_FRAME - 1 ? 500 : 1200;
+        byte[] packet = new byte[10 + dataLength];
+        packet[0] = 'R';
+        packet[1] = 'I';
+        writeInt(packet, 2, timestamp);
+        writeShort(packet, 6, packetNumber);
+        writeShort(packet, 8, PACKETS_PER_FRAME);
+        for (int i = 10; i < packet.length; i++) {
+            packet[i] = (byte)(timestamp + i);
+        }
+
+        writeRecord(true, nanos, packet, packet.length);
+    }
+
+    private void writeRecord(boolean incoming, long nanos, byte[] data, int length) throws IOException {
+        output.writeByte(incoming ? 1 : 0);
+        output.writeLong(nanos);
+        output.writeShort(length);
+        output.write(data, 0, length);
+    }
+
+    private static void writeShort(byte[] data, int offset, int value) {
+        data[offset] = (byte)(value >> 8);
+        data[offset + 1] = (byte)value;
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte)(value >> 24);
+        data[offset + 1] = (byte)(value >> 16);
+        data[offset + 2] = (byte)(value >> 8);
+        data[offset + 3] = (byte)value;
+    }
+}
@@ -0,0 +1,143 @@
+package de.lakoja.roverremote.simulator;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Camera stand-in: jpeg frames with a moving pattern and the frame number. A number of frames is
+ * encoded up front and then repeated so that high frame rates do not depend on encoding speed.
+ */
+public class FrameSource {
+    private static final int MAX_COMMENT_LENGTH = 65533;
+
+    private final byte[][] frames;
+    private int next = 0;
+
+    public FrameSource(int width, int height, float quality, int minFrameBytes, int distinctFrames) throws IOException {
+        frames = new byte[distinctFrames][];
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int i = 0; i < distinctFrames; i++) {
+            draw(image, i, distinctFrames);
+            frames[i] = pad(encode(image, quality), minFrameBytes);
+        }
+    }
+
+    /**
+     * @return the next frame (the same arrays come again after all distinct frames)
+     */
+    public synchronized byte[] nextFrame() {
+        byte[] frame = frames[next];
+        next = (next + 1) % frames.length;
+        return frame;
+    }
+
+    /**
+     * @return the frame with the given (ever increasing) number
+     */
+    public byte[] frame(long number) {
+        return frames[(int)(number % frames.length)];
+    }
+
+    public int getAverageFrameBytes() {
+        long sum = 0;
+        for (byte[] frame : frames) {
+            sum += frame.length;
+        }
+        return (int)(sum / frames.length);
+    }
+
+    private static void draw(BufferedImage image, int number, int count) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Graphics2D graphics = image.createGraphics();
+
+        // Some texture so that the jpeg size is realistic
+        for (int y = 0; y < height; y += 8) {
+            for (int x = 0; x < width; x += 8) {
+                int shade = ((x * 7 + y * 13 + number * 16) & 0xff);
+                graphics.setColor(new Color(shade, (shade + x) & 0xff, (shade + y) & 0xff));
+                graphics.fillRect(x, y, 8, 8);
+            }
+        }
+
+        int position = number * (width - height / 4) / count;
+        graphics.setColor(Color.WHITE);
+        graphics.fillOval(position, height / 2 - height / 8, height / 4, height / 4);
+
+        graphics.setColor(Color.BLACK);
+        graphics.setFont(new Font(Font.MONOSPACED, Font.BOLD, Math.max(10, height / 12)));
+        graphics.drawString("SIM " + number, width / 20, height / 6);
+        graphics.dispose();
+    }
+
+    private static byte[] encode(BufferedImage image, float quality) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IOException("No jpeg encoder");
+        }
+        ImageWriter writer = writers.next();
+
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(image.getWidth() * image.getHeight() / 4);
+        ImageOutputStream imageOutput = ImageIO.createImageOutputStream(output);
+        try {
+            writer.setOutput(imageOutput);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            imageOutput.close();
+            writer.dispose();
+        }
+
+        return output.toByteArray();
+    }
+
+    /**
+     * Inserts comment segments after the start of image marker (decoders skip them).
+     */
+    private static byte[] pad(byte[] jpeg, int minBytes) {
+        int missing = minBytes - jpeg.length;
+        if (missing <= 0) {
+            return jpeg;
+        }
+
+        // A comment segment has at least 4 bytes (marker and length)
+        int padding = Math.max(missing, 4);
+        byte[] padded = new byte[jpeg.length + padding];
+
+        padded[0] = jpeg[0];
+        padded[1] = jpeg[1];
+        int pos = 2;
+        int left = padding;
+        while (left > 0) {
+            int segmentLength = Math.min(left, MAX_COMMENT_LENGTH + 4);
+            if (left - segmentLength > 0 && left - segmentLength < 4) {
+                // The rest would not fit into a segment of its own
+                segmentLength -= 4;
+            }
+            padded[pos] = (byte)0xff;
+            padded[pos + 1] = (byte)0xfe;
+            padded[pos + 2] = (byte)((segmentLength - 2) >> 8);
+            padded[pos + 3] = (byte)(segmentLength - 2);
+            pos += segmentLength;
+            left -= segmentLength;
+        }
+
+        System.arraycopy(jpeg, 2, padded, pos, jpeg.length - 2);
+        return padded;
+    }
+}
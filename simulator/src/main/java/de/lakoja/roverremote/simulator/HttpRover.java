@@ -0,0 +1,155 @@
+package de.lakoja.roverremote.simulator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * The HTTP side of the rover as the app's ImageConnection expects it: one request per line (without
+ * further headers); "GET / HTTP/1.1" answers with the newest frame or "NOIY" if there is no new one
+ * since the last request, "GET /command" with a reply line.
+ */
+public class HttpRover extends Thread {
+    private static final Logger LOG = Logger.getLogger(HttpRover.class.getName());
+    private static final String IMAGE_REQUEST = "GET / HTTP/1.1";
+    private static final String COMMAND_PREFIX = "GET /";
+
+    private final SimulatorConfig config;
+    private final FrameSource frameSource;
+    private final RoverState state;
+    private final ServerSocket serverSocket;
+    private final long startNanos = System.nanoTime();
+    private volatile boolean active = true;
+
+    public HttpRover(SimulatorConfig config, FrameSource frameSource, RoverState state) throws IOException {
+        super("HttpRover");
+        this.config = config;
+        this.frameSource = frameSource;
+        this.state = state;
+
+        serverSocket = new ServerSocket(config.httpPort);
+    }
+
+    public void stopActive() {
+        active = false;
+        try {
+            serverSocket.close();
+        } catch (IOException exc) {
+            // closing anyway
+        }
+    }
+
+    @Override
+    public void run() {
+        LOG.info("HTTP rover on port " + config.httpPort);
+
+        while (active) {
+            try {
+                final Socket client = serverSocket.accept();
+                client.setTcpNoDelay(true);
+                LOG.info("HTTP client " + client.getRemoteSocketAddress());
+
+                Thread handler = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(client);
+                    }
+                }, "HttpClient");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException exc) {
+                if (active) {
+                    LOG.severe("Cannot accept " + exc.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        long lastFrameNumber = -1;
+        long frameIntervalNanos = 1000000000L / config.fps;
+
+        try {
+            InputStream input = new BufferedInputStream(client.getInputStream());
+            OutputStream output = client.getOutputStream();
+            ImpairmentConfig impairment = config.impairment;
+            if (impairment.rateBytesPerSecond > 0) {
+                output = new ThrottledOutputStream(output, impairment.rateBytesPerSecond, impairment.bucketBytes);
+            }
+            output = new BufferedOutputStream(output, 64 * 1024);
+            Random random = new Random(impairment.seed);
+            StringBuilder line = new StringBuilder(100);
+
+            while (active && readLine(input, line)) {
+                String request = line.toString();
+
+                // Request and response both travel
+                long delayMillis = 2 * impairment.delayMillis + (long)(random.nextDouble() * 2 * impairment.jitterMillis);
+                if (delayMillis > 0) {
+                    try {
+                        Thread.sleep(delayMillis);
+                    } catch (InterruptedException exc) {
+                        break;
+                    }
+                }
+
+                if (request.equals(IMAGE_REQUEST)) {
+                    long frameNumber = (System.nanoTime() - startNanos) / frameIntervalNanos;
+                    if (frameNumber == lastFrameNumber) {
+                        write(output, "HTTP/1.1 200 OK\r\nNOIY\r\n");
+                    } else {
+                        byte[] jpeg = frameSource.frame(frameNumber);
+                        write(output, "HTTP/1.1 200 OK\r\nContent-Type: image/jpeg\r\nContent-Length: " + jpeg.length + "\r\n\r\n");
+                        output.write(jpeg);
+                        state.frameSent(1);
+                        lastFrameNumber = frameNumber;
+                    }
+                } else if (request.startsWith(COMMAND_PREFIX)) {
+                    write(output, state.handleCommand(request.substring(COMMAND_PREFIX.length()).trim()) + "\r\n");
+                } else if (request.length() > 0) {
+                    LOG.warning("Unknown request " + request);
+                }
+
+                output.flush();
+            }
+        } catch (IOException exc) {
+            LOG.info("HTTP client gone " + exc.getMessage());
+        } finally {
+            try {
+                client.close();
+            } catch (IOException exc) {
+                // closed anyway
+            }
+        }
+    }
+
+    /**
+     * @return false at the end of the stream
+     */
+    private static boolean readLine(InputStream input, StringBuilder line) throws IOException {
+        line.setLength(0);
+
+        int c;
+        while ((c = input.read()) != -1) {
+            if (c == '\n') {
+                return true;
+            }
+            if (c != '\r') {
+                line.append((char)c);
+            }
+        }
+
+        return false;
+    }
+
+    private static void write(OutputStream output, String text) throws IOException {
+        output.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,96 @@
+package de.lakoja.roverremote.simulator;
+
+import java.util.PriorityQueue;
+
+/**
+ * Holds packets back until the impairment lets them through; then hands them to the receiver
+ * (on this thread). Packets are copied when entering.
+ */
+public class ImpairedChannel extends Thread {
+    public interface Receiver {
+        void deliver(byte[] data, int length);
+    }
+
+    private static class Pending implements Comparable<Pending> {
+        final long dueNanos;
+        final long order;
+        final byte[] data;
+
+        Pending(long dueNanos, long order, byte[] data) {
+            this.dueNanos = dueNanos;
+            this.order = order;
+            this.data = data;
+        }
+
+        @Override
+        public int compareTo(Pending other) {
+            if (dueNanos != other.dueNanos) {
+                return dueNanos < other.dueNanos ? -1 : 1;
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+
+    private final Impairment impairment;
+    private final Receiver receiver;
+    private final PriorityQueue<Pending> pending = new PriorityQueue<>();
+    private long nextOrder = 0;
+    private volatile boolean active = true;
+
+    public ImpairedChannel(String name, ImpairmentConfig config, Receiver receiver) {
+        super(name);
+        this.impairment = new Impairment(config);
+        this.receiver = receiver;
+        setDaemon(true);
+    }
+
+    public void stopActive() {
+        active = false;
+        interrupt();
+    }
+
+    public void send(byte[] data, int offset, int length) {
+        long nowNanos = System.nanoTime();
+        long dueNanos = impairment.schedule(length, nowNanos);
+        if (dueNanos == Impairment.LOST) {
+            return;
+        }
+        int copies = impairment.isDuplicated() ? 2 : 1;
+
+        byte[] copy = new byte[length];
+        System.arraycopy(data, offset, copy, 0, length);
+
+        synchronized (pending) {
+            for (int i = 0; i < copies; i++) {
+                pending.add(new Pending(dueNanos, nextOrder++, copy));
+            }
+            pending.notify();
+        }
+    }
+
+    public String statistics() {
+        return impairment.statistics();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (active) {
+                Pending next;
+                synchronized (pending) {
+                    next = pending.peek();
+                    long waitNanos = next == null ? 100000000L : next.dueNanos - System.nanoTime();
+                    if (waitNanos > 0) {
+                        pending.wait(waitNanos / 1000000, (int)(waitNanos % 1000000));
+                        continue;
+                    }
+                    pending.poll();
+                }
+
+                receiver.deliver(next.data, next.data.length);
+            }
+        } catch (InterruptedException exc) {
+            // stopped
+        }
+    }
+}
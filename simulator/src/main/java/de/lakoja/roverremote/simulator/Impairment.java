@@ -0,0 +1,97 @@
+package de.lakoja.roverremote.simulator;
+
+import java.util.Random;
+
+/**
+ * Decides the fate of every packet: lost, delayed (how long), reordered or duplicated. Only the
+ * seeded random numbers and the packet sequence (sizes and times for the rate limit) matter; the same
+ * seed gives the same decisions.
+ *
+ * Loss follows a Gilbert-Elliott model (a good and a bad state with their own loss probabilities),
+ * the rate limit a token bucket.
+ */
+public class Impairment {
+    public static final long LOST = -1;
+
+    private final ImpairmentConfig config;
+    private final Random random;
+    private boolean badState = false;
+    // Virtual departure time of the token bucket
+    private long bucketNanos = Long.MIN_VALUE;
+    private long lastDeliveryNanos = 0;
+    private boolean lastDuplicated = false;
+
+    private long packets = 0;
+    private long lost = 0;
+    private long rateDropped = 0;
+    private long reordered = 0;
+    private long duplicated = 0;
+
+    public Impairment(ImpairmentConfig config) {
+        this.config = config;
+        this.random = new Random(config.seed);
+    }
+
+    /**
+     * @return the delivery time of the packet or LOST
+     */
+    public synchronized long schedule(int length, long nowNanos) {
+        packets++;
+
+        // Always draw the same numbers per packet: the decisions do not depend on which impairments are active
+        double stateDraw = random.nextDouble();
+        double lossDraw = random.nextDouble();
+        double reorderDraw = random.nextDouble();
+        double jitterDraw = random.nextDouble();
+        double duplicateDraw = random.nextDouble();
+        lastDuplicated = false;
+
+        if (badState ? stateDraw < config.badToGood : stateDraw < config.goodToBad) {
+            badState = !badState;
+        }
+        if (lossDraw < (badState ? config.lossBad : config.lossGood)) {
+            lost++;
+            return LOST;
+        }
+
+        long departureNanos = nowNanos;
+        if (config.rateBytesPerSecond > 0) {
+            long bucketDepthNanos = config.bucketBytes * 1000000000L / config.rateBytesPerSecond;
+            long startNanos = Math.max(bucketNanos, nowNanos - bucketDepthNanos);
+            long finishNanos = startNanos + length * 1000000000L / config.rateBytesPerSecond;
+            departureNanos = Math.max(nowNanos, finishNanos);
+            if (departureNanos - nowNanos > config.maxQueueMillis * 1000000L) {
+                rateDropped++;
+                return LOST;
+            }
+            bucketNanos = finishNanos;
+        }
+
+        if (duplicateDraw < config.duplicate) {
+            duplicated++;
+            lastDuplicated = true;
+        }
+
+        long deliveryNanos = departureNanos + config.delayMillis * 1000000L + (long)(jitterDraw * config.jitterMillis * 1000000L);
+        if (reorderDraw < config.reorder) {
+            reordered++;
+            return deliveryNanos + config.reorderDelayMillis * 1000000L;
+        }
+
+        // Jitter alone does not reorder
+        deliveryNanos = Math.max(deliveryNanos, lastDeliveryNanos);
+        lastDeliveryNanos = deliveryNanos;
+        return deliveryNanos;
+    }
+
+    /**
+     * @return whether the packet last scheduled is to be delivered twice
+     */
+    public synchronized boolean isDuplicated() {
+        return lastDuplicated;
+    }
+
+    public synchronized String statistics() {
+        return "packets " + packets + " lost " + lost + " rateDropped " + rateDropped + " reordered " + reordered + " duplicated " + duplicated;
+    }
+}
@@ -0,0 +1,134 @@
+package de.lakoja.roverremote.simulator;
+
+/**
+ * Network conditions to emulate. Everything is off by default.
+ */
+public class ImpairmentConfig {
+    long seed = 1;
+    // Gilbert-Elliott loss: state changes good -> bad and bad -> good per packet and loss in each state
+    double goodToBad = 0;
+    double badToGood = 1;
+    double lossGood = 0;
+    double lossBad = 0;
+    double reorder = 0;
+    // Extra delay of a reordered packet (later ones overtake it)
+    long reorderDelayMillis = 10;
+    double duplicate = 0;
+    long delayMillis = 0;
+    long jitterMillis = 0;
+    // Token bucket; 0 is unlimited
+    long rateBytesPerSecond = 0;
+    long bucketBytes = 16 * 1024;
+    // Packets waiting longer for the rate limit are dropped
+    long maxQueueMillis = 200;
+
+    static String usage() {
+        return "Impairment (all seeded):\n"
+                + "  --seed N             random seed (1)\n"
+                + "  --loss PERCENT       independent packet loss\n"
+                + "  --burst-loss P,R,K,H Gilbert-Elliott loss: good->bad P, bad->good R, loss in good K, in bad H (0..1)\n"
+                + "  --reorder PERCENT    packets delayed by --reorder-delay more (overtaken)\n"
+                + "  --reorder-delay MS   (10)\n"
+                + "  --duplicate PERCENT  packets sent twice\n"
+                + "  --delay MS           one way delay\n"
+                + "  --jitter MS          random additional delay 0..MS (order is kept)\n"
+                + "  --rate KBPS          bandwidth cap in kilobytes per second\n"
+                + "  --bucket BYTES       burst size of the bandwidth cap (16384)\n"
+                + "  --max-queue MS       drop packets waiting longer for the cap (200)\n";
+    }
+
+    /**
+     * @return false if the option is not an impairment option
+     */
+    boolean parseOption(String option, String value) {
+        switch (option) {
+            case "--seed":
+                seed = Long.parseLong(value);
+                return true;
+            case "--loss":
+                goodToBad = 0;
+                badToGood = 1;
+                lossGood = percent(option, value);
+                lossBad = lossGood;
+                return true;
+            case "--burst-loss":
+                String[] parts = value.split(",");
+                if (parts.length != 4) {
+                    throw new IllegalArgumentException("Burst loss needs P,R,K,H: " + value);
+                }
+                goodToBad = probability(option, Double.parseDouble(parts[0]));
+                badToGood = probability(option, Double.parseDouble(parts[1]));
+                lossGood = probability(option, Double.parseDouble(parts[2]));
+                lossBad = probability(option, Double.parseDouble(parts[3]));
+                return true;
+            case "--reorder":
+                reorder = percent(option, value);
+                return true;
+            case "--reorder-delay":
+                reorderDelayMillis = Long.parseLong(value);
+                return true;
+            case "--duplicate":
+                duplicate = percent(option, value);
+                return true;
+            case "--delay":
+                delayMillis = Long.parseLong(value);
+                return true;
+            case "--jitter":
+                jitterMillis = Long.parseLong(value);
+                return true;
+            case "--rate":
+                rateBytesPerSecond = Long.parseLong(value) * 1024;
+                return true;
+            case "--bucket":
+                bucketBytes = Long.parseLong(value);
+                return true;
+            case "--max-queue":
+                maxQueueMillis = Long.parseLong(value);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    boolean isActive() {
+        return goodToBad > 0 || lossGood > 0 || reorder > 0 || duplicate > 0 || delayMillis > 0 || jitterMillis > 0 || rateBytesPerSecond > 0;
+    }
+
+    /**
+     * @return a copy with another seed (for the other direction)
+     */
+    ImpairmentConfig withSeed(long newSeed) {
+        ImpairmentConfig copy = new ImpairmentConfig();
+        copy.seed = newSeed;
+        copy.goodToBad = goodToBad;
+        copy.badToGood = badToGood;
+        copy.lossGood = lossGood;
+        copy.lossBad = lossBad;
+        copy.reorder = reorder;
+        copy.reorderDelayMillis = reorderDelayMillis;
+        copy.duplicate = duplicate;
+        copy.delayMillis = delayMillis;
+        copy.jitterMillis = jitterMillis;
+        copy.rateBytesPerSecond = rateBytesPerSecond;
+        copy.bucketBytes = bucketBytes;
+        copy.maxQueueMillis = maxQueueMillis;
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return "seed " + seed + " loss " + goodToBad + "," + badToGood + "," + lossGood + "," + lossBad + " reorder " + reorder
+                + " duplicate " + duplicate + " delay " + delayMillis + "+" + jitterMillis + "ms rate " + rateBytesPerSecond / 1024 + "KB/s";
+    }
+
+    private static double percent(String option, String value) {
+        return probability(option, Double.parseDouble(value) / 100);
+    }
+
+    private static double probability(String option, double value) {
+        if (value < 0 || value > 1) {
+            throw new IllegalArgumentException(option + " out of range");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,41 @@
+package de.lakoja.roverremote.simulator;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Stand-in for the rover (camera car) on a plain JVM: streams generated jpeg frames over UDP and
+ * HTTP and answers the commands of the app. For running the client without hardware (and load tests).
+ */
+public class RoverSimulator {
+    private static final Logger LOG = Logger.getLogger(RoverSimulator.class.getName());
+    private static final long STATISTICS_PERIOD = 5000;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        SimulatorConfig config;
+        try {
+            config = SimulatorConfig.parse(args);
+        } catch (IllegalArgumentException exc) {
+            System.err.println(exc.getMessage());
+            System.err.print(SimulatorConfig.usage());
+            System.exit(1);
+            return;
+        }
+
+        FrameSource frameSource = new FrameSource(config.width, config.height, config.quality, config.minFrameBytes, config.distinctFrames);
+        LOG.info("Frames " + config.width + "x" + config.height + " of about " + frameSource.getAverageFrameBytes() + " bytes");
+
+        RoverState state = new RoverState(config.voltage);
+        UdpRover udpRover = new UdpRover(config, frameSource, state);
+        HttpRover httpRover = new HttpRover(config, frameSource, state);
+        udpRover.start();
+        httpRover.start();
+
+        while (udpRover.isAlive()) {
+            Thread.sleep(STATISTICS_PERIOD);
+            LOG.info(state.statistics() + " " + udpRover.statistics());
+        }
+
+        httpRover.stopActive();
+    }
+}
@@ -0,0 +1,123 @@
+package de.lakoja.roverremote.simulator;
+
+import de.lakoja.roverremote.TelemetryParser;
+
+import java.util.Locale;
+
+/**
+ * What the rover firmware knows: battery, leds, the current move and its own statistics. Answers the
+ * text commands of both transports.
+ */
+public class RoverState {
+    private final long startMillis = System.currentTimeMillis();
+    private float voltage;
+    private boolean led1 = false;
+    private boolean led2 = false;
+    private boolean irLed = false;
+    private float forward = 0;
+    private float right = 0;
+    private int telemetrySequence = 0;
+
+    private long framesSent = 0;
+    private long packetsSent = 0;
+    private long packetsResent = 0;
+    private long commandsReceived = 0;
+
+    public RoverState(float voltage) {
+        this.voltage = voltage;
+    }
+
+    /**
+     * @return the reply line for the command
+     */
+    public synchronized String handleCommand(String command) {
+        commandsReceived++;
+
+        if (command.startsWith("move ")) {
+            String[] parts = command.split(" ");
+            if (parts.length != 3) {
+                return "ERR " + command;
+            }
+            try {
+                // 0..1000 with 500 being the middle
+                forward = (Integer.parseInt(parts[1]) - 500) / 500.0f;
+                right = (Integer.parseInt(parts[2]) - 500) / 500.0f;
+            } catch (NumberFormatException exc) {
+                return "ERR " + command;
+            }
+            return String.format(Locale.US, "OKC %.2f,%.2f", forward, right);
+        } else if (command.equals("status")) {
+            return String.format(Locale.US, "VOLT %.2f", currentVoltage());
+        } else if (command.startsWith("led2 ")) {
+            led2 = command.endsWith(" 1");
+        } else if (command.startsWith("ir ")) {
+            irLed = command.endsWith(" 1");
+        } else if (command.startsWith("led ")) {
+            led1 = command.endsWith(" 1");
+        }
+
+        return "OK " + command;
+    }
+
+    /**
+     * Writes a binary telemetry frame (version 1, see TelemetryParser).
+     *
+     * @return the length written
+     */
+    public synchronized int encodeTelemetry(byte[] buffer, int offset) {
+        int flags = (led1 ? TelemetryParser.LED1_FLAG : 0) | (led2 ? TelemetryParser.LED2_FLAG : 0) | (irLed ? TelemetryParser.IR_LED_FLAG : 0);
+        long roverMillis = System.currentTimeMillis() - startMillis;
+
+        buffer[offset] = (byte)TelemetryParser.TELEMETRY_PACKET_HEADER.charAt(0);
+        buffer[offset + 1] = (byte)TelemetryParser.TELEMETRY_PACKET_HEADER.charAt(1);
+        buffer[offset + TelemetryParser.VERSION_OFFSET] = TelemetryParser.VERSION;
+        buffer[offset + TelemetryParser.FLAGS_OFFSET] = (byte)flags;
+        writeShort(buffer, offset + TelemetryParser.VOLTAGE_OFFSET, Math.round(currentVoltage() * 1000));
+        writeInt(buffer, offset + TelemetryParser.MILLIS_OFFSET, (int)roverMillis);
+        writeShort(buffer, offset + TelemetryParser.SEQUENCE_OFFSET, telemetrySequence++);
+        writeInt(buffer, offset + TelemetryParser.FRAMES_SENT_OFFSET, (int)framesSent);
+        writeInt(buffer, offset + TelemetryParser.PACKETS_SENT_OFFSET, (int)packetsSent);
+        writeShort(buffer, offset + TelemetryParser.PACKETS_RESENT_OFFSET, (int)packetsResent);
+        buffer[offset + TelemetryParser.RSSI_OFFSET] = (byte)-50;
+
+        return TelemetryParser.V1_LENGTH;
+    }
+
+    public synchronized void frameSent(int packets) {
+        framesSent++;
+        packetsSent += packets;
+    }
+
+    public synchronized void packetsResent(int packets) {
+        packetsResent += packets;
+        packetsSent += packets;
+    }
+
+    public synchronized boolean isMoving() {
+        return forward != 0 || right != 0;
+    }
+
+    public synchronized String statistics() {
+        return "frames " + framesSent + " packets " + packetsSent + " resent " + packetsResent + " commands " + commandsReceived;
+    }
+
+    /**
+     * The battery drains a little while driving.
+     */
+    private float currentVoltage() {
+        float drain = (System.currentTimeMillis() - startMillis) / 3600000.0f * 0.3f;
+        return Math.max(3.3f, voltage - drain - (isMoving() ? 0.15f : 0));
+    }
+
+    static void writeShort(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte)(value >> 8);
+        buffer[offset + 1] = (byte)value;
+    }
+
+    static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte)(value >> 24);
+        buffer[offset + 1] = (byte)(value >> 16);
+        buffer[offset + 2] = (byte)(value >> 8);
+        buffer[offset + 3] = (byte)value;
+    }
+}
@@ -0,0 +1,113 @@
+package de.lakoja.roverremote.simulator;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Command line options of the simulator.
+ */
+public class SimulatorConfig {
+    int fps = 10;
+    int width = 640;
+    int height = 480;
+    float quality = 0.7f;
+    // Frames are padded up to this size (0: as the encoder makes them)
+    int minFrameBytes = 0;
+    // Encoded once and then repeated
+    int distinctFrames = 30;
+    int udpPort = 1510;
+    int httpPort = 8080;
+    // Otherwise learned from the first packet the client sends
+    InetAddress clientAddress = null;
+    int clientPort = 1510;
+    // Pause between the packets of a frame (0: send them as fast as possible)
+    int packetGapMicros = 0;
+    float voltage = 4.1f;
+    ImpairmentConfig impairment = new ImpairmentConfig();
+
+    static String usage() {
+        return "Options:\n"
+                + "  --fps N              frames per second (10)\n"
+                + "  --size WxH           resolution (640x480)\n"
+                + "  --quality Q          jpeg quality 0..1 (0.7)\n"
+                + "  --frame-bytes N      pad every frame to at least N bytes\n"
+                + "  --distinct-frames N  number of different frames repeated (30)\n"
+                + "  --udp-port N         UDP port (1510)\n"
+                + "  --http-port N        HTTP port (8080; the app expects 80)\n"
+                + "  --client HOST[:PORT] stream to this client at once (port 1510)\n"
+                + "  --packet-gap US      pause between the packets of a frame in microseconds (0)\n"
+                + "  --voltage V          battery voltage reported (4.1)\n"
+                + ImpairmentConfig.usage();
+    }
+
+    static SimulatorConfig parse(String[] args) throws UnknownHostException {
+        SimulatorConfig config = new SimulatorConfig();
+
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+
+            switch (option) {
+                case "--fps":
+                    config.fps = positive(option, Integer.parseInt(value));
+                    break;
+                case "--size":
+                    int separator = value.indexOf('x');
+                    if (separator < 0) {
+                        throw new IllegalArgumentException("Size must be WxH: " + value);
+                    }
+                    config.width = positive(option, Integer.parseInt(value.substring(0, separator)));
+                    config.height = positive(option, Integer.parseInt(value.substring(separator + 1)));
+                    break;
+                case "--quality":
+                    config.quality = Float.parseFloat(value);
+                    if (config.quality <= 0 || config.quality > 1) {
+                        throw new IllegalArgumentException("Quality must be in 0..1: " + value);
+                    }
+                    break;
+                case "--frame-bytes":
+                    config.minFrameBytes = Integer.parseInt(value);
+                    break;
+                case "--distinct-frames":
+                    config.distinctFrames = positive(option, Integer.parseInt(value));
+                    break;
+                case "--udp-port":
+                    config.udpPort = positive(option, Integer.parseInt(value));
+                    break;
+                case "--http-port":
+                    config.httpPort = positive(option, Integer.parseInt(value));
+                    break;
+                case "--client":
+                    int colon = value.lastIndexOf(':');
+                    if (colon > 0) {
+                        config.clientPort = positive(option, Integer.parseInt(value.substring(colon + 1)));
+                        value = value.substring(0, colon);
+                    }
+                    config.clientAddress = InetAddress.getByName(value);
+                    break;
+                case "--packet-gap":
+                    config.packetGapMicros = Integer.parseInt(value);
+                    break;
+                case "--voltage":
+                    config.voltage = Float.parseFloat(value);
+                    break;
+                default:
+                    if (!config.impairment.parseOption(option, value)) {
+                        throw new IllegalArgumentException("Unknown option " + option);
+                    }
+            }
+        }
+
+        return config;
+    }
+
+    private static int positive(String option, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(option + " must be positive");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,57 @@
+package de.lakoja.roverremote.simulator;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Caps the bandwidth of a stream (a token bucket like Impairment; loss and reordering do not exist
+ * on a TCP stream).
+ */
+public class ThrottledOutputStream extends FilterOutputStream {
+    private static final int CHUNK = 1460;
+
+    private final long rateBytesPerSecond;
+    private final long bucketDepthNanos;
+    private long bucketNanos = Long.MIN_VALUE;
+
+    public ThrottledOutputStream(OutputStream output, long rateBytesPerSecond, long bucketBytes) {
+        super(output);
+        this.rateBytesPerSecond = rateBytesPerSecond;
+        this.bucketDepthNanos = bucketBytes * 1000000000L / rateBytesPerSecond;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        throttle(1);
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            int chunk = Math.min(CHUNK, length);
+            throttle(chunk);
+            out.write(data, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void throttle(int length) throws IOException {
+        long nowNanos = System.nanoTime();
+        long startNanos = Math.max(bucketNanos, nowNanos - bucketDepthNanos);
+        bucketNanos = startNanos + length * 1000000000L / rateBytesPerSecond;
+
+        long waitNanos = bucketNanos - nowNanos;
+        if (waitNanos > 0) {
+            // What is buffered must go out at the allowed rate as well
+            out.flush();
+            try {
+                Thread.sleep(waitNanos / 1000000, (int)(waitNanos % 1000000));
+            } catch (InterruptedException exc) {
+                throw new IOException("Interrupted while throttling");
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package de.lakoja.roverremote.simulator;
+
+import de.lakoja.roverremote.NackEncoder;
+import de.lakoja.roverremote.UdpRoverConnection;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Logger;
+
+/**
+ * The UDP side of the rover: streams the frames in "RI" packets, resends packets asked for ("MN" and
+ * the compact "MR"), answers commands ("CT" and the acknowledged "CQ") and pushes subscribed telemetry ("TM").
+ *
+ * The client address is learned from the first packet received (unless given).
+ */
+public class UdpRover extends Thread {
+    private static final Logger LOG = Logger.getLogger(UdpRover.class.getName());
+
+    static final int IMAGE_PACKET_DATA_LENGTH = 1200;
+    static final int IMAGE_HEADER_LENGTH = 2 + 4 + 2 + 2;
+    // Frames kept for answering rerequests
+    private static final int HISTORY_FRAMES = 8;
+
+    private final SimulatorConfig config;
+    private final FrameSource frameSource;
+    private final RoverState state;
+    private final DatagramSocket socket;
+    private volatile boolean active = true;
+
+    private volatile InetAddress clientAddress;
+    private volatile int clientPort;
+    private final long startMillis = System.currentTimeMillis();
+    private int lastTimestamp = -1;
+    private final Map<Integer, byte[]> history = new LinkedHashMap<Integer, byte[]>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            return size() > HISTORY_FRAMES;
+        }
+    };
+
+    private long telemetryPeriodMillis = 0;
+    private long telemetryLeaseEndMillis = 0;
+    private long lastTelemetryMillis = 0;
+
+    private final byte[] sendBuffer = new byte[IMAGE_HEADER_LENGTH + IMAGE_PACKET_DATA_LENGTH];
+    private final DatagramPacket sendPacket = new DatagramPacket(sendBuffer, sendBuffer.length);
+    private final DatagramPacket receivePacket = new DatagramPacket(new byte[1500], 1500);
+
+    // Only with impairment: both directions pass a channel
+    private ImpairedChannel outgoing = null;
+    private ImpairedChannel incoming = null;
+    private final Queue<byte[]> incomingDelivered = new ConcurrentLinkedQueue<>();
+
+    public UdpRover(SimulatorConfig config, FrameSource frameSource, RoverState state) throws IOException {
+        super("UdpRover");
+        this.config = config;
+        this.frameSource = frameSource;
+        this.state = state;
+        this.clientAddress = config.clientAddress;
+        this.clientPort = config.clientPort;
+
+        socket = new DatagramSocket(config.udpPort);
+        socket.setSendBufferSize(256 * 1024);
+
+        if (config.impairment.isActive()) {
+            final DatagramPacket impairedPacket = new DatagramPacket(new byte[0], 0);
+            outgoing = new ImpairedChannel("ImpairedToClient", config.impairment, new ImpairedChannel.Receiver() {
+                @Override
+                public void deliver(byte[] data, int length) {
+                    impairedPacket.setData(data, 0, length);
+                    impairedPacket.setAddress(clientAddress);
+                    impairedPacket.setPort(clientPort);
+                    try {
+                        socket.send(impairedPacket);
+                    } catch (IOException exc) {
+                        LOG.warning("Cannot send " + exc.getMessage());
+                    }
+                }
+            });
+            // The other direction has its own random sequence
+            incoming = new ImpairedChannel("ImpairedFromClient", config.impairment.withSeed(config.impairment.seed + 1), new ImpairedChannel.Receiver() {
+                @Override
+                public void deliver(byte[] data, int length) {
+                    incomingDelivered.add(data);
+                }
+            });
+            outgoing.start();
+            incoming.start();
+            LOG.info("Impairment " + config.impairment);
+        }
+    }
+
+    public String statistics() {
+        if (outgoing == null) {
+            return "";
+        }
+        return "to client: " + outgoing.statistics() + "; from client: " + incoming.statistics();
+    }
+
+    public void stopActive() {
+        active = false;
+    }
+
+    @Override
+    public void run() {
+        LOG.info("UDP rover on port " + config.udpPort + " with " + config.fps + " fps");
+
+        long frameIntervalNanos = 1000000000L / config.fps;
+        long nextFrameNanos = System.nanoTime();
+
+        try {
+            while (active) {
+                long waitNanos = nextFrameNanos - System.nanoTime();
+                if (waitNanos <= 0) {
+                    if (clientAddress != null) {
+                        sendFrame(frameSource.nextFrame());
+                    }
+                    nextFrameNanos += frameIntervalNanos;
+                    if (nextFrameNanos < System.nanoTime()) {
+                        // Too slow: do not try to catch up
+                        nextFrameNanos = System.nanoTime() + frameIntervalNanos;
+                    }
+                    continue;
+                }
+
+                pushTelemetry();
+
+                byte[] delivered;
+                while ((delivered = incomingDelivered.poll()) != null) {
+                    handlePacket(delivered, delivered.length);
+                }
+
+                socket.setSoTimeout((int)Math.max(1, Math.min(waitNanos / 1000000, 5)));
+                try {
+                    receivePacket.setLength(receivePacket.getData().length);
+                    socket.receive(receivePacket);
+                } catch (SocketTimeoutException exc) {
+                    continue;
+                }
+
+                if (clientAddress == null) {
+                    clientAddress = receivePacket.getAddress();
+                    clientPort = receivePacket.getPort();
+                    LOG.info("Streaming to " + clientAddress + ":" + clientPort);
+                }
+
+                if (incoming != null) {
+                    incoming.send(receivePacket.getData(), 0, receivePacket.getLength());
+                } else {
+                    handlePacket(receivePacket.getData(), receivePacket.getLength());
+                }
+            }
+        } catch (IOException exc) {
+            LOG.severe("UDP rover stopped " + exc.getMessage());
+        }
+
+        if (outgoing != null) {
+            outgoing.stopActive();
+            incoming.stopActive();
+        }
+        socket.close();
+    }
+
+    private void sendFrame(byte[] jpeg) throws IOException {
+        int timestamp = (int)(System.currentTimeMillis() - startMillis);
+        if (timestamp <= lastTimestamp) {
+            timestamp = lastTimestamp + 1;
+        }
+        lastTimestamp = timestamp;
+        history.put(timestamp, jpeg);
+
+        int total = (jpeg.length + IMAGE_PACKET_DATA_LENGTH - 1) / IMAGE_PACKET_DATA_LENGTH;
+        for (int i = 0; i < total; i++) {
+            sendImagePacket(timestamp, i, total, jpeg);
+
+            if (config.packetGapMicros > 0) {
+                sleepMicros(config.packetGapMicros);
+            }
+        }
+
+        state.frameSent(total);
+    }
+
+    private void sendImagePacket(int timestamp, int packetNumber, int total, byte[] jpeg) throws IOException {
+        int offset = packetNumber * IMAGE_PACKET_DATA_LENGTH;
+        int length = Math.min(IMAGE_PACKET_DATA_LENGTH, jpeg.length - offset);
+
+        sendBuffer[0] = 'R';
+        sendBuffer[1] = 'I';
+        RoverState.writeInt(sendBuffer, 2, timestamp);
+        RoverState.writeShort(sendBuffer, 6, packetNumber);
+        RoverState.writeShort(sendBuffer, 8, total);
+        System.arraycopy(jpeg, offset, sendBuffer, IMAGE_HEADER_LENGTH, length);
+
+        send(sendBuffer, IMAGE_HEADER_LENGTH + length);
+    }
+
+    private void handlePacket(byte[] data, int length) throws IOException {
+        if (length < 2) {
+            LOG.warning("Dropped packet of length " + length);
+            return;
+        }
+
+        if (data[0] == 'C' && data[1] == 'T') {
+            String reply = state.handleCommand(new String(data, 2, length - 2, StandardCharsets.US_ASCII).trim());
+            sendText("CT", -1, reply);
+        } else if (data[0] == 'C' && data[1] == 'Q') {
+            if (length < 4) {
+                LOG.warning("Dropped sequenced command of length " + length);
+                return;
+            }
+            int sequence = UdpRoverConnection.readShort(data, 2);
+            String command = new String(data, 4, length - 4, StandardCharsets.US_ASCII).trim();
+            sendText("CA", sequence, handleExtendedCommand(command));
+        } else if (data[0] == 'M' && data[1] == 'N') {
+            // Timestamp and at least one packet number (shorts)
+            if (length < 8 || (length - 6) % 2 != 0) {
+                LOG.warning("Dropped rerequest of length " + length);
+                return;
+            }
+            int timestamp = UdpRoverConnection.readInt(data, 2);
+            for (int pos = 6; pos + 2 <= length; pos += 2) {
+                resend(timestamp, UdpRoverConnection.readShort(data, pos));
+            }
+        } else if (data[0] == 'M' && data[1] == 'R') {
+            handleCompactRerequest(data, length);
+        } else {
+            LOG.warning("Unknown packet " + (char)data[0] + (char)data[1] + " length " + length);
+        }
+    }
+
+    private String handleExtendedCommand(String command) throws IOException {
+        if (command.equals("telemetry")) {
+            sendTelemetry();
+            return "OK telemetry";
+        } else if (command.startsWith("subscribe ")) {
+            // subscribe mask period lease
+            String[] parts = command.split(" ");
+            if (parts.length != 4) {
+                return "ERR " + command;
+            }
+            long periodMillis;
+            long leaseMillis;
+            try {
+                Integer.parseInt(parts[1]);
+                periodMillis = Long.parseLong(parts[2]);
+                leaseMillis = Long.parseLong(parts[3]);
+            } catch (NumberFormatException exc) {
+                LOG.warning("Dropped malformed subscription " + command);
+                return "ERR " + command;
+            }
+            if (periodMillis <= 0 || leaseMillis < 0) {
+                LOG.warning("Dropped subscription out of range " + command);
+                return "ERR " + command;
+            }
+            telemetryPeriodMillis = periodMillis;
+            telemetryLeaseEndMillis = System.currentTimeMillis() + leaseMillis;
+            return "OK " + command;
+        }
+
+        return state.handleCommand(command);
+    }
+
+    /**
+     * Decodes "MR" (see NackEncoder); a malformed packet is dropped as a whole.
+     */
+    private void handleCompactRerequest(byte[] data, int length) throws IOException {
+        final List<int[]> missing = new ArrayList<>();
+        int frames = NackEncoder.decode(data, 0, length, new NackEncoder.MissingPacketListener() {
+            @Override
+            public void packetMissing(int timestamp, int packetNumber) {
+                missing.add(new int[] { timestamp, packetNumber });
+            }
+        });
+
+        if (frames < 0) {
+            LOG.warning("Dropped malformed compact rerequest of length " + length);
+            return;
+        }
+
+        for (int[] frameAndPacket : missing) {
+            resend(frameAndPacket[0], frameAndPacket[1]);
+        }
+    }
+
+    private void resend(int timestamp, int packetNumber) throws IOException {
+        byte[] jpeg = history.get(timestamp);
+        if (jpeg == null) {
+            return;
+        }
+
+        int total = (jpeg.length + IMAGE_PACKET_DATA_LENGTH - 1) / IMAGE_PACKET_DATA_LENGTH;
+        if (packetNumber < total) {
+            sendImagePacket(timestamp, packetNumber, total, jpeg);
+            state.packetsResent(1);
+        }
+    }
+
+    private void pushTelemetry() throws IOException {
+        long now = System.currentTimeMillis();
+        if (telemetryPeriodMillis > 0 && now < telemetryLeaseEndMillis && now - lastTelemetryMillis >= telemetryPeriodMillis) {
+            sendTelemetry();
+        }
+    }
+
+    private void sendTelemetry() throws IOException {
+        if (clientAddress == null) {
+            return;
+        }
+
+        int length = state.encodeTelemetry(sendBuffer, 0);
+        send(sendBuffer, length);
+        lastTelemetryMillis = System.currentTimeMillis();
+    }
+
+    private void sendText(String header, int sequence, String text) throws IOException {
+        int pos = 0;
+        sendBuffer[pos++] = (byte)header.charAt(0);
+        sendBuffer[pos++] = (byte)header.charAt(1);
+        if (sequence >= 0) {
+            RoverState.writeShort(sendBuffer, pos, sequence);
+            pos += 2;
+        }
+        byte[] textBytes = text.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(textBytes, 0, sendBuffer, pos, textBytes.length);
+
+        send(sendBuffer, pos + textBytes.length);
+    }
+
+    private void send(byte[] data, int length) throws IOException {
+        if (outgoing != null) {
+            outgoing.send(data, 0, length);
+            return;
+        }
+
+        sendPacket.setData(data, 0, length);
+        sendPacket.setAddress(clientAddress);
+        sendPacket.setPort(clientPort);
+        socket.send(sendPacket);
+    }
+
+    private static void sleepMicros(int micros) {
+        long end = System.nanoTime() + micros * 1000L;
+        while (System.nanoTime() < end) {
+            Thread.yield();
+        }
+    }
+}